@@ -0,0 +1,79 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.ElkApplication;
+import com.example.elk.stub.StubElasticsearch;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * /articles 接口的压测：假 es 每次耗时 200ms，tomcat 只给 8 个工作线程，同时打 2000 个请求
+ * <p>
+ * 阻塞写法下吞吐上限是 8 / 0.2s = 40 req/s，异步写法下只受 es 连接池限制。
+ * 参数依次是 总请求数、并发数、es 延迟毫秒，例如 {@code 2000 1000 200}
+ */
+public class ArticleApiLoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 200;
+
+        try (StubElasticsearch stub = new StubElasticsearch(1024).latency(latencyMillis).start()) {
+            ConfigurableApplicationContext context = SpringApplication.run(ElkApplication.class,
+                    "--server.port=0",
+                    "--server.tomcat.threads.max=8",
+                    "--server.tomcat.max-connections=" + (concurrency * 2),
+                    "--es.servers=" + stub.address(),
+                    "--es.pool.max-total=" + concurrency,
+                    "--es.pool.max-per-route=" + concurrency,
+                    "--logging.level.root=WARN");
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+            long[] latencies = new long[requests];
+            AtomicInteger errors = new AtomicInteger();
+            Semaphore inFlight = new Semaphore(concurrency);
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[requests];
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                int n = i;
+                //每个请求的查询条件都不同，避免被 single-flight 合并
+                HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://127.0.0.1:" + port + "/articles/search/term?field=title&value=v" + n)).build();
+                inFlight.acquire();
+                long sent = System.nanoTime();
+                futures[i] = http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                        .whenComplete((response, e) -> {
+                            latencies[n] = System.nanoTime() - sent;
+                            if (e != null || response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                            inFlight.release();
+                        });
+            }
+            CompletableFuture.allOf(futures).exceptionally(e -> null).join();
+            long elapsedNanos = System.nanoTime() - start;
+            context.close();
+
+            Arrays.sort(latencies);
+            System.out.printf("请求:%d 并发:%d es延迟:%dms%n", requests, concurrency, latencyMillis);
+            System.out.printf("耗时:%dms 吞吐:%.1f req/s 失败:%d%n",
+                    elapsedNanos / 1_000_000, requests * 1e9 / elapsedNanos, errors.get());
+            System.out.printf("延迟 p50:%dms p99:%dms max:%dms%n",
+                    latencies[requests / 2] / 1_000_000,
+                    latencies[(int) (requests * 0.99)] / 1_000_000,
+                    latencies[requests - 1] / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.elk.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.example.elk.bean.Article;
+import com.example.elk.codec.ArticleWriter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 构造一条 IndexRequest 的序列化开销：fastjson、jackson databind、流式 ArticleWriter
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArticleSerializationBenchmark {
+
+    public static final String CONTENT = "我们希望我们的搜索解决方案要快，我们希望有一个零配置和一个完全免费的搜索模式，"
+            + "我们希望能够简单地使用JSON通过HTTP的索引数据，我们希望我们的搜索服务器始终可用，"
+            + "我们希望能够一台开始并扩展到数百，我们要实时搜索，我们要简单的多租户，我们希望建立一个云的解决方案。"
+            + "Elasticsearch旨在解决所有这些问题和更多的问题。";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private Article article;
+
+    @Setup
+    public void setup() {
+        article = new Article(2L, "搜索工作其实很快乐", CONTENT);
+    }
+
+    @Benchmark
+    public IndexRequest fastjson() {
+        return new IndexRequest("article_index").id("2").source(JSON.toJSONString(article), XContentType.JSON);
+    }
+
+    @Benchmark
+    public IndexRequest jacksonDatabind() throws JsonProcessingException {
+        return new IndexRequest("article_index").id("2").source(objectMapper.writeValueAsString(article).getBytes(), XContentType.JSON);
+    }
+
+    @Benchmark
+    public IndexRequest streamingWriter() {
+        return new IndexRequest("article_index").id("2").source(ArticleWriter.toBytesReference(article), XContentType.JSON);
+    }
+}
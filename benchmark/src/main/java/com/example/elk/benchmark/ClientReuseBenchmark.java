@@ -0,0 +1,66 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次调用都新建客户端再关掉（原来 ElkApplicationTests、Elasticsearch7xTest 的写法）和共用一个客户端的对比
+ * 新建客户端要起 io 线程、建 tcp 连接，关掉时还要等 io 线程退出，两组的差就是每次调用省下的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientReuseBenchmark {
+
+    private StubElasticsearch stub;
+    private HttpHost host;
+    private RestHighLevelClient shared;
+
+    @Setup
+    public void setup() {
+        try {
+            stub = new StubElasticsearch(4).start();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        host = HttpHost.create(stub.address());
+        shared = new RestHighLevelClient(RestClient.builder(host));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        shared.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public SearchResponse sharedClient() throws IOException {
+        return shared.search(request(), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public SearchResponse clientPerCall() throws IOException {
+        try (RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(host))) {
+            return client.search(request(), RequestOptions.DEFAULT);
+        }
+    }
+
+    private static SearchRequest request() {
+        return new SearchRequest("article_index")
+                .source(new SearchSourceBuilder().query(QueryBuilders.termQuery("title", "学习")).size(10));
+    }
+}
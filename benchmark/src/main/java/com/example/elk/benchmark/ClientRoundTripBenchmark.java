@@ -0,0 +1,105 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.bean.Article;
+import com.example.elk.codec.ArticleHitMapper;
+import com.example.elk.codec.ArticleWriter;
+import com.example.elk.metrics.ClientMetrics;
+import com.example.elk.stub.StubElasticsearch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程走完一次完整的客户端调用：构造请求、序列化、经连接池发到假 es、解析响应、解码成 Article
+ * 假 es 没有延迟，测出来的是客户端自身加上本机回环的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientRoundTripBenchmark {
+
+    /**
+     * 是否套上 ClientMetrics，对比两组结果就是统计本身的开销
+     */
+    @Param({"false", "true"})
+    public boolean instrumented;
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+    private Article article;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = new StubElasticsearch(4).cannedRoutes().start();
+        RestClientBuilder builder = RestClient.builder(HttpHost.create(stub.address()));
+        if (instrumented) {
+            builder.setHttpClientConfigCallback(new ClientMetrics(new SimpleMeterRegistry(), new double[]{0.5, 0.99})::instrument);
+        }
+        client = new RestHighLevelClient(builder);
+        article = new Article(1L, "搜索工作其实很快乐", ArticleSerializationBenchmark.CONTENT);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public List<Article> search() throws IOException {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.termQuery("title", "学习"))
+                        .filter(QueryBuilders.rangeQuery("id").gte(1).lte(100)))
+                .size(10);
+        return ArticleHitMapper.of(source).toList(client.search(new SearchRequest("article_index").source(source), RequestOptions.DEFAULT));
+    }
+
+    @Benchmark
+    public IndexResponse index() throws IOException {
+        return client.index(new IndexRequest("article_index").id("1")
+                .source(ArticleWriter.toBytesReference(article), XContentType.JSON), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public BulkResponse bulk() throws IOException {
+        BulkRequest request = new BulkRequest();
+        for (long i = 0; i < 100; i++) {
+            request.add(new IndexRequest("article_index").id(String.valueOf(i))
+                    .source(ArticleWriter.toBytesReference(article), XContentType.JSON));
+        }
+        return client.bulk(request, RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public Article get() throws IOException {
+        return ArticleHitMapper.ALL.map(client.get(new GetRequest("article_index", "1"), RequestOptions.DEFAULT).getSourceAsBytesRef());
+    }
+
+    @Benchmark
+    public MultiGetResponse mget() throws IOException {
+        return client.mget(new MultiGetRequest().add("article_index", "1"), RequestOptions.DEFAULT);
+    }
+}
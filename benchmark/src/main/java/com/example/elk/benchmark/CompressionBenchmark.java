@@ -0,0 +1,160 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.AdaptiveCompression;
+import com.example.elk.codec.ArticleWriter;
+import com.example.elk.codec.GzipCodec;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 500 条中文 Article 的 bulk 请求体（约 330KB）压缩的 cpu 开销和线路字节数
+ * <p>
+ * codec 组：池化的 {@link GzipCodec} 和每次新建 GZIPOutputStream/GZIPInputStream 的对比，gc profiler 看每次的分配；
+ * wire 组：经过假 es 的完整 bulk，不压缩和 {@link AdaptiveCompression} 的对比，wireBytes 是每次请求线路上的请求体字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int ARTICLES = 500;
+    private static final int CONTENT_LENGTH = 200;
+
+    @Param({"1", "6"})
+    public int level;
+
+    private byte[] body;
+    private byte[] gzipped;
+    private GzipCodec codec;
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient plainClient;
+    private RestHighLevelClient compressingClient;
+    private AdaptiveCompression compression;
+    private long plainWireBytes;
+
+    /**
+     * 每轮迭代的总数，wireBytes / requests 是每个请求线路上的请求体字节数
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long wireBytes;
+        public long requests;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        BulkRequest bulk = bulk();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (DocWriteRequest<?> request : bulk.requests()) {
+            out.write(("{\"index\":{\"_index\":\"article_index\",\"_id\":\"" + request.id() + "\"}}\n").getBytes());
+            BytesReference source = ((IndexRequest) request).source();
+            source.writeTo(out);
+            out.write('\n');
+        }
+        body = out.toByteArray();
+        codec = new GzipCodec(level, 4);
+        gzipped = codec.compress(body);
+
+        stub = new StubElasticsearch(4).cannedRoutes().start();
+        HttpHost host = HttpHost.create(stub.address());
+        plainClient = new RestHighLevelClient(RestClient.builder(host));
+        compression = new AdaptiveCompression("1kb", 0.8, level, 4, true, "100mb");
+        compressingClient = new RestHighLevelClient(RestClient.builder(host).setHttpClientConfigCallback(compression::instrument));
+        //HLRC 实际发出的请求体大小，和上面手拼的 body 略有差别
+        compressingClient.bulk(bulk(), RequestOptions.DEFAULT);
+        plainWireBytes = compression.getUncompressedBytes();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        plainClient.close();
+        compressingClient.close();
+        stub.close();
+    }
+
+    /**
+     * 每条的内容从 CONTENT 里随机取字拼成，所有文档都一样的话 gzip 能压到几十分之一，不像真实数据
+     */
+    private static BulkRequest bulk() {
+        String chars = ArticleSerializationBenchmark.CONTENT;
+        Random random = new Random(42);
+        BulkRequest bulk = new BulkRequest("article_index");
+        for (long i = 0; i < ARTICLES; i++) {
+            StringBuilder content = new StringBuilder(CONTENT_LENGTH);
+            for (int j = 0; j < CONTENT_LENGTH; j++) {
+                content.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            bulk.add(new IndexRequest().id(String.valueOf(i)).source(ArticleWriter.toBytesReference(
+                    new Article(i, "搜索工作其实很快乐" + i, content.toString())), XContentType.JSON));
+        }
+        return bulk;
+    }
+
+    @Benchmark
+    public byte[] pooledCompress() {
+        return codec.compress(body);
+    }
+
+    @Benchmark
+    public byte[] jdkCompress() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] pooledDecompress() throws IOException {
+        return codec.decompress(gzipped, 0, gzipped.length);
+    }
+
+    @Benchmark
+    public byte[] jdkDecompress() throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public BulkResponse wirePlain(Wire wire) throws IOException {
+        wire.wireBytes += plainWireBytes;
+        wire.requests++;
+        return plainClient.bulk(bulk(), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public BulkResponse wireCompressed(Wire wire) throws IOException {
+        long before = compression.getCompressedBytes();
+        BulkResponse response = compressingClient.bulk(bulk(), RequestOptions.DEFAULT);
+        wire.wireBytes += compression.getCompressedBytes() - before;
+        wire.requests++;
+        return response;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.elk.benchmark;
+
+import com.alibaba.fastjson.JSONObject;
+import com.example.elk.bean.Article;
+import com.example.elk.codec.HighlightProjection;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 100 条 hit 的高亮查询响应：原来的整个 _source + 高亮，和 {@link HighlightProjection} 只取 id、title 加正文片段
+ * <p>
+ * 解码包括解析 SearchResponse 和转成 Article，responseBytes / responses 是每个响应的字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HighlightProjectionBenchmark {
+
+    private static final int HITS = 100;
+    private static final String FRAGMENT = "我们希望我们的<em>搜索</em>解决方案要快，我们希望有一个零配置和一个完全免费的<em>搜索</em>模式，我们希望能够简单地使用JSON";
+
+    private static final HighlightProjection SNIPPETS = HighlightProjection.of(new String[]{"title", "content"},
+            new String[]{"id", "title"}, "<em>", "</em>", 100, 1);
+
+    private byte[] fullResponse;
+    private byte[] projectedResponse;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+        public long responseBytes;
+        public long responses;
+    }
+
+    @Setup
+    public void setup() {
+        String content = ArticleSerializationBenchmark.CONTENT.repeat(4);
+        fullResponse = response(i -> "{\"id\":" + i + ",\"title\":\"搜索工作其实很快乐" + i + "\",\"content\":\"" + content + "\"}");
+        projectedResponse = response(i -> "{\"id\":" + i + ",\"title\":\"搜索工作其实很快乐" + i + "\"}");
+    }
+
+    private interface Source {
+        String of(int i);
+    }
+
+    private static byte[] response(Source source) {
+        StringBuilder json = new StringBuilder("{\"took\":3,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":" + HITS + ",\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":[");
+        for (int i = 0; i < HITS; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"").append(i).append("\",\"_score\":1.0,")
+                    .append("\"_source\":").append(source.of(i)).append(',')
+                    .append("\"highlight\":{\"title\":[\"<em>搜索</em>工作其实很快乐").append(i).append("\"],")
+                    .append("\"content\":[\"").append(FRAGMENT).append("\"]}}");
+        }
+        return json.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static SearchResponse parse(byte[] bytes) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                DeprecationHandler.IGNORE_DEPRECATIONS, bytes)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    /**
+     * 原来的做法：整个 _source 转成字符串再用 fastjson 解析，然后把高亮片段拼到 title 上
+     */
+    @Benchmark
+    public void fullSource(Payload payload, Blackhole bh) throws IOException {
+        payload.responseBytes += fullResponse.length;
+        payload.responses++;
+        for (SearchHit hit : parse(fullResponse).getHits().getHits()) {
+            Article article = JSONObject.parseObject(hit.getSourceAsString(), Article.class);
+            HighlightField title = hit.getHighlightFields().get("title");
+            if (title != null) {
+                StringBuilder fragments = new StringBuilder();
+                for (Text fragment : title.getFragments()) {
+                    fragments.append(fragment.string());
+                }
+                article.setTitle(fragments.toString());
+            }
+            bh.consume(article);
+        }
+    }
+
+    @Benchmark
+    public void projection(Payload payload, Blackhole bh) throws IOException {
+        payload.responseBytes += projectedResponse.length;
+        payload.responses++;
+        bh.consume(SNIPPETS.toList(parse(projectedResponse)));
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.elk.benchmark;
+
+import com.alibaba.fastjson.JSONObject;
+import com.example.elk.bean.Article;
+import com.example.elk.codec.ArticleHitMapper;
+import com.example.elk.codec.ArticleWriter;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.SearchHit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解码 1 万条 hit：原来的 getSourceAsString + fastjson、getSourceAsMap、流式 ArticleHitMapper
+ * getSourceAsMap 会把结果缓存在 hit 上，所以每次调用前都重新造一批 hit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HitDecodingBenchmark {
+
+    private static final int HITS = 10_000;
+
+    private BytesArray[] sources;
+    private SearchHit[] hits;
+
+    @Setup
+    public void setup() {
+        sources = new BytesArray[HITS];
+        for (int i = 0; i < HITS; i++) {
+            sources[i] = new BytesArray(ArticleWriter.toBytes(new Article((long) i, i + "搜索工作其实很快乐", i + ArticleSerializationBenchmark.CONTENT)));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void freshHits() {
+        hits = new SearchHit[HITS];
+        for (int i = 0; i < HITS; i++) {
+            hits[i] = new SearchHit(i, String.valueOf(i), null, Collections.emptyMap(), Collections.emptyMap()).sourceRef(sources[i]);
+        }
+    }
+
+    @Benchmark
+    public void fastjsonFromSourceString(Blackhole bh) {
+        for (SearchHit hit : hits) {
+            bh.consume(JSONObject.parseObject(hit.getSourceAsString(), Article.class));
+        }
+    }
+
+    @Benchmark
+    public void sourceAsMap(Blackhole bh) {
+        for (SearchHit hit : hits) {
+            Map<String, Object> map = hit.getSourceAsMap();
+            bh.consume(new Article(((Number) map.get("id")).longValue(), (String) map.get("title"), (String) map.get("content")));
+        }
+    }
+
+    @Benchmark
+    public void streamingMapper(Blackhole bh) {
+        for (SearchHit hit : hits) {
+            bh.consume(ArticleHitMapper.ALL.map(hit));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.bean.Article;
+import com.example.elk.cache.ArticleNearCache;
+import com.example.elk.codec.ArticleWriter;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在 256mb 的 {@link ArticleNearCache} 里放 80 万条后按 id 读，看命中时的耗时和分配
+ * <p>
+ * 作为对比，同样的 get 走 _mget 到本机 es 通常要几百微秒
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-XX:MaxDirectMemorySize=512m"})
+public class NearCacheBenchmark {
+
+    private static final int ARTICLES = 800_000;
+
+    private ArticleNearCache cache;
+
+    @Setup
+    public void setup() {
+        cache = new ArticleNearCache("article_index", "256mb", "1h");
+        String content = ArticleSerializationBenchmark.CONTENT.substring(0, 60);
+        for (long id = 0; id < ARTICLES; id++) {
+            byte[] source = ArticleWriter.toBytes(new Article(id, "搜索工作其实很快乐" + id, content));
+            GetResult result = new GetResult("article_index", "_doc", String.valueOf(id), 1, 1, 1, true,
+                    new BytesArray(source), Collections.emptyMap(), Collections.emptyMap());
+            cache.fill(id, new GetResponse(result), cache.generation());
+        }
+        if (cache.size() != ARTICLES) {
+            throw new IllegalStateException("只缓存了" + cache.size() + "条");
+        }
+    }
+
+    @Benchmark
+    public Article hit() {
+        return cache.get(ThreadLocalRandom.current().nextInt(ARTICLES));
+    }
+
+    /**
+     * 同一个热点 id，条目一直在 CPU 缓存里，剩下的基本是解析 _source 的开销
+     */
+    @Benchmark
+    public Article hotId() {
+        return cache.get(42);
+    }
+}
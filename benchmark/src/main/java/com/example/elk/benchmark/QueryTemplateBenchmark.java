@@ -0,0 +1,65 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.codec.QueryTemplate;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.elk.codec.QueryTemplate.param;
+
+/**
+ * 和 {@link RequestBuildingBenchmark#searchSource()} 同一个查询：每次构造 SearchSourceBuilder 再渲染，
+ * 和编译好的 {@link QueryTemplate} 只拼参数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryTemplateBenchmark {
+
+    private QueryTemplate template;
+    private long idTo;
+
+    @Setup
+    public void setup() {
+        template = QueryTemplate.compile(new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.termQuery("title", param("title")))
+                        .should(QueryBuilders.termsQuery("content.keyword", param("contents")))
+                        .filter(QueryBuilders.rangeQuery("id").gte(param("idFrom")).lte(param("idTo"))))
+                .highlighter(new HighlightBuilder().field("title"))
+                .sort("id", SortOrder.ASC)
+                .size(20));
+    }
+
+    @Benchmark
+    public BytesReference builder() throws IOException {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.termQuery("title", "学习"))
+                        .should(QueryBuilders.termsQuery("content.keyword", "每日充电", "兢兢业业工作"))
+                        .filter(QueryBuilders.rangeQuery("id").gte(1).lte(++idTo)))
+                .highlighter(new HighlightBuilder().field("title"))
+                .sort("id", SortOrder.ASC)
+                .size(20);
+        return XContentHelper.toXContent(source, XContentType.JSON, false);
+    }
+
+    @Benchmark
+    public byte[] template() {
+        return template.render(Map.of("title", "学习", "contents", List.of("每日充电", "兢兢业业工作"),
+                "idFrom", 1, "idTo", ++idTo));
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.bean.Article;
+import com.example.elk.codec.ArticleWriter;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不发请求，只看请求体的构造和渲染：查询 DSL 渲染成 json、100 条文档组装成 BulkRequest
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBuildingBenchmark {
+
+    private Article article;
+
+    @Setup
+    public void setup() {
+        article = new Article(2L, "搜索工作其实很快乐", ArticleSerializationBenchmark.CONTENT);
+    }
+
+    @Benchmark
+    public BytesReference searchSource() throws IOException {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.boolQuery()
+                        .must(QueryBuilders.termQuery("title", "学习"))
+                        .should(QueryBuilders.termsQuery("content.keyword", "每日充电", "兢兢业业工作"))
+                        .filter(QueryBuilders.rangeQuery("id").gte(1).lte(100)))
+                .highlighter(new HighlightBuilder().field("title"))
+                .sort("id", SortOrder.ASC)
+                .size(20);
+        return XContentHelper.toXContent(source, XContentType.JSON, false);
+    }
+
+    @Benchmark
+    public long bulkBody() {
+        BulkRequest request = new BulkRequest();
+        for (long i = 0; i < 100; i++) {
+            request.add(new IndexRequest("article_index").id(String.valueOf(i))
+                    .source(ArticleWriter.toBytesReference(article), XContentType.JSON));
+        }
+        return request.estimatedSizeInBytes();
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.elk.benchmark;
+
+import com.example.elk.config.RestClientConfig;
+import com.example.elk.stub.StubElasticsearch;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接池大小对吞吐的影响：64 个线程并发查一个固定 5ms 延迟的假 es
+ * 池子小于并发数时线程都在等连接，吞吐基本等于 maxPerRoute / 5ms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Threads(64)
+@Fork(1)
+public class RestClientPoolBenchmark {
+
+    @Param({"10", "30", "64"})
+    public int poolSize;
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+    private SearchRequest request;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = new StubElasticsearch(128).latency(5).start();
+        RestClientConfig config = new RestClientConfig();
+        ReflectionTestUtils.setField(config, "servers", new String[]{stub.address()});
+        ReflectionTestUtils.setField(config, "scheme", "http");
+        ReflectionTestUtils.setField(config, "maxConnTotal", poolSize);
+        ReflectionTestUtils.setField(config, "maxConnPerRoute", poolSize);
+        ReflectionTestUtils.setField(config, "keepAliveMillis", 60000L);
+        ReflectionTestUtils.setField(config, "connectTimeoutMillis", 1000);
+        ReflectionTestUtils.setField(config, "socketTimeoutMillis", 30000);
+        client = config.restHighLevelClient();
+        request = new SearchRequest("article_index")
+                .source(new SearchSourceBuilder().query(QueryBuilders.termQuery("content.keyword", "兢兢业业工作")));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public SearchResponse search() throws IOException {
+        return client.search(request, RequestOptions.DEFAULT);
+    }
+}
@@ -2,8 +2,10 @@ package com.example.elk;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.elasticsearch.ElasticsearchRestClientAutoConfiguration;
 
-@SpringBootApplication
+//客户端由 RestClientConfig 统一创建，不要 boot 再自动建一个连 localhost 的 RestClient 和 Sniffer
+@SpringBootApplication(exclude = ElasticsearchRestClientAutoConfiguration.class)
 public class ElkApplication {
 
     public static void main(String[] args) {
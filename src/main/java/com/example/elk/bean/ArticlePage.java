@@ -0,0 +1,18 @@
+package com.example.elk.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+@Getter
+@AllArgsConstructor
+public class ArticlePage {
+
+    private List<Article> articles;
+
+    /**
+     * 下一页的续读令牌，为 null 表示已经是最后一页
+     */
+    private String nextToken;
+}
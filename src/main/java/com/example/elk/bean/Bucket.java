@@ -0,0 +1,18 @@
+package com.example.elk.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * 聚合的一个桶，key 是 es 返回的 key_as_string（没有时是 key）
+ */
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class Bucket {
+
+    private String key;
+
+    private long count;
+}
@@ -0,0 +1,167 @@
+package com.example.elk.cache;
+
+import com.example.elk.bean.Article;
+import com.example.elk.codec.ArticleHitMapper;
+import com.example.elk.service.IndexWriteListener;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按 id 查 Article 的进程内近端缓存，放在 ArticleService.get 前面，命中时不发请求
+ * <p>
+ * 缓存的是 get 返回的 _source 原始字节，按 id 分片存在 {@link OffHeapStore} 的堆外内存里，命中时才解析成 Article。
+ * 本地写入（ArticleService.index、BulkIndexer、BulkSpool）完成后通过 {@link IndexWriteListener} 删掉对应的 id。
+ * 读穿透之前先取一个写入代数，请求期间有本地写入就不回填，避免把写入之前读到的旧文档放进缓存；
+ * 回填时再按 (_primary_term, _seq_no) 比较，旧版本不会覆盖新版本。
+ * 其他进程的写入感知不到，条目最多保留 ttl。
+ */
+@Component
+@ConditionalOnProperty(name = "es.near-cache.enabled", havingValue = "true")
+public class ArticleNearCache implements IndexWriteListener {
+
+    /**
+     * 分成多个 {@link OffHeapStore}，每个有自己的锁，并发读不会都排在一把锁上
+     */
+    private static final int SHARDS = 16;
+
+    private final String index;
+    private final OffHeapStore[] shards = new OffHeapStore[SHARDS];
+    private final long ttlNanos;
+
+    /**
+     * 先加代数再去分片的锁里删，回填在分片的锁里检查代数，两者不会交错出旧数据
+     */
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ArticleNearCache(@Value("${es.index:article_index}") String index,
+                            @Value("${es.near-cache.max-size:64mb}") String maxSize,
+                            @Value("${es.near-cache.ttl:5m}") String ttl) {
+        this.index = index;
+        int shardSize = Math.toIntExact(ByteSizeValue.parseBytesSizeValue(maxSize, "es.near-cache.max-size").getBytes() / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new OffHeapStore(shardSize);
+        }
+        this.ttlNanos = TimeValue.parseTimeValue(ttl, "es.near-cache.ttl").nanos();
+    }
+
+    /**
+     * 没有缓存或者已经过期时返回 null
+     */
+    public Article get(long id) {
+        byte[] source = shard(id).get(id, System.nanoTime() - ttlNanos);
+        if (source == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return ArticleHitMapper.ALL.map(new BytesArray(source));
+    }
+
+    /**
+     * 读穿透之前调用，结果交给 {@link #fill}
+     */
+    public long generation() {
+        return writeGeneration.get();
+    }
+
+    /**
+     * 用 get 的结果回填，generation 之后有过本地写入时不回填；文档不存在时不缓存
+     */
+    public void fill(long id, GetResponse response, long generation) {
+        if (!response.isExists() || response.isSourceEmpty()) {
+            return;
+        }
+        BytesRef source = response.getSourceAsBytesRef().toBytesRef();
+        OffHeapStore store = shard(id);
+        synchronized (store) {
+            if (generation == writeGeneration.get()) {
+                store.put(id, response.getPrimaryTerm(), response.getSeqNo(), System.nanoTime(),
+                        source.bytes, source.offset, source.length);
+            }
+        }
+    }
+
+    @Override
+    public void afterWrite(List<DocWriteRequest<?>> requests) {
+        writeGeneration.incrementAndGet();
+        for (DocWriteRequest<?> request : requests) {
+            if (!index.equals(request.index()) || request.id() == null) {
+                continue;
+            }
+            long id;
+            try {
+                id = Long.parseLong(request.id());
+            } catch (NumberFormatException e) {
+                //不是 Article 的数字 id，缓存里不会有
+                continue;
+            }
+            if (shard(id).remove(id)) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        writeGeneration.incrementAndGet();
+        for (OffHeapStore shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public long getEvictions() {
+        long evictions = 0;
+        for (OffHeapStore shard : shards) {
+            evictions += shard.getEvictions();
+        }
+        return evictions;
+    }
+
+    public int size() {
+        int size = 0;
+        for (OffHeapStore shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    public long bytes() {
+        long bytes = 0;
+        for (OffHeapStore shard : shards) {
+            bytes += shard.liveBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 用乘法哈希的高位选分片，和 OffHeapStore 里用低位的槽位互不相关
+     */
+    private OffHeapStore shard(long id) {
+        return shards[(int) ((id * 0x9E3779B97F4A7C15L) >>> 60)];
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.elk.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * long 键、字节数组值的堆外存储，值连同 seq_no 一起放在一块 direct buffer 里，总字节数固定
+ * <p>
+ * buffer 当环形日志用：新值写在 head，空间不够时从 tail 开始回收最早写入的条目。
+ * 回收时按 CLOCK 给最近读过的条目第二次机会：访问位为 1 的条目清掉访问位搬到 head，为 0 的才淘汰。
+ * 覆盖和删除只改索引，旧条目占的空间等 tail 经过时回收。
+ * <p>
+ * 索引是开放寻址的 long[] 和 int[]，没有每个条目的对象，条目再多也不给 GC 增加负担。
+ * 条目格式：8 字节 key + 8 字节 primary term + 8 字节 seq_no + 8 字节时间戳 + 4 字节长度 + 1 字节访问位 + 内容，按 8 字节对齐。
+ * <p>
+ * 所有方法都持有 this 锁，调用方可以在同一把锁里把检查和写入做成原子的。
+ */
+public final class OffHeapStore {
+
+    private static final int KEY = 0;
+    private static final int TERM = 8;
+    private static final int SEQ_NO = 16;
+    private static final int STAMP = 24;
+    private static final int LENGTH = 32;
+    private static final int REFERENCED = 36;
+    private static final int HEADER_LENGTH = 40;
+
+    private static final int EMPTY = -1;
+    private static final int MIN_SLOTS = 1024;
+
+    private final ByteBuffer arena;
+    private final int capacity;
+    private final int maxEntryBytes;
+
+    private long[] keys;
+    private int[] offsets;
+    private int size;
+
+    /**
+     * 环里从 tail 到 head 的记录（包括已经失效的），wrapAt 之后到 buffer 末尾是绕回时放弃的空间
+     */
+    private int head;
+    private int tail;
+    private int wrapAt;
+    private int records;
+    private long liveBytes;
+
+    private byte[] scratch = new byte[256];
+
+    private long evictions;
+
+    public OffHeapStore(int capacity) {
+        if (capacity < HEADER_LENGTH * 16) {
+            throw new IllegalArgumentException("容量太小:" + capacity);
+        }
+        this.arena = ByteBuffer.allocateDirect(capacity);
+        this.capacity = capacity;
+        this.maxEntryBytes = capacity / 8;
+        this.wrapAt = capacity;
+        this.keys = new long[MIN_SLOTS];
+        this.offsets = new int[MIN_SLOTS];
+        Arrays.fill(offsets, EMPTY);
+    }
+
+    /**
+     * @param notBefore 时间戳小于它的条目当作不存在，但不删除
+     * @return 值的拷贝，不存在时返回 null
+     */
+    public synchronized byte[] get(long key, long notBefore) {
+        int slot = slot(key);
+        if (slot < 0) {
+            return null;
+        }
+        int offset = offsets[slot];
+        if (arena.getLong(offset + STAMP) < notBefore) {
+            return null;
+        }
+        arena.put(offset + REFERENCED, (byte) 1);
+        byte[] value = new byte[arena.getInt(offset + LENGTH)];
+        arena.get(offset + HEADER_LENGTH, value);
+        return value;
+    }
+
+    /**
+     * 已有的条目 (primaryTerm, seqNo) 更新时不覆盖，相同时只更新时间戳；seqNo 小于 0 表示没有版本信息，总是覆盖
+     *
+     * @return 是否写入或者更新了时间戳；值超过容量的 1/8 时不缓存，返回 false
+     */
+    public synchronized boolean put(long key, long primaryTerm, long seqNo, long stamp, byte[] value, int off, int len) {
+        int slot = slot(key);
+        if (slot >= 0 && seqNo >= 0) {
+            int existing = offsets[slot];
+            long existingTerm = arena.getLong(existing + TERM);
+            long existingSeqNo = arena.getLong(existing + SEQ_NO);
+            if (existingTerm > primaryTerm || existingTerm == primaryTerm && existingSeqNo > seqNo) {
+                return false;
+            }
+            if (existingTerm == primaryTerm && existingSeqNo == seqNo) {
+                arena.putLong(existing + STAMP, stamp);
+                return true;
+            }
+        }
+        int entryLength = align(HEADER_LENGTH + len);
+        if (entryLength > maxEntryBytes) {
+            if (slot >= 0) {
+                remove(key);
+            }
+            return false;
+        }
+        int offset = allocate(entryLength);
+        arena.putLong(offset + KEY, key);
+        arena.putLong(offset + TERM, primaryTerm);
+        arena.putLong(offset + SEQ_NO, seqNo);
+        arena.putLong(offset + STAMP, stamp);
+        arena.putInt(offset + LENGTH, len);
+        arena.put(offset + REFERENCED, (byte) 0);
+        arena.put(offset + HEADER_LENGTH, value, off, len);
+        //allocate 可能搬动或者淘汰条目，槽位要重新找
+        slot = slot(key);
+        if (slot >= 0) {
+            liveBytes -= align(HEADER_LENGTH + arena.getInt(offsets[slot] + LENGTH));
+            offsets[slot] = offset;
+        } else {
+            insert(key, offset);
+        }
+        liveBytes += entryLength;
+        return true;
+    }
+
+    public synchronized boolean remove(long key) {
+        int slot = slot(key);
+        if (slot < 0) {
+            return false;
+        }
+        liveBytes -= align(HEADER_LENGTH + arena.getInt(offsets[slot] + LENGTH));
+        delete(slot);
+        return true;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(offsets, EMPTY);
+        size = 0;
+        head = 0;
+        tail = 0;
+        wrapAt = capacity;
+        records = 0;
+        liveBytes = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 有效条目占的字节数，包括条目头
+     */
+    public synchronized long liveBytes() {
+        return liveBytes;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private int allocate(int length) {
+        while (true) {
+            if (records == 0) {
+                head = 0;
+                tail = 0;
+                wrapAt = capacity;
+            }
+            boolean bounded = head < tail || head == tail && records > 0;
+            if (!bounded) {
+                if (capacity - head >= length) {
+                    return advance(length);
+                }
+                //尾部放不下，从 buffer 开头继续写，剩下的空间放弃
+                wrapAt = head;
+                head = 0;
+                continue;
+            }
+            if (tail - head >= length) {
+                return advance(length);
+            }
+            reclaimTail();
+        }
+    }
+
+    private int advance(int length) {
+        int offset = head;
+        head += length;
+        records++;
+        return offset;
+    }
+
+    /**
+     * 回收 tail 上的记录：已经失效的直接跳过，访问过的搬到 head，其余淘汰
+     */
+    private void reclaimTail() {
+        int offset = tail;
+        long key = arena.getLong(offset + KEY);
+        int length = align(HEADER_LENGTH + arena.getInt(offset + LENGTH));
+        int slot = slot(key);
+        boolean live = slot >= 0 && offsets[slot] == offset;
+        tail += length;
+        records--;
+        if (tail >= wrapAt) {
+            tail = 0;
+            wrapAt = capacity;
+        }
+        if (!live) {
+            return;
+        }
+        if (arena.get(offset + REFERENCED) == 0) {
+            liveBytes -= length;
+            delete(slot);
+            evictions++;
+            return;
+        }
+        //head 紧挨着 tail，腾出的空间正好放得下，借用 scratch 避免源和目标重叠
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        arena.get(offset, scratch, 0, length);
+        scratch[REFERENCED] = 0;
+        int moved = allocate(length);
+        arena.put(moved, scratch, 0, length);
+        offsets[slot(key)] = moved;
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int slot(long key) {
+        int mask = offsets.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (offsets[i] == EMPTY) {
+                return -1;
+            }
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+    }
+
+    private void insert(long key, int offset) {
+        if (size + 1 > offsets.length / 2) {
+            resize(offsets.length * 2);
+        }
+        int mask = offsets.length - 1;
+        int i = hash(key) & mask;
+        while (offsets[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        offsets[i] = offset;
+        size++;
+    }
+
+    /**
+     * 线性探测的删除：把后面本该在前面的条目往回挪，不留墓碑
+     */
+    private void delete(int slot) {
+        int mask = offsets.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; offsets[i] != EMPTY; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            boolean movable = hole <= i ? home <= hole || home > i : home <= hole && home > i;
+            if (movable) {
+                keys[hole] = keys[i];
+                offsets[hole] = offsets[i];
+                hole = i;
+            }
+        }
+        offsets[hole] = EMPTY;
+        size--;
+    }
+
+    private void resize(int slots) {
+        long[] oldKeys = keys;
+        int[] oldOffsets = offsets;
+        keys = new long[slots];
+        offsets = new int[slots];
+        Arrays.fill(offsets, EMPTY);
+        size = 0;
+        for (int i = 0; i < oldOffsets.length; i++) {
+            if (oldOffsets[i] != EMPTY) {
+                insert(oldKeys[i], oldOffsets[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.elk.client;
+
+import com.example.elk.codec.GzipCodec;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按大小决定要不要 gzip 的请求压缩，替代 RestClientBuilder.setCompressionEnabled 的全部压缩
+ * <p>
+ * 请求体不小于 min-size 才压缩，压缩后超过原大小的 max-ratio 就还是发原文（比如已经很紧凑的小 bulk），小请求不花 cpu。
+ * 只给 _search、_msearch、_mget 和 scroll 这些可能返回整段 _source 的请求带 Accept-Encoding: gzip，
+ * 收到的 gzip 响应在 io 线程上用池化的 Inflater 解开，再交给 RestClient，它不会再为每个响应新建 GZIPInputStream。
+ * 解压后超过 max-response-size 的响应按 ContentTooLongException 失败，和 RestClient 自己的响应缓冲上限一样不会换节点重试；
+ * 解不开的响应也让请求失败，这时原始响应体已经被读掉，不能再原样交出去。
+ * <p>
+ * 在 RestClientBuilder 的 HttpClientConfigCallback 里最外层包装，里面的指标和追踪看到的都是线路上的字节。
+ * 代价是开了响应压缩后 RequestTracer 只能记下 [gzip N字节]，排查时要看响应内容得把 es.compression.responses 关掉。
+ */
+@Component
+@ConditionalOnProperty(name = "es.compression.enabled", havingValue = "true")
+public class AdaptiveCompression {
+
+    private static final String GZIP = "gzip";
+    private static final String[] COMPRESSED_RESPONSE_PATHS = {"/_search", "/_msearch", "/_mget"};
+
+    private final GzipCodec codec;
+    private final long minSize;
+    private final double maxRatio;
+    private final boolean responses;
+    private final int maxResponseSize;
+
+    private final AtomicLong compressedRequests = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong decompressedResponses = new AtomicLong();
+
+    public AdaptiveCompression(@Value("${es.compression.min-size:1kb}") String minSize,
+                               @Value("${es.compression.max-ratio:0.8}") double maxRatio,
+                               @Value("${es.compression.level:1}") int level,
+                               @Value("${es.compression.pool-size:16}") int poolSize,
+                               @Value("${es.compression.responses:true}") boolean responses,
+                               @Value("${es.compression.max-response-size:100mb}") String maxResponseSize) {
+        this.codec = new GzipCodec(level, poolSize);
+        this.minSize = ByteSizeValue.parseBytesSizeValue(minSize, "es.compression.min-size").getBytes();
+        this.maxRatio = maxRatio;
+        this.responses = responses;
+        this.maxResponseSize = (int) Math.min(Integer.MAX_VALUE,
+                ByteSizeValue.parseBytesSizeValue(maxResponseSize, "es.compression.max-response-size").getBytes());
+    }
+
+    public HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder builder) {
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new CompressingClient(builder.build());
+            }
+        };
+    }
+
+    public long getCompressedRequests() {
+        return compressedRequests.get();
+    }
+
+    /**
+     * 被压缩的请求压缩前的总字节数
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * 被压缩的请求压缩后的总字节数
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    public long getDecompressedResponses() {
+        return decompressedResponses.get();
+    }
+
+    private boolean acceptsGzip(HttpRequest request) {
+        if (!responses) {
+            return false;
+        }
+        String uri = request.getRequestLine().getUri();
+        int query = uri.indexOf('?');
+        String path = query < 0 ? uri : uri.substring(0, query);
+        for (String suffix : COMPRESSED_RESPONSE_PATHS) {
+            if (path.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return path.contains("/_search/scroll");
+    }
+
+    /**
+     * @return 压缩后的请求体，不值得压缩时返回 null
+     */
+    private NByteArrayEntity compress(HttpEntity entity) throws IOException {
+        long length = entity.getContentLength();
+        if (length < minSize || length > Integer.MAX_VALUE || entity.getContentEncoding() != null) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) length];
+        try (InputStream in = entity.getContent()) {
+            if (in.readNBytes(bytes, 0, bytes.length) != bytes.length) {
+                return null;
+            }
+        }
+        byte[] compressed = codec.compress(bytes, 0, bytes.length, (int) (bytes.length * maxRatio));
+        if (compressed == null) {
+            return null;
+        }
+        compressedRequests.incrementAndGet();
+        uncompressedBytes.addAndGet(bytes.length);
+        compressedBytes.addAndGet(compressed.length);
+        Header contentType = entity.getContentType();
+        NByteArrayEntity gzipped = new NByteArrayEntity(compressed,
+                contentType == null ? null : ContentType.parse(contentType.getValue()));
+        gzipped.setContentEncoding(GZIP);
+        return gzipped;
+    }
+
+    private final class CompressingClient extends CloseableHttpAsyncClient {
+
+        private final CloseableHttpAsyncClient delegate;
+
+        private CompressingClient(CloseableHttpAsyncClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean isRunning() {
+            return delegate.isRunning();
+        }
+
+        @Override
+        public void start() {
+            delegate.start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                     HttpContext context, FutureCallback<T> callback) {
+            return delegate.execute(new Producer(requestProducer), new Consumer<>(responseConsumer), context, callback);
+        }
+    }
+
+    /**
+     * 决定压缩后请求体由自己发，不再调用原 producer 的 produceContent
+     */
+    private final class Producer implements HttpAsyncRequestProducer {
+
+        private final HttpAsyncRequestProducer delegate;
+        private NByteArrayEntity compressed;
+
+        private Producer(HttpAsyncRequestProducer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public HttpHost getTarget() {
+            return delegate.getTarget();
+        }
+
+        @Override
+        public HttpRequest generateRequest() throws IOException, HttpException {
+            HttpRequest request = delegate.generateRequest();
+            if (request instanceof HttpEntityEnclosingRequest) {
+                HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+                HttpEntity entity = enclosing.getEntity();
+                //重发时拿到的是同一个请求对象，请求体已经换成压缩过的了
+                if (compressed == null || entity != compressed) {
+                    compressed = entity == null ? null : compress(entity);
+                    if (compressed != null) {
+                        enclosing.setEntity(compressed);
+                        request.setHeader("Content-Encoding", GZIP);
+                    }
+                }
+            }
+            if (acceptsGzip(request) && !request.containsHeader("Accept-Encoding")) {
+                request.setHeader("Accept-Encoding", GZIP);
+            }
+            return request;
+        }
+
+        @Override
+        public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+            if (compressed != null) {
+                compressed.produceContent(encoder, ioControl);
+            } else {
+                delegate.produceContent(encoder, ioControl);
+            }
+        }
+
+        @Override
+        public void requestCompleted(HttpContext context) {
+            delegate.requestCompleted(context);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            delegate.failed(ex);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return delegate.isRepeatable();
+        }
+
+        @Override
+        public void resetRequest() throws IOException {
+            if (compressed != null) {
+                compressed.close();
+            }
+            delegate.resetRequest();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * 响应读完后把 gzip 的响应体换成解压后的，去掉 Content-Encoding，RestClient 就当它没压缩过
+     */
+    private final class Consumer<T> implements HttpAsyncResponseConsumer<T> {
+
+        private final HttpAsyncResponseConsumer<T> delegate;
+        private volatile Exception failure;
+
+        private Consumer(HttpAsyncResponseConsumer<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) throws IOException, HttpException {
+            delegate.responseReceived(response);
+        }
+
+        @Override
+        public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            delegate.consumeContent(decoder, ioControl);
+        }
+
+        @Override
+        public void responseCompleted(HttpContext context) {
+            delegate.responseCompleted(context);
+            T result = delegate.getResult();
+            if (result instanceof HttpResponse) {
+                try {
+                    decompress((HttpResponse) result);
+                } catch (IOException e) {
+                    //客户端随后会通过 getException 拿到它，让这次请求失败
+                    failure = e;
+                }
+            }
+        }
+
+        private void decompress(HttpResponse response) throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null || entity.getContentEncoding() == null || !GZIP.equals(entity.getContentEncoding().getValue())) {
+                return;
+            }
+            byte[] gzipped;
+            try (InputStream in = entity.getContent()) {
+                gzipped = in.readAllBytes();
+            }
+            byte[] plain = codec.decompress(gzipped, 0, gzipped.length, maxResponseSize);
+            if (plain == null) {
+                throw new ContentTooLongException("gzip响应解压后超过" + maxResponseSize + "字节");
+            }
+            Header contentType = entity.getContentType();
+            response.setEntity(new NByteArrayEntity(plain, contentType == null ? null : ContentType.parse(contentType.getValue())));
+            response.removeHeaders("Content-Encoding");
+            response.removeHeaders("Content-Length");
+            decompressedResponses.incrementAndGet();
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            delegate.failed(ex);
+        }
+
+        @Override
+        public Exception getException() {
+            Exception e = failure;
+            return e != null ? e : delegate.getException();
+        }
+
+        @Override
+        public T getResult() {
+            return failure != null ? null : delegate.getResult();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public boolean cancel() {
+            return delegate.cancel();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
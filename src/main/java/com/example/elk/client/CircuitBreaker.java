@@ -0,0 +1,138 @@
+package com.example.elk.client;
+
+/**
+ * 按最近 window 次调用的结果计数的熔断器
+ * <p>
+ * 至少有 min-calls 次结果后，失败比例达到 failure-rate 或者慢调用比例达到 slow-rate 就打开，打开期间直接拒绝；
+ * open-duration 之后半开，放 half-open-calls 个试探请求过去，它们的失败和慢调用比例都低于阈值才关闭，否则重新打开。
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    /**
+     * 环形记录最近的结果，CLOSED 和 HALF_OPEN 共用
+     */
+    private final boolean[] failures;
+    private final boolean[] slows;
+    private int recorded;
+    private int failureCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int halfOpenPermits;
+
+    public CircuitBreaker(int windowSize, int minCalls, double failureRateThreshold, long slowCallNanos,
+                          double slowRateThreshold, long openNanos, int halfOpenCalls) {
+        this.windowSize = windowSize;
+        this.minCalls = Math.min(minCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallNanos;
+        this.slowRateThreshold = slowRateThreshold;
+        this.openNanos = openNanos;
+        this.halfOpenCalls = halfOpenCalls;
+        this.failures = new boolean[windowSize];
+        this.slows = new boolean[windowSize];
+    }
+
+    /**
+     * @return 允许发请求时返回 true，之后必须调用 {@link #onResult} 或 {@link #release} 之一
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openUntil < 0) {
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits >= halfOpenCalls) {
+                return false;
+            }
+            halfOpenPermits++;
+        }
+        return true;
+    }
+
+    /**
+     * 拿到许可后没有真正发出请求（比如被隔离舱拒绝了），归还半开状态下的试探名额
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+        }
+    }
+
+    public synchronized void onResult(boolean failed, long elapsedNanos) {
+        if (state == State.OPEN) {
+            return;
+        }
+        boolean slow = elapsedNanos >= slowCallNanos;
+        int slot = recorded % windowSize;
+        if (recorded >= windowSize) {
+            failureCount -= failures[slot] ? 1 : 0;
+            slowCount -= slows[slot] ? 1 : 0;
+        }
+        failures[slot] = failed;
+        slows[slot] = slow;
+        failureCount += failed ? 1 : 0;
+        slowCount += slow ? 1 : 0;
+        recorded++;
+
+        int calls = Math.min(recorded, windowSize);
+        if (state == State.HALF_OPEN) {
+            if (calls < halfOpenCalls) {
+                return;
+            }
+            transition(tripped(calls) ? State.OPEN : State.CLOSED);
+        } else if (calls >= minCalls && tripped(calls)) {
+            transition(State.OPEN);
+        }
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized double getFailureRate() {
+        int calls = Math.min(recorded, windowSize);
+        return calls == 0 ? 0 : (double) failureCount / calls;
+    }
+
+    public synchronized double getSlowCallRate() {
+        int calls = Math.min(recorded, windowSize);
+        return calls == 0 ? 0 : (double) slowCount / calls;
+    }
+
+    private boolean tripped(int calls) {
+        return failureCount >= failureRateThreshold * calls || slowCount >= slowRateThreshold * calls;
+    }
+
+    /**
+     * 每次切换状态都清空窗口，半开的试探结果和打开前的结果分开统计
+     */
+    private void transition(State next) {
+        state = next;
+        recorded = 0;
+        failureCount = 0;
+        slowCount = 0;
+        halfOpenPermits = 0;
+        if (next == State.OPEN) {
+            openUntil = System.nanoTime() + openNanos;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.elk.client;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 一类 es 操作（查询、bulk）的保护：熔断器、隔离舱（限制并发数）和令牌桶限流，按这个顺序检查
+ * <p>
+ * 隔离舱和限流在 max-wait 内拿不到许可就拒绝，max-wait 为 0 时立即拒绝；查询这种异步调用方应该立即拒绝，
+ * bulk 由 BulkProcessor 的线程发出，可以等一会儿，相当于把背压传给写入方。
+ * 被拒绝时调用方给了降级结果就返回降级结果，否则以 {@link RejectedException} 失败，
+ * 熔断返回 503，隔离舱和限流返回 429。
+ * <p>
+ * 只有连接失败、超时和 5xx、429 算熔断器的失败，400、404 这类请求本身的问题不算。
+ */
+public class ClusterGuard {
+
+    public enum Rejection {
+        CIRCUIT_OPEN, BULKHEAD_FULL, RATE_LIMITED
+    }
+
+    private final String name;
+    private final int maxConcurrent;
+    private final long maxWaitNanos;
+    private final Semaphore bulkhead;
+    private final TokenBucket rateLimiter;
+    private final CircuitBreaker breaker;
+
+    private final AtomicLong rejectedByBreaker = new AtomicLong();
+    private final AtomicLong rejectedByBulkhead = new AtomicLong();
+    private final AtomicLong rejectedByRateLimiter = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param permitsPerSecond 不大于 0 表示不限流，桶容量是一秒的令牌数
+     */
+    public ClusterGuard(String name, int maxConcurrent, long maxWaitNanos, double permitsPerSecond, CircuitBreaker breaker) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitNanos = maxWaitNanos;
+        this.bulkhead = new Semaphore(maxConcurrent);
+        this.rateLimiter = permitsPerSecond > 0 ? new TokenBucket(permitsPerSecond) : null;
+        this.breaker = breaker;
+    }
+
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        return execute(call, null);
+    }
+
+    /**
+     * @param fallback 被拒绝或者熔断时的降级结果，返回 null 表示没有可用的降级结果
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call, Supplier<T> fallback) {
+        Rejection rejection = acquire();
+        if (rejection != null) {
+            return reject(rejection, fallback);
+        }
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            bulkhead.release();
+            //请求没发出去，不是集群问题时只归还熔断器的名额，不算一次成功
+            if (isClusterFailure(e)) {
+                breaker.onResult(true, System.nanoTime() - start);
+            } else {
+                breaker.release();
+            }
+            throw e;
+        }
+        //不直接返回 whenComplete 的结果，那样异常会被包一层 CompletionException
+        CompletableFuture<T> guarded = new CompletableFuture<>();
+        future.whenComplete((result, e) -> {
+            bulkhead.release();
+            breaker.onResult(e != null && isClusterFailure(e), System.nanoTime() - start);
+            if (e != null) {
+                guarded.completeExceptionally(e);
+            } else {
+                guarded.complete(result);
+            }
+        });
+        return guarded;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    public int getActive() {
+        return maxConcurrent - bulkhead.availablePermits();
+    }
+
+    public long getRejected(Rejection rejection) {
+        switch (rejection) {
+            case CIRCUIT_OPEN:
+                return rejectedByBreaker.get();
+            case BULKHEAD_FULL:
+                return rejectedByBulkhead.get();
+            default:
+                return rejectedByRateLimiter.get();
+        }
+    }
+
+    /**
+     * 被拒绝后返回了降级结果的次数
+     */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    private Rejection acquire() {
+        if (!breaker.tryAcquire()) {
+            rejectedByBreaker.incrementAndGet();
+            return Rejection.CIRCUIT_OPEN;
+        }
+        long deadline = System.nanoTime() + maxWaitNanos;
+        try {
+            if (!bulkhead.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                breaker.release();
+                rejectedByBulkhead.incrementAndGet();
+                return Rejection.BULKHEAD_FULL;
+            }
+            if (rateLimiter != null && !rateLimiter.acquire(deadline - System.nanoTime())) {
+                bulkhead.release();
+                breaker.release();
+                rejectedByRateLimiter.incrementAndGet();
+                return Rejection.RATE_LIMITED;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            breaker.release();
+            rejectedByBulkhead.incrementAndGet();
+            return Rejection.BULKHEAD_FULL;
+        }
+        return null;
+    }
+
+    private <T> CompletableFuture<T> reject(Rejection rejection, Supplier<T> fallback) {
+        T degraded = fallback == null ? null : fallback.get();
+        if (degraded != null) {
+            fallbacks.incrementAndGet();
+            return CompletableFuture.completedFuture(degraded);
+        }
+        return CompletableFuture.failedFuture(new RejectedException(name, rejection));
+    }
+
+    static boolean isClusterFailure(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof ElasticsearchStatusException) {
+            RestStatus status = ((ElasticsearchStatusException) cause).status();
+            return status.getStatus() >= 500 || status == RestStatus.TOO_MANY_REQUESTS;
+        }
+        return cause instanceof IOException;
+    }
+
+    public static class RejectedException extends ElasticsearchStatusException {
+
+        private final Rejection rejection;
+
+        RejectedException(String operation, Rejection rejection) {
+            super("es {}请求被拒绝:{}", rejection == Rejection.CIRCUIT_OPEN ? RestStatus.SERVICE_UNAVAILABLE
+                    : RestStatus.TOO_MANY_REQUESTS, operation, rejection);
+            this.rejection = rejection;
+        }
+
+        public Rejection getRejection() {
+            return rejection;
+        }
+    }
+
+    /**
+     * 令牌桶，令牌不够时预支，返回需要等多久，等待时间超过上限就不预支直接拒绝
+     */
+    private static final class TokenBucket {
+
+        private final double permitsPerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        private TokenBucket(double permitsPerSecond) {
+            this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, permitsPerSecond);
+            this.tokens = capacity;
+        }
+
+        private boolean acquire(long maxWaitNanos) throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(capacity, tokens + (now - refilledAt) * permitsPerNano);
+                refilledAt = now;
+                waitNanos = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / permitsPerNano);
+                if (waitNanos > Math.max(0, maxWaitNanos)) {
+                    return false;
+                }
+                tokens -= 1;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+            return true;
+        }
+    }
+}
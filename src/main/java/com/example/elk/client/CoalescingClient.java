@@ -0,0 +1,252 @@
+package com.example.elk.client;
+
+import jakarta.annotation.PreDestroy;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 合并并发的相同请求（single-flight）
+ * <p>
+ * search：同一时刻多个线程发出相同的查询，只有第一个真正发请求，其余线程等它的结果；请求结束后立即从在途表里移除，不做缓存。
+ * 是否相同按 {@link SearchResultCache.Key} 判断，RequestOptions 不是 {@link RequestOptions#DEFAULT} 的查询不参与合并。
+ * get：在一个很短的窗口内到达的 get 攒成一个 _mget 发出去，窗口内重复的 id 只取一次，结果按位置分发给各个调用方；
+ * 攒满 maxBatch 条时不等窗口结束立即发出。带 preference、关闭 realtime 或要求 refresh 的 get 不参与合并。
+ * <p>
+ * 所有调用方拿到的是同一个响应对象，不要修改它。
+ * 开启了 {@link HedgedSearchClient} 时，合并后真正发出去的那一个查询走对冲；
+ * 当前线程打开了 {@link MultiSearchBatcher.Scope} 或者开启了 _msearch 窗口时，改为交给 {@link MultiSearchBatcher} 攒批，不再对冲。
+ */
+@Component
+public class CoalescingClient {
+
+    private final RestHighLevelClient client;
+    private HedgedSearchClient hedged;
+    private MultiSearchBatcher multiSearch;
+    private final long getWindowMicros;
+    private final int maxBatch;
+
+    private final Map<SearchResultCache.Key, CompletableFuture<SearchResponse>> inFlightSearches = new ConcurrentHashMap<>();
+
+    private final Object batchLock = new Object();
+    private Map<MultiGetRequest.Item, CompletableFuture<GetResponse>> pendingGets = new LinkedHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "mget-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong coalescedSearches = new AtomicLong();
+    private final AtomicLong coalescedGets = new AtomicLong();
+    private final AtomicLong mgetRequests = new AtomicLong();
+
+    public CoalescingClient(RestHighLevelClient client,
+                            @Value("${es.coalesce.get-window:2ms}") String getWindow,
+                            @Value("${es.coalesce.max-batch:100}") int maxBatch) {
+        this.client = client;
+        this.getWindowMicros = TimeValue.parseTimeValue(getWindow, "es.coalesce.get-window").micros();
+        this.maxBatch = maxBatch;
+    }
+
+    @Autowired(required = false)
+    public void setHedgedSearch(HedgedSearchClient hedged) {
+        this.hedged = hedged;
+    }
+
+    @Autowired(required = false)
+    public void setMultiSearch(MultiSearchBatcher multiSearch) {
+        this.multiSearch = multiSearch;
+    }
+
+    public SearchResponse search(SearchRequest request, RequestOptions options) throws IOException {
+        return await(searchAsync(request, options));
+    }
+
+    public CompletableFuture<SearchResponse> searchAsync(SearchRequest request, RequestOptions options) throws IOException {
+        if (request.source() == null || request.scroll() != null || !RequestOptions.DEFAULT.equals(options)) {
+            return toFuture(listener -> client.searchAsync(request, options, listener));
+        }
+        SearchResultCache.Key key = SearchResultCache.key(request);
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        CompletableFuture<SearchResponse> existing = inFlightSearches.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedSearches.incrementAndGet();
+            return existing;
+        }
+        //先从在途表移除再通知等待方，保证之后进来的请求会重新发
+        ActionListener<SearchResponse> listener = ActionListener.wrap(
+                response -> {
+                    inFlightSearches.remove(key, future);
+                    future.complete(response);
+                },
+                e -> {
+                    inFlightSearches.remove(key, future);
+                    future.completeExceptionally(e);
+                });
+        if (multiSearch != null && multiSearch.isBatching()) {
+            forward(multiSearch.searchAsync(request, options), listener);
+        } else if (hedged != null) {
+            forward(hedged.searchAsync(request, options), listener);
+        } else {
+            client.searchAsync(request, options, listener);
+        }
+        return future;
+    }
+
+    public GetResponse get(GetRequest request) throws IOException {
+        return await(getAsync(request));
+    }
+
+    public CompletableFuture<GetResponse> getAsync(GetRequest request) {
+        if (request.preference() != null || !request.realtime() || request.refresh()) {
+            return toFuture(listener -> client.getAsync(request, RequestOptions.DEFAULT, listener));
+        }
+        MultiGetRequest.Item item = new MultiGetRequest.Item(request.index(), request.id())
+                .routing(request.routing())
+                .fetchSourceContext(request.fetchSourceContext())
+                .version(request.version())
+                .versionType(request.versionType());
+        if (request.storedFields() != null) {
+            item.storedFields(request.storedFields());
+        }
+        Map<MultiGetRequest.Item, CompletableFuture<GetResponse>> full = null;
+        CompletableFuture<GetResponse> future;
+        synchronized (batchLock) {
+            future = pendingGets.get(item);
+            if (future != null) {
+                coalescedGets.incrementAndGet();
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pendingGets.put(item, future);
+            if (pendingGets.size() == 1) {
+                Map<MultiGetRequest.Item, CompletableFuture<GetResponse>> batch = pendingGets;
+                flusher.schedule(() -> flush(batch), getWindowMicros, TimeUnit.MICROSECONDS);
+            }
+            if (pendingGets.size() >= maxBatch) {
+                full = pendingGets;
+                pendingGets = new LinkedHashMap<>();
+            }
+        }
+        if (full != null) {
+            sendBatch(full);
+        }
+        return future;
+    }
+
+    public long getCoalescedSearches() {
+        return coalescedSearches.get();
+    }
+
+    public long getCoalescedGets() {
+        return coalescedGets.get();
+    }
+
+    public long getMgetRequests() {
+        return mgetRequests.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        flusher.shutdownNow();
+    }
+
+    /**
+     * 窗口到期，如果这一批已经因为攒满被发走了就什么都不做
+     */
+    private void flush(Map<MultiGetRequest.Item, CompletableFuture<GetResponse>> batch) {
+        synchronized (batchLock) {
+            if (pendingGets != batch) {
+                return;
+            }
+            pendingGets = new LinkedHashMap<>();
+        }
+        sendBatch(batch);
+    }
+
+    private void sendBatch(Map<MultiGetRequest.Item, CompletableFuture<GetResponse>> batch) {
+        mgetRequests.incrementAndGet();
+        List<CompletableFuture<GetResponse>> futures = new ArrayList<>(batch.values());
+        MultiGetRequest request = new MultiGetRequest();
+        batch.keySet().forEach(request::add);
+        client.mgetAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(
+                response -> dispatch(response, futures),
+                e -> futures.forEach(f -> f.completeExceptionally(e))));
+    }
+
+    private static void dispatch(MultiGetResponse response, List<CompletableFuture<GetResponse>> futures) {
+        MultiGetItemResponse[] items = response.getResponses();
+        for (int i = 0; i < futures.size(); i++) {
+            if (i >= items.length) {
+                futures.get(i).completeExceptionally(new IOException("_mget返回的条数少于请求条数"));
+            } else if (items[i].isFailed()) {
+                futures.get(i).completeExceptionally(items[i].getFailure().getFailure());
+            } else {
+                futures.get(i).complete(items[i].getResponse());
+            }
+        }
+    }
+
+    private static <T> void forward(CompletableFuture<T> future, ActionListener<T> listener) {
+        future.whenComplete((response, e) -> {
+            if (e != null) {
+                listener.onFailure(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+            } else {
+                listener.onResponse(response);
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<T> toFuture(Consumer<ActionListener<T>> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        call.accept(ActionListener.wrap(future::complete, future::completeExceptionally));
+        return future;
+    }
+
+    /**
+     * 同步等待异步请求的结果，IOException 和 RuntimeException 原样抛出，其他异常包成 IOException
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待es响应时被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.elk.client;
+
+import jakarta.annotation.PreDestroy;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对冲查询：请求发出后超过最近查询耗时的 p95 还没返回，就再发一个相同的请求，谁先回来用谁，另一个取消
+ * <p>
+ * 第二个请求经 NodeSelector 大概率落到另一个节点上，能绕开单个节点的 GC 停顿。
+ * 对冲请求数不超过总请求数的 max-ratio，避免集群整体变慢时对冲把负载翻倍。
+ * 第一个请求在对冲发出前就失败了直接返回失败，不拿对冲当重试用；两个都发出去了则要两个都失败才算失败。
+ * 只用于查询这种幂等的请求。
+ * <p>
+ * 对冲请求赢了时，第一个请求到被取消为止的耗时也记进样本，不然 p95 只看得到赢家，会越算越小。
+ */
+@Component
+@ConditionalOnProperty(name = "es.hedge.enabled", havingValue = "true")
+public class HedgedSearchClient {
+
+    private static final int WINDOW = 1024;
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final RestHighLevelClient client;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final double maxRatio;
+
+    /**
+     * 最近 WINDOW 次查询的耗时，环形覆盖
+     */
+    private final long[] samples = new long[WINDOW];
+    private long sampleCount;
+    private volatile long delayNanos;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "search-hedger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public HedgedSearchClient(RestHighLevelClient client,
+                              @Value("${es.hedge.percentile:0.95}") double percentile,
+                              @Value("${es.hedge.initial-delay:100ms}") String initialDelay,
+                              @Value("${es.hedge.min-delay:5ms}") String minDelay,
+                              @Value("${es.hedge.max-ratio:0.1}") double maxRatio) {
+        this.client = client;
+        this.percentile = percentile;
+        this.delayNanos = TimeValue.parseTimeValue(initialDelay, "es.hedge.initial-delay").nanos();
+        this.minDelayNanos = TimeValue.parseTimeValue(minDelay, "es.hedge.min-delay").nanos();
+        this.maxRatio = maxRatio;
+    }
+
+    public CompletableFuture<SearchResponse> searchAsync(SearchRequest request, RequestOptions options) {
+        requests.incrementAndGet();
+        Hedge hedge = new Hedge(request, options);
+        hedge.start();
+        return hedge.future;
+    }
+
+    /**
+     * 当前的对冲等待时间，单位纳秒
+     */
+    public long getDelayNanos() {
+        return delayNanos;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * 记过的耗时样本数
+     */
+    public long getSamples() {
+        synchronized (samples) {
+            return sampleCount;
+        }
+    }
+
+    public long getHedged() {
+        return hedged.get();
+    }
+
+    /**
+     * 对冲请求先返回的次数
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private boolean tryAcquireHedge() {
+        while (true) {
+            long current = hedged.get();
+            if (current + 1 > requests.get() * maxRatio) {
+                return false;
+            }
+            if (hedged.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void record(long elapsedNanos) {
+        long[] snapshot = null;
+        synchronized (samples) {
+            samples[(int) (sampleCount % WINDOW)] = elapsedNanos;
+            sampleCount++;
+            if (sampleCount >= RECOMPUTE_EVERY && sampleCount % RECOMPUTE_EVERY == 0) {
+                snapshot = Arrays.copyOf(samples, (int) Math.min(sampleCount, WINDOW));
+            }
+        }
+        if (snapshot != null) {
+            Arrays.sort(snapshot);
+            long p = snapshot[Math.min(snapshot.length - 1, (int) (snapshot.length * percentile))];
+            delayNanos = Math.max(minDelayNanos, p);
+        }
+    }
+
+    private final class Hedge {
+
+        private final SearchRequest request;
+        private final RequestOptions options;
+        private final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        /**
+         * 先定下结果、记完统计再通知调用方
+         */
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        private Cancellable primary;
+        private long primaryStart;
+        private Cancellable backup;
+        private ScheduledFuture<?> timer;
+        private int failures;
+
+        private Hedge(SearchRequest request, RequestOptions options) {
+            this.request = request;
+            this.options = options;
+        }
+
+        private void start() {
+            long start = System.nanoTime();
+            Cancellable sent = client.searchAsync(request, options, listener(false, start));
+            synchronized (this) {
+                primary = sent;
+                primaryStart = start;
+                if (!settled.get()) {
+                    timer = scheduler.schedule(this::sendBackup, delayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        private void sendBackup() {
+            synchronized (this) {
+                if (settled.get() || !tryAcquireHedge()) {
+                    return;
+                }
+                backup = client.searchAsync(request, options, listener(true, System.nanoTime()));
+            }
+        }
+
+        private ActionListener<SearchResponse> listener(boolean isBackup, long start) {
+            return ActionListener.wrap(
+                    response -> {
+                        if (!settled.compareAndSet(false, true)) {
+                            return;
+                        }
+                        long now = System.nanoTime();
+                        record(now - start);
+                        if (isBackup) {
+                            hedgeWins.incrementAndGet();
+                            recordPrimary(now);
+                        }
+                        cancelLoser(isBackup);
+                        future.complete(response);
+                    },
+                    e -> {
+                        synchronized (this) {
+                            failures++;
+                            if (backup != null && failures < 2) {
+                                return;
+                            }
+                        }
+                        if (settled.compareAndSet(false, true)) {
+                            cancelLoser(isBackup);
+                            future.completeExceptionally(e);
+                        }
+                    });
+        }
+
+        /**
+         * 输掉的第一个请求至少花了这么久，它本身的耗时只会更长
+         */
+        private synchronized void recordPrimary(long now) {
+            record(now - primaryStart);
+        }
+
+        /**
+         * 结果已经定了，取消还没发的对冲和另一个还在跑的请求
+         */
+        private synchronized void cancelLoser(boolean backupWon) {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            Cancellable loser = backupWon ? primary : backup;
+            if (loser != null) {
+                loser.cancel();
+            }
+        }
+    }
+}
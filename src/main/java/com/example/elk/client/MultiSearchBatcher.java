@@ -0,0 +1,248 @@
+package com.example.elk.client;
+
+import jakarta.annotation.PreDestroy;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把互不相关的查询攒成一个 _msearch 发出去，响应按位置分发给各个调用方
+ * <p>
+ * 两种攒法：
+ * 一是显式的 {@link Scope}，打开后当前线程发出的查询先攒着，close 时一起发出，适合一个页面要发好几个查询的场景；
+ * 二是时间窗口，window 大于 0 时窗口内到达的查询攒成一批，攒满 max-batch 条时不等窗口结束立即发出，默认关闭。
+ * <p>
+ * 一批只有一个查询时直接走 _search。scroll 查询和带自定义 RequestOptions 的查询不参与合并，
+ * 因为 _msearch 整批只能带一份请求头。max-concurrent-searches 为 0 时用服务端默认的并发数。
+ */
+@Component
+public class MultiSearchBatcher {
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private final RestHighLevelClient client;
+    private final long windowMicros;
+    private final int maxBatch;
+    private final int maxConcurrentSearches;
+
+    private final Object batchLock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "msearch-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong batchedSearches = new AtomicLong();
+    private final AtomicLong msearchRequests = new AtomicLong();
+
+    public MultiSearchBatcher(RestHighLevelClient client,
+                              @Value("${es.msearch.window:0ms}") String window,
+                              @Value("${es.msearch.max-batch:50}") int maxBatch,
+                              @Value("${es.msearch.max-concurrent-searches:0}") int maxConcurrentSearches) {
+        this.client = client;
+        this.windowMicros = TimeValue.parseTimeValue(window, "es.msearch.window").micros();
+        this.maxBatch = maxBatch;
+        this.maxConcurrentSearches = maxConcurrentSearches;
+    }
+
+    /**
+     * 打开一个批次，直到 close 之前当前线程经 {@link #searchAsync} 发出的查询都攒在里面；可以嵌套，内层 close 只发内层的查询
+     */
+    public Scope scope() {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * 当前线程发出的查询会不会被攒起来
+     */
+    public boolean isBatching() {
+        return windowMicros > 0 || CURRENT.get() != null;
+    }
+
+    public CompletableFuture<SearchResponse> searchAsync(SearchRequest request, RequestOptions options) {
+        if (request.scroll() != null || options != RequestOptions.DEFAULT) {
+            return searchDirect(request, options);
+        }
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            return scope.add(request);
+        }
+        if (windowMicros <= 0) {
+            return searchDirect(request, options);
+        }
+        Pending item = new Pending(request);
+        List<Pending> full = null;
+        synchronized (batchLock) {
+            pending.add(item);
+            if (pending.size() == 1) {
+                List<Pending> batch = pending;
+                flusher.schedule(() -> flush(batch), windowMicros, TimeUnit.MICROSECONDS);
+            }
+            if (pending.size() >= maxBatch) {
+                full = pending;
+                pending = new ArrayList<>();
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return item.future;
+    }
+
+    /**
+     * 经 _msearch 发出的查询条数
+     */
+    public long getBatchedSearches() {
+        return batchedSearches.get();
+    }
+
+    public long getMsearchRequests() {
+        return msearchRequests.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        flusher.shutdownNow();
+    }
+
+    /**
+     * 窗口到期，如果这一批已经因为攒满被发走了就什么都不做
+     */
+    private void flush(List<Pending> batch) {
+        synchronized (batchLock) {
+            if (pending != batch) {
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        send(batch);
+    }
+
+    private void send(List<Pending> batch) {
+        for (int from = 0; from < batch.size(); from += maxBatch) {
+            List<Pending> chunk = batch.subList(from, Math.min(batch.size(), from + maxBatch));
+            if (chunk.size() == 1) {
+                Pending item = chunk.get(0);
+                searchDirect(item.request, RequestOptions.DEFAULT).whenComplete((response, e) -> {
+                    if (e != null) {
+                        item.future.completeExceptionally(e);
+                    } else {
+                        item.future.complete(response);
+                    }
+                });
+            } else {
+                sendMulti(new ArrayList<>(chunk));
+            }
+        }
+    }
+
+    private void sendMulti(List<Pending> batch) {
+        msearchRequests.incrementAndGet();
+        batchedSearches.addAndGet(batch.size());
+        MultiSearchRequest request = new MultiSearchRequest();
+        if (maxConcurrentSearches > 0) {
+            request.maxConcurrentSearchRequests(maxConcurrentSearches);
+        }
+        batch.forEach(item -> request.add(item.request));
+        client.msearchAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(
+                response -> dispatch(response, batch),
+                e -> batch.forEach(item -> item.future.completeExceptionally(e))));
+    }
+
+    private static void dispatch(MultiSearchResponse response, List<Pending> batch) {
+        MultiSearchResponse.Item[] items = response.getResponses();
+        for (int i = 0; i < batch.size(); i++) {
+            CompletableFuture<SearchResponse> future = batch.get(i).future;
+            if (i >= items.length) {
+                future.completeExceptionally(new IOException("_msearch返回的条数少于请求条数"));
+            } else if (items[i].isFailure()) {
+                future.completeExceptionally(items[i].getFailure());
+            } else {
+                future.complete(items[i].getResponse());
+            }
+        }
+    }
+
+    private CompletableFuture<SearchResponse> searchDirect(SearchRequest request, RequestOptions options) {
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        client.searchAsync(request, options, ActionListener.wrap(future::complete, future::completeExceptionally));
+        return future;
+    }
+
+    private static final class Pending {
+
+        private final SearchRequest request;
+        private final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+
+        private Pending(SearchRequest request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * 一次显式的批次，要在打开它的线程上 close
+     */
+    public final class Scope implements AutoCloseable {
+
+        private final Scope outer;
+        private final List<Pending> items = new ArrayList<>();
+        private boolean closed;
+
+        private Scope(Scope outer) {
+            this.outer = outer;
+        }
+
+        /**
+         * 直接往批次里加一个查询，不经过 CoalescingClient 的合并
+         */
+        public CompletableFuture<SearchResponse> search(SearchRequest request) {
+            return add(request);
+        }
+
+        private CompletableFuture<SearchResponse> add(SearchRequest request) {
+            if (closed) {
+                throw new IllegalStateException("批次已经发出");
+            }
+            Pending item = new Pending(request);
+            items.add(item);
+            return item.future;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (CURRENT.get() == this) {
+                if (outer == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(outer);
+                }
+            }
+            if (!items.isEmpty()) {
+                send(items);
+            }
+        }
+    }
+}
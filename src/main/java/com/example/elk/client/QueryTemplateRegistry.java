@@ -0,0 +1,105 @@
+package com.example.elk.client;
+
+import com.example.elk.codec.QueryTemplate;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按名字登记的 {@link QueryTemplate}，以及用模板发查询
+ * <p>
+ * RestHighLevelClient.search 每次都会重新渲染 SearchSourceBuilder，所以模板查询直接走低级客户端发渲染好的字节，
+ * 仍然经过 RestClientConfig 里包装的指标、追踪和压缩。size 放在 url 参数里，不进模板。
+ * 失败时和 RestHighLevelClient 一样抛 {@link ElasticsearchStatusException}。
+ */
+@Component
+public class QueryTemplateRegistry {
+
+    private final RestHighLevelClient client;
+    private final Map<String, QueryTemplate> templates = new ConcurrentHashMap<>();
+
+    public QueryTemplateRegistry(RestHighLevelClient client) {
+        this.client = client;
+    }
+
+    /**
+     * 同名的模板会被替换
+     */
+    public void register(String name, QueryTemplate template) {
+        templates.put(name, template);
+    }
+
+    /**
+     * 没有这个名字时抛 {@link IllegalArgumentException}
+     */
+    public QueryTemplate get(String name) {
+        QueryTemplate template = templates.get(name);
+        if (template == null) {
+            throw new IllegalArgumentException("没有查询模板:" + name);
+        }
+        return template;
+    }
+
+    public Set<String> names() {
+        return templates.keySet();
+    }
+
+    /**
+     * @param size 小于 0 表示用模板里的 size
+     */
+    public CompletableFuture<SearchResponse> searchAsync(String index, QueryTemplate template, Map<String, ?> params, int size) {
+        Request request = new Request("POST", "/" + index + "/_search");
+        if (size >= 0) {
+            request.addParameter("size", String.valueOf(size));
+        }
+        try {
+            request.setEntity(new NByteArrayEntity(template.render(params), ContentType.APPLICATION_JSON));
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        client.getLowLevelClient().performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try (InputStream in = response.getEntity().getContent();
+                     XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                             DeprecationHandler.IGNORE_DEPRECATIONS, in)) {
+                    future.complete(SearchResponse.fromXContent(parser));
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                if (exception instanceof ResponseException) {
+                    int code = ((ResponseException) exception).getResponse().getStatusLine().getStatusCode();
+                    RestStatus status = Objects.requireNonNullElse(RestStatus.fromCode(code), RestStatus.INTERNAL_SERVER_ERROR);
+                    exception = new ElasticsearchStatusException(exception.getMessage(), status, exception);
+                }
+                future.completeExceptionally(exception);
+            }
+        });
+        return future;
+    }
+}
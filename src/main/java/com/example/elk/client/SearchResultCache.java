@@ -0,0 +1,367 @@
+package com.example.elk.client;
+
+import com.example.elk.service.IndexWriteListener;
+import jakarta.annotation.PreDestroy;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 查询结果缓存，放在 RestHighLevelClient.search 和 ArticleService 的查询前面，给 searchAll、searchOrAll 这类读多写少的查询用
+ * <p>
+ * key 是索引名（排序后）+ routing + preference + 请求体以外的查询参数（search_type、request_cache、indices_options 等）
+ * + 请求体渲染成 json 后的 128 位 murmur3 哈希，相同的 SearchSourceBuilder 不管构造多少次都落到同一个 key 上。
+ * RequestOptions（header、单独的超时设置）不在 key 里，不是 {@link RequestOptions#DEFAULT} 的查询不走缓存。
+ * 按响应大小估算权重，总权重超过上限时淘汰最久没访问的条目，条目超过 ttl 也会失效。
+ * <p>
+ * 本地 BulkIndexer 写入某个索引后，这个索引上的缓存全部失效；
+ * 写入要等 refresh 之后才能搜到，所以在 refresh 间隔之后再失效一次，避免把 refresh 之前查到的旧结果缓存下来。
+ * 缓存的 SearchResponse 会被多个调用方共享，调用方不要修改它。
+ */
+@Component
+public class SearchResultCache implements IndexWriteListener {
+
+    private static final String ALL_INDICES = "_all";
+    /**
+     * 代数都是非负的，用 -1 标记的条目对 search 来说永远是失效的
+     */
+    private static final long STALE_GENERATION = -1;
+
+    private final RestHighLevelClient client;
+    private final long maxWeightBytes;
+    private final long ttlNanos;
+    private final long refreshIntervalMillis;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalWeight;
+
+    /**
+     * 每个索引的写入代数，缓存条目记录写入时的代数，对不上就说明期间有写入
+     */
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refreshInvalidator = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "search-cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public SearchResultCache(RestHighLevelClient client,
+                             @Value("${es.cache.max-weight:64mb}") String maxWeight,
+                             @Value("${es.cache.ttl:30s}") String ttl,
+                             @Value("${es.cache.refresh-interval:1s}") String refreshInterval) {
+        this.client = client;
+        this.maxWeightBytes = ByteSizeValue.parseBytesSizeValue(maxWeight, "es.cache.max-weight").getBytes();
+        this.ttlNanos = TimeValue.parseTimeValue(ttl, "es.cache.ttl").nanos();
+        this.refreshIntervalMillis = TimeValue.parseTimeValue(refreshInterval, "es.cache.refresh-interval").millis();
+    }
+
+    public SearchResponse search(SearchRequest request, RequestOptions options) throws IOException {
+        if (!cacheable(request) || !RequestOptions.DEFAULT.equals(options)) {
+            return client.search(request, options);
+        }
+        Key key = key(request);
+        //代数要在发请求之前读，请求期间发生的写入会让这次结果直接作废
+        long generation = generation(key.indices);
+        SearchResponse cached = lookup(key, generation);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        SearchResponse response = client.search(request, options);
+        if (!response.isTimedOut() && response.getFailedShards() == 0) {
+            store(key, new Entry(response, weight(response), System.nanoTime() + ttlNanos, generation));
+        }
+        return response;
+    }
+
+    /**
+     * 异步查询，没命中时用 send 发请求（一般是 {@link CoalescingClient} 的 single-flight），成功后缓存结果
+     * <p>
+     * send 返回的如果是 {@link #stale} 拿到的降级结果，不会被当成新结果重新缓存
+     */
+    public CompletableFuture<SearchResponse> searchAsync(SearchRequest request,
+                                                         Function<SearchRequest, CompletableFuture<SearchResponse>> send) {
+        if (!cacheable(request)) {
+            return send.apply(request);
+        }
+        Key key;
+        try {
+            key = key(request);
+        } catch (IOException e) {
+            return send.apply(request);
+        }
+        long generation = generation(key.indices);
+        SearchResponse cached = lookup(key, generation);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+        misses.incrementAndGet();
+        return send.apply(request).whenComplete((response, e) -> {
+            if (response != null && !response.isTimedOut() && response.getFailedShards() == 0) {
+                store(key, new Entry(response, weight(response), System.nanoTime() + ttlNanos, generation));
+            }
+        });
+    }
+
+    /**
+     * 记下一次没有经过缓存的查询结果，只给 {@link #stale} 用，正常的 {@link #search} 不会命中它
+     */
+    public void remember(SearchRequest request, SearchResponse response) {
+        if (request.source() == null || response.isTimedOut() || response.getFailedShards() > 0) {
+            return;
+        }
+        try {
+            store(key(request), new Entry(response, weight(response), System.nanoTime() + ttlNanos, STALE_GENERATION));
+        } catch (IOException e) {
+            //渲染请求体失败就不记了，不影响查询本身
+        }
+    }
+
+    /**
+     * 熔断时的降级结果：这个查询最近一次缓存的响应，不管有没有过期、期间有没有写入，没有时返回 null
+     */
+    public SearchResponse stale(SearchRequest request) {
+        if (request.source() == null) {
+            return null;
+        }
+        try {
+            Key key = key(request);
+            synchronized (this) {
+                Entry entry = entries.get(key);
+                return entry == null ? null : entry.response;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void afterWrite(List<DocWriteRequest<?>> requests) {
+        Set<String> indices = new HashSet<>();
+        for (DocWriteRequest<?> request : requests) {
+            indices.add(request.index());
+        }
+        indices.forEach(this::invalidate);
+        if (refreshIntervalMillis > 0) {
+            refreshInvalidator.schedule(() -> indices.forEach(this::invalidate), refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void invalidate(String index) {
+        invalidations.incrementAndGet();
+        generations.computeIfAbsent(index, k -> new AtomicLong()).incrementAndGet();
+        generations.computeIfAbsent(ALL_INDICES, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return totalWeight;
+    }
+
+    @PreDestroy
+    public void close() {
+        refreshInvalidator.shutdownNow();
+    }
+
+    private static boolean cacheable(SearchRequest request) {
+        return request.source() != null && request.scroll() == null && request.pointInTimeBuilder() == null;
+    }
+
+    /**
+     * 失效和过期的条目留着给 {@link #stale} 降级用，等新结果覆盖或者按 LRU 淘汰
+     */
+    private synchronized SearchResponse lookup(Key key, long generation) {
+        Entry entry = entries.get(key);
+        if (entry == null || entry.generation != generation || entry.expiresAt - System.nanoTime() < 0) {
+            return null;
+        }
+        return entry.response;
+    }
+
+    private synchronized void store(Key key, Entry entry) {
+        if (entry.weight > maxWeightBytes) {
+            return;
+        }
+        Entry cached = entries.get(key);
+        if (cached != null && cached.response == entry.response) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            totalWeight -= previous.weight;
+        }
+        totalWeight += entry.weight;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (totalWeight > maxWeightBytes && eldest.hasNext()) {
+            totalWeight -= eldest.next().weight;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 带通配符或者不指定索引的查询无法对应到具体索引，用全局代数，任何写入都会让它失效
+     */
+    private long generation(String[] indices) {
+        if (indices.length == 0) {
+            return currentGeneration(ALL_INDICES);
+        }
+        long sum = 0;
+        for (String index : indices) {
+            if (index.indexOf('*') >= 0 || ALL_INDICES.equals(index)) {
+                return currentGeneration(ALL_INDICES);
+            }
+            sum += currentGeneration(index);
+        }
+        return sum;
+    }
+
+    private long currentGeneration(String index) {
+        AtomicLong generation = generations.get(index);
+        return generation == null ? 0 : generation.get();
+    }
+
+    static Key key(SearchRequest request) throws IOException {
+        String[] indices = request.indices().clone();
+        Arrays.sort(indices);
+        BytesReference body = XContentHelper.toXContent(request.source(), XContentType.JSON, false);
+        BytesRef ref = body.toBytesRef();
+        MurmurHash3.Hash128 hash = MurmurHash3.hash128(ref.bytes, ref.offset, ref.length, 0, new MurmurHash3.Hash128());
+        List<Object> params = Arrays.asList(request.searchType(), request.requestCache(), request.indicesOptions(),
+                request.allowPartialSearchResults(), request.getPreFilterShardSize(), request.getMaxConcurrentShardRequests(),
+                request.getBatchedReduceSize(), request.isCcsMinimizeRoundtrips());
+        return new Key(indices, request.routing(), request.preference(), params, hash.h1, hash.h2);
+    }
+
+    /**
+     * 粗略估算响应占用的内存，主要是每条 hit 的 _source
+     */
+    private static long weight(SearchResponse response) {
+        long weight = 512;
+        for (SearchHit hit : response.getHits().getHits()) {
+            weight += 256;
+            if (hit.getSourceRef() != null) {
+                weight += hit.getSourceRef().length();
+            }
+        }
+        return weight;
+    }
+
+    static final class Key {
+
+        private final String[] indices;
+        private final String routing;
+        private final String preference;
+        /**
+         * 请求体以外会影响结果的参数
+         */
+        private final List<Object> params;
+        private final long h1;
+        private final long h2;
+
+        Key(String[] indices, String routing, String preference, List<Object> params, long h1, long h2) {
+            this.indices = indices;
+            this.routing = routing;
+            this.preference = preference;
+            this.params = params;
+            this.h1 = h1;
+            this.h2 = h2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return h1 == other.h1 && h2 == other.h2
+                    && Arrays.equals(indices, other.indices)
+                    && Objects.equals(routing, other.routing)
+                    && Objects.equals(preference, other.preference)
+                    && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(h1) * 31 + Arrays.hashCode(indices);
+        }
+    }
+
+    private static final class Entry {
+
+        private final SearchResponse response;
+        private final long weight;
+        private final long expiresAt;
+        private final long generation;
+
+        private Entry(SearchResponse response, long weight, long expiresAt, long generation) {
+            this.response = response;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.elk.codec;
+
+import com.example.elk.bean.Article;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 把 SearchHit 的 _source 字节直接流式解析成 Article，
+ * 不经过 getSourceAsString 的中间 String，也不经过 getSourceAsMap 的中间 Map
+ * <p>
+ * 通过 {@link #of(SearchSourceBuilder)} 创建时会读取 fetchSource 的 includes，没有请求的字段直接跳过
+ * <p>
+ * 没有 _source 的 hit 和 get 结果（比如查询时关掉了 _source）只按 _id 填 id，_id 不是数字时跳过这条 hit。
+ * 每条 hit 只解析一次，解析结果不缓存在 hit 上，SearchResponse 可能来自查询缓存、被多个调用方共享。
+ */
+public final class ArticleHitMapper {
+
+    public static final ArticleHitMapper ALL = new ArticleHitMapper(true, true, true);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final boolean bindId;
+    private final boolean bindTitle;
+    private final boolean bindContent;
+
+    private ArticleHitMapper(boolean bindId, boolean bindTitle, boolean bindContent) {
+        this.bindId = bindId;
+        this.bindTitle = bindTitle;
+        this.bindContent = bindContent;
+    }
+
+    public static ArticleHitMapper of(SearchSourceBuilder source) {
+        FetchSourceContext fetchSource = source == null ? null : source.fetchSource();
+        return fetchSource == null ? ALL : of(fetchSource.includes());
+    }
+
+    /**
+     * includes 为空或者带通配符时绑定全部字段，通配符已经在服务端过滤过了
+     */
+    public static ArticleHitMapper of(String... includes) {
+        if (includes == null || includes.length == 0) {
+            return ALL;
+        }
+        boolean id = false, title = false, content = false;
+        for (String include : includes) {
+            if (include.indexOf('*') >= 0) {
+                return ALL;
+            }
+            switch (include) {
+                case "id" -> id = true;
+                case "title" -> title = true;
+                case "content" -> content = true;
+                default -> {
+                }
+            }
+        }
+        return new ArticleHitMapper(id, title, content);
+    }
+
+    /**
+     * @return 没有 _source 且 _id 不是数字时返回 null
+     */
+    public Article map(SearchHit hit) {
+        BytesReference source = hit.getSourceRef();
+        return source == null ? fromId(hit.getId()) : map(source);
+    }
+
+    /**
+     * 调用方先判断 isExists；没有 _source 且 _id 不是数字时返回 null
+     */
+    public Article map(GetResponse response) {
+        BytesReference source = response.getSourceAsBytesRef();
+        return source == null ? fromId(response.getId()) : map(source);
+    }
+
+    private static Article fromId(String id) {
+        Long parsed = parseId(id);
+        return parsed == null ? null : new Article(parsed, null, null);
+    }
+
+    /**
+     * @return _id 不是数字时返回 null
+     */
+    static Long parseId(String id) {
+        try {
+            return id == null ? null : Long.valueOf(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public Article map(BytesReference source) {
+        BytesRef ref = source.toBytesRef();
+        try (JsonParser parser = JSON_FACTORY.createParser(ref.bytes, ref.offset, ref.length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("_source不是json对象");
+            }
+            Article article = new Article();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "id" -> {
+                        if (bindId) {
+                            article.setId(value == JsonToken.VALUE_STRING ? Long.valueOf(parser.getText()) : parser.getLongValue());
+                        }
+                    }
+                    case "title" -> {
+                        if (bindTitle) {
+                            article.setTitle(parser.getText());
+                        }
+                    }
+                    case "content" -> {
+                        if (bindContent) {
+                            article.setContent(parser.getText());
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+            return article;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public List<Article> toList(SearchResponse response) {
+        SearchHit[] hits = response.getHits().getHits();
+        List<Article> list = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            Article article = map(hit);
+            if (article != null) {
+                list.add(article);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 惰性解析，只有 next() 时才解码对应的 hit，适合只取前几条或边读边处理的场景
+     */
+    public Iterator<Article> iterator(SearchResponse response) {
+        SearchHit[] hits = response.getHits().getHits();
+        return new Iterator<>() {
+            private int next;
+            private Article pending;
+
+            @Override
+            public boolean hasNext() {
+                while (pending == null && next < hits.length) {
+                    pending = map(hits[next++]);
+                }
+                return pending != null;
+            }
+
+            @Override
+            public Article next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Article article = pending;
+                pending = null;
+                return article;
+            }
+        };
+    }
+}
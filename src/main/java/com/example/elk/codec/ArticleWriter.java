@@ -0,0 +1,121 @@
+package com.example.elk.codec;
+
+import com.example.elk.bean.Article;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Article 的流式序列化，字段直接编码成 UTF-8 写进线程复用的缓冲区，
+ * 不经过 JSON.toJSONString 产生的中间 String 和 getBytes 产生的中间 byte[]
+ * <p>
+ * 和 fastjson 默认行为一致，值为 null 的字段不输出
+ */
+public final class ArticleWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 超过这个大小的缓冲区用完就丢掉，避免个别大文档把线程缓冲撑大后一直占着内存
+     */
+    private static final int MAX_RETAINED_BYTES = 1 << 20;
+
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(() -> new Buffer(4096));
+
+    private ArticleWriter() {
+    }
+
+    /**
+     * 序列化成可以直接交给 IndexRequest.source(BytesReference, XContentType) 的字节
+     */
+    public static BytesReference toBytesReference(Article article) {
+        return new BytesArray(toBytes(article));
+    }
+
+    public static byte[] toBytes(Article article) {
+        Buffer buffer = BUFFER.get();
+        buffer.reset();
+        try {
+            writeTo(article, buffer);
+            return buffer.toByteArray();
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BYTES) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    public static void writeTo(Article article, OutputStream out) {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeTo(article, generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void writeTo(Article article, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (article.getId() != null) {
+            generator.writeNumberField("id", article.getId());
+        }
+        if (article.getTitle() != null) {
+            generator.writeStringField("title", article.getTitle());
+        }
+        if (article.getContent() != null) {
+            generator.writeStringField("content", article.getContent());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * 可重置的字节缓冲，和 ByteArrayOutputStream 相比没有同步开销
+     */
+    static final class Buffer extends OutputStream {
+
+        private byte[] bytes;
+        private int count;
+
+        Buffer(int initialCapacity) {
+            bytes = new byte[initialCapacity];
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        int capacity() {
+            return bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, count);
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int minCapacity) {
+            if (minCapacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, minCapacity));
+            }
+        }
+    }
+}
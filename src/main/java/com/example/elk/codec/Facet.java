@@ -0,0 +1,92 @@
+package com.example.elk.codec;
+
+import com.example.elk.bean.Bucket;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.range.RangeAggregationBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 一个分面统计：terms、range 或 date_histogram，描述怎么构造聚合、怎么从响应里读出桶
+ * <p>
+ * 不可变，可以做成常量。每次 {@link #aggregation()} 都新建 AggregationBuilder，不在请求之间共享可变对象。
+ * text 字段不能做 terms 聚合，要用 keyword 子字段，比如 title.keyword。
+ */
+public final class Facet {
+
+    private final String name;
+    private final Supplier<AggregationBuilder> builder;
+
+    private Facet(String name, Supplier<AggregationBuilder> builder) {
+        this.name = name;
+        this.builder = builder;
+    }
+
+    /**
+     * 文档数最多的 size 个值
+     */
+    public static Facet terms(String name, String field, int size) {
+        return new Facet(name, () -> AggregationBuilders.terms(name).field(field).size(size)
+                .order(BucketOrder.count(false)));
+    }
+
+    /**
+     * 按 boundaries 切成 boundaries.length + 1 段，第一段和最后一段不设边界，每段左闭右开
+     */
+    public static Facet range(String name, String field, double... boundaries) {
+        if (boundaries.length == 0) {
+            throw new IllegalArgumentException("range至少要有一个边界");
+        }
+        double[] copy = boundaries.clone();
+        return new Facet(name, () -> {
+            RangeAggregationBuilder range = AggregationBuilders.range(name).field(field).addUnboundedTo(copy[0]);
+            for (int i = 1; i < copy.length; i++) {
+                range.addRange(copy[i - 1], copy[i]);
+            }
+            return range.addUnboundedFrom(copy[copy.length - 1]);
+        });
+    }
+
+    /**
+     * @param interval 日历间隔，比如 1d、1w、1M
+     * @param format   桶 key 的日期格式，null 表示用字段 mapping 里的格式
+     */
+    public static Facet dateHistogram(String name, String field, String interval, String format) {
+        return new Facet(name, () -> {
+            DateHistogramAggregationBuilder histogram = AggregationBuilders.dateHistogram(name).field(field)
+                    .calendarInterval(new DateHistogramInterval(interval));
+            return format == null ? histogram : histogram.format(format);
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public AggregationBuilder aggregation() {
+        return builder.get();
+    }
+
+    /**
+     * 响应里没有这个聚合时返回空列表
+     */
+    public List<Bucket> buckets(Aggregations aggregations) {
+        MultiBucketsAggregation aggregation = aggregations == null ? null : aggregations.get(name);
+        if (aggregation == null) {
+            return List.of();
+        }
+        List<Bucket> buckets = new ArrayList<>(aggregation.getBuckets().size());
+        for (MultiBucketsAggregation.Bucket bucket : aggregation.getBuckets()) {
+            buckets.add(new Bucket(bucket.getKeyAsString(), bucket.getDocCount()));
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.elk.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * gzip 编解码，Deflater/Inflater 放在池里复用
+ * <p>
+ * GZIPOutputStream/GZIPInputStream 每次都新建 Deflater/Inflater，它们各自带一块几十 KB 的 native 内存，
+ * 只能等 Cleaner 回收，请求量大时既慢又占内存。这里直接用 raw deflate 加上 gzip 的头和尾，用完 reset 放回池里，
+ * 池满了才 end 掉。
+ */
+public final class GzipCodec {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int TRAILER_LENGTH = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final int level;
+    private final BlockingQueue<Deflater> deflaters;
+    private final BlockingQueue<Inflater> inflaters;
+
+    public GzipCodec(int level, int poolSize) {
+        this.level = level;
+        this.deflaters = new ArrayBlockingQueue<>(poolSize);
+        this.inflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * 压缩后不小于 maxLength 时放弃，返回 null；maxLength 给 Integer.MAX_VALUE 表示总是压缩
+     */
+    public byte[] compress(byte[] bytes, int offset, int length, int maxLength) {
+        if (maxLength <= HEADER.length + TRAILER_LENGTH) {
+            return null;
+        }
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        }
+        try {
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            //压缩率好的时候一次就够，不够再扩
+            byte[] out = new byte[Math.min(maxLength, HEADER.length + length / 2 + 64)];
+            System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+            int size = HEADER.length;
+            while (!deflater.finished()) {
+                if (size == out.length) {
+                    if (out.length >= maxLength - TRAILER_LENGTH) {
+                        return null;
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min((long) maxLength, out.length * 2L));
+                }
+                size += deflater.deflate(out, size, out.length - size);
+            }
+            if ((long) size + TRAILER_LENGTH >= maxLength) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, offset, length);
+            byte[] result = Arrays.copyOf(out, size + TRAILER_LENGTH);
+            writeIntLE(result, size, (int) crc.getValue());
+            writeIntLE(result, size + 4, length);
+            return result;
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
+    }
+
+    public byte[] compress(byte[] bytes) {
+        return compress(bytes, 0, bytes.length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 只处理单个 member 的 gzip 流，es 返回的就是这种
+     */
+    public byte[] decompress(byte[] bytes, int offset, int length) throws IOException {
+        return decompress(bytes, offset, length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 解压后超过 maxSize 字节时放弃，返回 null，防止很小的压缩包解出几个 GB；maxSize 给 Integer.MAX_VALUE 表示只受数组长度限制
+     */
+    public byte[] decompress(byte[] bytes, int offset, int length, int maxSize) throws IOException {
+        int end = offset + length;
+        int position = skipHeader(bytes, offset, end);
+        if (end - position < TRAILER_LENGTH) {
+            throw new ZipException("gzip数据不完整");
+        }
+        int expectedCrc = readIntLE(bytes, end - TRAILER_LENGTH);
+        int expectedSize = readIntLE(bytes, end - 4);
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setInput(bytes, position, end - TRAILER_LENGTH - position);
+            //ISIZE 是原始长度对 2^32 取模，只当作初始容量，不够再扩；deflate 的压缩比不会超过 1032
+            boolean plausible = expectedSize > 0 && expectedSize <= length * 1032L;
+            //多留一个字节，解出来正好 maxSize 时不会误判
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, maxSize + 1L);
+            byte[] out = new byte[Math.min(capacity, plausible ? expectedSize : Math.max(64, length * 4))];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    if (size == capacity) {
+                        return null;
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(capacity, out.length * 2L));
+                }
+                int n = inflater.inflate(out, size, out.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException("gzip数据不完整");
+                }
+                size += n;
+                if (size > maxSize) {
+                    return null;
+                }
+            }
+            byte[] result = size == out.length ? out : Arrays.copyOf(out, size);
+            CRC32 crc = new CRC32();
+            crc.update(result);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new ZipException("gzip校验和不一致");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static int skipHeader(byte[] bytes, int position, int end) throws ZipException {
+        if (end - position < HEADER.length || ((bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8) != GZIP_MAGIC
+                || bytes[position + 2] != Deflater.DEFLATED) {
+            throw new ZipException("不是gzip数据");
+        }
+        int flags = bytes[position + 3] & 0xff;
+        position += HEADER.length;
+        if ((flags & FEXTRA) != 0) {
+            position += 2 + ((bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (position < end && bytes[position++] != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (position < end && bytes[position++] != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        return position;
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+}
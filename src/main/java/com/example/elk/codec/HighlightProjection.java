@@ -0,0 +1,117 @@
+package com.example.elk.codec;
+
+import com.example.elk.bean.Article;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * 高亮查询的结果投影：只取 _source 里指定的字段，再把高亮片段拼好填到对应字段上
+ * <p>
+ * 创建后不可变，可以做成常量在所有查询间共享，不用每次查询都新建 HighlightBuilder。
+ * 只显示片段的场景把 sourceFields 设成不含高亮字段，大字段（比如 content）只传回 fragment-size 大小的片段，不再传整段原文。
+ * sourceFields 为 null 表示取整个 _source。没有 _source 时按 _id 填 id，_id 不是数字时 id 为 null。
+ */
+public final class HighlightProjection {
+
+    /**
+     * 片段在原文里不相连，拼接时用省略号隔开
+     */
+    private static final String FRAGMENT_SEPARATOR = " ... ";
+
+    private final String[] fields;
+    private final String[] sourceFields;
+    /**
+     * 请求之间共享，构造完之后不再修改，序列化请求体时只读
+     */
+    private final HighlightBuilder highlighter;
+    private final FetchSourceContext fetchSource;
+    private final ArticleHitMapper mapper;
+
+    private HighlightProjection(String[] fields, String[] sourceFields, String preTag, String postTag,
+                                int fragmentSize, int numberOfFragments) {
+        this.fields = fields.clone();
+        this.sourceFields = sourceFields == null ? null : sourceFields.clone();
+        HighlightBuilder builder = new HighlightBuilder().preTags(preTag).postTags(postTag);
+        if (fragmentSize > 0) {
+            builder.fragmentSize(fragmentSize).numOfFragments(numberOfFragments);
+        }
+        for (String field : fields) {
+            builder.field(field);
+        }
+        this.highlighter = builder;
+        this.fetchSource = sourceFields == null ? null
+                : sourceFields.length == 0 ? FetchSourceContext.DO_NOT_FETCH_SOURCE
+                : new FetchSourceContext(true, this.sourceFields, null);
+        this.mapper = sourceFields == null ? ArticleHitMapper.ALL : ArticleHitMapper.of(this.sourceFields);
+    }
+
+    /**
+     * 整段高亮字段，取整个 _source
+     */
+    public static HighlightProjection of(String field, String preTag, String postTag) {
+        return new HighlightProjection(new String[]{field}, null, preTag, postTag, 0, 0);
+    }
+
+    /**
+     * 每个字段最多取 numberOfFragments 个 fragmentSize 字符左右的片段
+     */
+    public static HighlightProjection of(String[] fields, String[] sourceFields, String preTag, String postTag,
+                                         int fragmentSize, int numberOfFragments) {
+        return new HighlightProjection(fields, sourceFields, preTag, postTag, fragmentSize, numberOfFragments);
+    }
+
+    /**
+     * 设置高亮和 _source 过滤，其他条件不动
+     */
+    public SearchSourceBuilder apply(SearchSourceBuilder source) {
+        source.highlighter(highlighter);
+        if (fetchSource != null) {
+            source.fetchSource(fetchSource);
+        }
+        return source;
+    }
+
+    public Article map(SearchHit hit) {
+        Article article = hit.getSourceRef() == null ? new Article() : mapper.map(hit.getSourceRef());
+        if (article.getId() == null) {
+            article.setId(ArticleHitMapper.parseId(hit.getId()));
+        }
+        Map<String, HighlightField> highlights = hit.getHighlightFields();
+        for (String field : fields) {
+            HighlightField highlight = highlights.get(field);
+            if (highlight == null) {
+                continue;
+            }
+            StringJoiner fragments = new StringJoiner(FRAGMENT_SEPARATOR);
+            for (Text fragment : highlight.getFragments()) {
+                fragments.add(fragment.string());
+            }
+            switch (field) {
+                case "title" -> article.setTitle(fragments.toString());
+                case "content" -> article.setContent(fragments.toString());
+                default -> {
+                }
+            }
+        }
+        return article;
+    }
+
+    public List<Article> toList(SearchResponse response) {
+        SearchHit[] hits = response.getHits().getHits();
+        List<Article> list = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            list.add(map(hit));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.elk.codec;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 预先渲染好的查询请求体，运行时只把参数值拼进去，不再每次构造 SearchSourceBuilder 再渲染成 json
+ * <p>
+ * 用普通的 SearchSourceBuilder 描述查询，参数值的位置写 {@link #param(String)}，编译时渲染一次，
+ * 把 json 里的 "{{name}}" 记成参数槽，剩下的字节原样保存。
+ * 参数槽单独占一个数组（比如 termsQuery(field, param("values"))）时整个数组是一个槽，可以填集合。
+ * 不支持聚合和 suggest，响应按只有 hit 的 SearchResponse 解析。
+ * <p>
+ * 编译后不可变，可以在线程间共享。
+ */
+public final class QueryTemplate {
+
+    private static final byte[] OPEN = "\"{{".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLOSE = "}}\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * chunks 比 slots 多一个，渲染结果是 chunks[0] slots[0] chunks[1] ... chunks[n]
+     */
+    private final byte[][] chunks;
+    private final String[] slots;
+    private final boolean[] listSlots;
+    private final Set<String> parameters;
+    private final ArticleHitMapper mapper;
+
+    private QueryTemplate(byte[][] chunks, String[] slots, boolean[] listSlots, ArticleHitMapper mapper) {
+        this.chunks = chunks;
+        this.slots = slots;
+        this.listSlots = listSlots;
+        this.parameters = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(slots)));
+        this.mapper = mapper;
+    }
+
+    /**
+     * 参数占位符，放在 SearchSourceBuilder 里字符串、数字、日期等值的位置
+     */
+    public static String param(String name) {
+        return "{{" + name + "}}";
+    }
+
+    public static QueryTemplate compile(SearchSourceBuilder source) {
+        if (source.aggregations() != null || source.suggest() != null) {
+            throw new IllegalArgumentException("查询模板不支持聚合和suggest");
+        }
+        byte[] json;
+        try {
+            json = BytesReference.toBytes(XContentHelper.toXContent(source, XContentType.JSON, false));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<byte[]> chunks = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        List<Boolean> listSlots = new ArrayList<>();
+        int chunkStart = 0;
+        int open;
+        while ((open = indexOf(json, OPEN, chunkStart)) >= 0) {
+            int close = indexOf(json, CLOSE, open + OPEN.length);
+            if (close < 0) {
+                break;
+            }
+            int start = open;
+            int end = close + CLOSE.length;
+            boolean list = open > 0 && json[open - 1] == '[' && end < json.length && json[end] == ']';
+            if (list) {
+                start--;
+                end++;
+            }
+            chunks.add(Arrays.copyOfRange(json, chunkStart, start));
+            slots.add(new String(json, open + OPEN.length, close - open - OPEN.length, StandardCharsets.UTF_8));
+            listSlots.add(list);
+            chunkStart = end;
+        }
+        chunks.add(Arrays.copyOfRange(json, chunkStart, json.length));
+        boolean[] lists = new boolean[listSlots.size()];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = listSlots.get(i);
+        }
+        return new QueryTemplate(chunks.toArray(new byte[0][]), slots.toArray(new String[0]), lists, ArticleHitMapper.of(source));
+    }
+
+    public Set<String> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * 按模板里 _source 的 includes 解析 hit
+     */
+    public ArticleHitMapper mapper() {
+        return mapper;
+    }
+
+    /**
+     * 字符串按 json 转义，数字和布尔原样，集合只能填数组槽；缺少参数时抛 {@link IllegalArgumentException}
+     */
+    public byte[] render(Map<String, ?> params) {
+        byte[][] values = new byte[slots.length][];
+        int length = chunks[0].length;
+        for (int i = 0; i < slots.length; i++) {
+            if (!params.containsKey(slots[i])) {
+                throw new IllegalArgumentException("缺少参数:" + slots[i]);
+            }
+            values[i] = listSlots[i] ? encodeList(slots[i], params.get(slots[i])) : encode(slots[i], params.get(slots[i]));
+            length += values[i].length + chunks[i + 1].length;
+        }
+        byte[] body = new byte[length];
+        int position = 0;
+        for (int i = 0; i < slots.length; i++) {
+            System.arraycopy(chunks[i], 0, body, position, chunks[i].length);
+            position += chunks[i].length;
+            System.arraycopy(values[i], 0, body, position, values[i].length);
+            position += values[i].length;
+        }
+        System.arraycopy(chunks[slots.length], 0, body, position, chunks[slots.length].length);
+        return body;
+    }
+
+    private static byte[] encodeList(String name, Object value) {
+        if (!(value instanceof Collection)) {
+            byte[] single = encode(name, value);
+            byte[] list = new byte[single.length + 2];
+            list[0] = '[';
+            System.arraycopy(single, 0, list, 1, single.length);
+            list[list.length - 1] = ']';
+            return list;
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (Iterator<?> it = ((Collection<?>) value).iterator(); it.hasNext(); ) {
+            json.append(new String(encode(name, it.next()), StandardCharsets.UTF_8));
+            if (it.hasNext()) {
+                json.append(',');
+            }
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(String name, Object value) {
+        if (value == null) {
+            return NULL;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        if (value instanceof Collection) {
+            throw new IllegalArgumentException("参数" + name + "不在数组位置,不能传集合");
+        }
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(value.toString());
+        byte[] quoted = new byte[escaped.length + 2];
+        quoted[0] = '"';
+        System.arraycopy(escaped, 0, quoted, 1, escaped.length);
+        quoted[quoted.length - 1] = '"';
+        return quoted;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
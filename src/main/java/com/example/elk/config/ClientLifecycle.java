@@ -0,0 +1,134 @@
+package com.example.elk.config;
+
+import com.example.elk.metrics.InFlightRequests;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.core.MainResponse;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局唯一的 RestHighLevelClient 的启停，客户端本身由 {@link RestClientConfig} 创建，关闭也由容器负责
+ * <p>
+ * 启动：在 web 容器开始接收请求之前先调一次 info() 确认集群可用，再并发发几个 HEAD / 把连接池里的连接建好，
+ * 第一批业务请求不用再付建连接的开销。集群连不上只打日志，不影响启动。
+ * <p>
+ * 停止：web 容器停止接收请求之后、客户端关闭之前，等还没结束的 es 请求做完，最多等 grace-period。
+ */
+@Slf4j
+@Component
+public class ClientLifecycle implements SmartLifecycle {
+
+    /**
+     * 比 web 容器的 phase 小：先于它启动，晚于它停止
+     */
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 4096;
+
+    private final RestHighLevelClient client;
+    private final InFlightRequests inFlight;
+    private final boolean warmUp;
+    private final int connections;
+    private final long warmUpTimeoutMillis;
+    private final long gracePeriodMillis;
+
+    private volatile boolean running;
+
+    public ClientLifecycle(RestHighLevelClient client,
+                           InFlightRequests inFlight,
+                           @Value("${es.warmup.enabled:true}") boolean warmUp,
+                           @Value("${es.warmup.connections:4}") int connections,
+                           @Value("${es.warmup.timeout:2s}") String warmUpTimeout,
+                           @Value("${es.shutdown.grace-period:10s}") String gracePeriod) {
+        this.client = client;
+        this.inFlight = inFlight;
+        this.warmUp = warmUp;
+        this.connections = connections;
+        this.warmUpTimeoutMillis = TimeValue.parseTimeValue(warmUpTimeout, "es.warmup.timeout").millis();
+        this.gracePeriodMillis = TimeValue.parseTimeValue(gracePeriod, "es.shutdown.grace-period").millis();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (warmUp) {
+            warmUp();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        int pending = inFlight.get();
+        if (pending == 0) {
+            return;
+        }
+        log.info("等待{}个es请求结束,最多{}ms", pending, gracePeriodMillis);
+        try {
+            if (!inFlight.awaitIdle(gracePeriodMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("{}ms内还有{}个es请求没有结束,直接关闭客户端", gracePeriodMillis, inFlight.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    void warmUp() {
+        long start = System.nanoTime();
+        try {
+            MainResponse info = client.info(RequestOptions.DEFAULT);
+            log.info("es集群:{},版本:{}", info.getClusterName(), info.getVersion().getNumber());
+        } catch (IOException | RuntimeException e) {
+            log.warn("es集群不可用,跳过预热:{}", e.toString());
+            return;
+        }
+        int total = connections * client.getLowLevelClient().getNodes().size();
+        CountDownLatch done = new CountDownLatch(total);
+        List<Cancellable> requests = new ArrayList<>(total);
+        //同时发出去才会各占一个连接，一个接一个发只会复用同一个连接
+        for (int i = 0; i < total; i++) {
+            requests.add(client.getLowLevelClient().performRequestAsync(new Request("HEAD", "/"), new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception exception) {
+                    done.countDown();
+                }
+            }));
+        }
+        try {
+            if (!done.await(warmUpTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                requests.forEach(Cancellable::cancel);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            requests.forEach(Cancellable::cancel);
+        }
+        log.info("es客户端预热完成,预建连接{}个,耗时{}ms", total, (System.nanoTime() - start) / 1_000_000);
+    }
+}
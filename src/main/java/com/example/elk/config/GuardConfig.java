@@ -0,0 +1,56 @@
+package com.example.elk.config;
+
+import com.example.elk.client.CircuitBreaker;
+import com.example.elk.client.ClusterGuard;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 查询和 bulk 各用一个 {@link ClusterGuard}，并发数、限流分开配置，熔断参数共用
+ * <p>
+ * bulk 本来就慢，大的 bulk 超过 slow-call 很正常，所以 bulkGuard 的熔断器只看失败比例，不统计慢调用
+ */
+@Configuration
+@ConditionalOnProperty(name = "es.guard.enabled", havingValue = "true", matchIfMissing = true)
+public class GuardConfig {
+
+    @Value("${es.guard.breaker.window:50}")
+    private int window;
+    @Value("${es.guard.breaker.min-calls:20}")
+    private int minCalls;
+    @Value("${es.guard.breaker.failure-rate:0.5}")
+    private double failureRate;
+    @Value("${es.guard.breaker.slow-call:5s}")
+    private String slowCall;
+    @Value("${es.guard.breaker.slow-rate:0.8}")
+    private double slowRate;
+    @Value("${es.guard.breaker.open-duration:10s}")
+    private String openDuration;
+    @Value("${es.guard.breaker.half-open-calls:5}")
+    private int halfOpenCalls;
+
+    @Bean
+    public ClusterGuard searchGuard(@Value("${es.guard.search.max-concurrent:100}") int maxConcurrent,
+                                    @Value("${es.guard.search.max-wait:0ms}") String maxWait,
+                                    @Value("${es.guard.search.permits-per-second:-1}") double permitsPerSecond) {
+        return new ClusterGuard("search", maxConcurrent,
+                TimeValue.parseTimeValue(maxWait, "es.guard.search.max-wait").nanos(), permitsPerSecond,
+                breaker(TimeValue.parseTimeValue(slowCall, "es.guard.breaker.slow-call").nanos()));
+    }
+
+    @Bean
+    public ClusterGuard bulkGuard(@Value("${es.guard.bulk.max-concurrent:4}") int maxConcurrent,
+                                  @Value("${es.guard.bulk.max-wait:10s}") String maxWait,
+                                  @Value("${es.guard.bulk.permits-per-second:-1}") double permitsPerSecond) {
+        return new ClusterGuard("bulk", maxConcurrent,
+                TimeValue.parseTimeValue(maxWait, "es.guard.bulk.max-wait").nanos(), permitsPerSecond, breaker(Long.MAX_VALUE));
+    }
+
+    private CircuitBreaker breaker(long slowCallNanos) {
+        return new CircuitBreaker(window, minCalls, failureRate, slowCallNanos, slowRate,
+                TimeValue.parseTimeValue(openDuration, "es.guard.breaker.open-duration").nanos(), halfOpenCalls);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.elk.config;
+
+import com.example.elk.cache.ArticleNearCache;
+import com.example.elk.client.AdaptiveCompression;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.client.CoalescingClient;
+import com.example.elk.client.SearchResultCache;
+import com.example.elk.metrics.InFlightRequests;
+import com.example.elk.service.BulkIndexer;
+import com.example.elk.spool.BulkSpool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 把各组件自己维护的计数器暴露给 micrometer，采集时才读，不在写入路径上增加开销
+ * <p>
+ * http 层的耗时和字节数见 {@link com.example.elk.metrics.ClientMetrics}
+ */
+@Configuration
+@ConditionalOnProperty(name = "es.metrics.enabled", havingValue = "true", matchIfMissing = true)
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder bulkIndexerMetrics(BulkIndexer bulkIndexer) {
+        return registry -> {
+            FunctionCounter.builder("es.bulk.items", bulkIndexer, BulkIndexer::getSubmitted)
+                    .tag("result", "submitted").register(registry);
+            FunctionCounter.builder("es.bulk.items", bulkIndexer, BulkIndexer::getSucceeded)
+                    .tag("result", "succeeded").register(registry);
+            FunctionCounter.builder("es.bulk.items", bulkIndexer, BulkIndexer::getFailed)
+                    .tag("result", "failed").register(registry);
+            FunctionCounter.builder("es.bulk.guard-retries", bulkIndexer, BulkIndexer::getGuardRetries).register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder searchCacheMetrics(SearchResultCache cache) {
+        return registry -> {
+            FunctionCounter.builder("es.cache.requests", cache, SearchResultCache::getHits)
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("es.cache.requests", cache, SearchResultCache::getMisses)
+                    .tag("result", "miss").register(registry);
+            FunctionCounter.builder("es.cache.evictions", cache, SearchResultCache::getEvictions).register(registry);
+            FunctionCounter.builder("es.cache.invalidations", cache, SearchResultCache::getInvalidations).register(registry);
+            Gauge.builder("es.cache.size", cache, SearchResultCache::size).register(registry);
+            Gauge.builder("es.cache.weight", cache, SearchResultCache::weight).baseUnit("bytes").register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder nearCacheMetrics(ObjectProvider<ArticleNearCache> nearCache) {
+        return registry -> nearCache.ifAvailable(c -> {
+            FunctionCounter.builder("es.near-cache.requests", c, ArticleNearCache::getHits)
+                    .tag("result", "hit").register(registry);
+            FunctionCounter.builder("es.near-cache.requests", c, ArticleNearCache::getMisses)
+                    .tag("result", "miss").register(registry);
+            FunctionCounter.builder("es.near-cache.evictions", c, ArticleNearCache::getEvictions).register(registry);
+            FunctionCounter.builder("es.near-cache.invalidations", c, ArticleNearCache::getInvalidations).register(registry);
+            Gauge.builder("es.near-cache.size", c, ArticleNearCache::size).register(registry);
+            Gauge.builder("es.near-cache.bytes", c, ArticleNearCache::bytes).baseUnit("bytes").register(registry);
+        });
+    }
+
+    @Bean
+    public MeterBinder coalescingMetrics(CoalescingClient coalescing) {
+        return registry -> {
+            FunctionCounter.builder("es.coalesce.searches", coalescing, CoalescingClient::getCoalescedSearches).register(registry);
+            FunctionCounter.builder("es.coalesce.gets", coalescing, CoalescingClient::getCoalescedGets).register(registry);
+            FunctionCounter.builder("es.coalesce.mget.requests", coalescing, CoalescingClient::getMgetRequests).register(registry);
+        };
+    }
+
+    /**
+     * 熔断器状态 0 关闭、1 打开、2 半开
+     */
+    @Bean
+    public MeterBinder guardMetrics(ObjectProvider<ClusterGuard> guards) {
+        return registry -> guards.orderedStream().forEach(guard -> {
+            String operation = guard.getName();
+            Gauge.builder("es.guard.breaker.state", guard, g -> g.getBreaker().getState().ordinal())
+                    .tag("operation", operation).register(registry);
+            Gauge.builder("es.guard.breaker.failure.rate", guard, g -> g.getBreaker().getFailureRate())
+                    .tag("operation", operation).register(registry);
+            Gauge.builder("es.guard.breaker.slow.rate", guard, g -> g.getBreaker().getSlowCallRate())
+                    .tag("operation", operation).register(registry);
+            Gauge.builder("es.guard.active", guard, ClusterGuard::getActive).tag("operation", operation).register(registry);
+            for (ClusterGuard.Rejection rejection : ClusterGuard.Rejection.values()) {
+                FunctionCounter.builder("es.guard.rejected", guard, g -> g.getRejected(rejection))
+                        .tag("operation", operation).tag("reason", rejection.name().toLowerCase()).register(registry);
+            }
+            FunctionCounter.builder("es.guard.fallbacks", guard, ClusterGuard::getFallbacks)
+                    .tag("operation", operation).register(registry);
+        });
+    }
+
+    @Bean
+    public MeterBinder compressionMetrics(ObjectProvider<AdaptiveCompression> compression) {
+        return registry -> compression.ifAvailable(c -> {
+            FunctionCounter.builder("es.compression.requests", c, AdaptiveCompression::getCompressedRequests).register(registry);
+            FunctionCounter.builder("es.compression.bytes", c, AdaptiveCompression::getUncompressedBytes)
+                    .tag("stage", "original").baseUnit("bytes").register(registry);
+            FunctionCounter.builder("es.compression.bytes", c, AdaptiveCompression::getCompressedBytes)
+                    .tag("stage", "compressed").baseUnit("bytes").register(registry);
+            FunctionCounter.builder("es.compression.responses", c, AdaptiveCompression::getDecompressedResponses).register(registry);
+        });
+    }
+
+    @Bean
+    public MeterBinder spoolMetrics(ObjectProvider<BulkSpool> spool) {
+        return registry -> spool.ifAvailable(s -> {
+            FunctionCounter.builder("es.spool.items", s, BulkSpool::getAppended).tag("result", "appended").register(registry);
+            FunctionCounter.builder("es.spool.items", s, BulkSpool::getSucceeded).tag("result", "succeeded").register(registry);
+            FunctionCounter.builder("es.spool.items", s, BulkSpool::getFailed).tag("result", "failed").register(registry);
+            FunctionCounter.builder("es.spool.retries", s, BulkSpool::getRetries).register(registry);
+            Gauge.builder("es.spool.backlog", s, BulkSpool::getBacklog).baseUnit("bytes").register(registry);
+        });
+    }
+
+    @Bean
+    public MeterBinder inFlightMetrics(InFlightRequests inFlight) {
+        return registry -> Gauge.builder("es.client.inflight", inFlight, InFlightRequests::get).register(registry);
+    }
+}
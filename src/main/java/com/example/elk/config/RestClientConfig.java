@@ -1,30 +1,167 @@
 package com.example.elk.config;
 
+import com.example.elk.client.AdaptiveCompression;
+import com.example.elk.metrics.ClientMetrics;
+import com.example.elk.metrics.InFlightRequests;
+import com.example.elk.metrics.LatencyAwareNodeSelector;
+import com.example.elk.metrics.RequestTracer;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.elasticsearch.client.Node;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Arrays;
+
+@Slf4j
 @Configuration
 public class RestClientConfig {
 
-    @Value("${es.clusterName}")
-    public static String clusterName;
+    /**
+     * 集群节点，逗号分隔，支持 host 或 host:port 两种写法
+     */
     @Value("${es.servers}")
-    public static String servers;
-    @Value("${es.port}")
-    public static int port;
+    private String[] servers;
+    @Value("${es.port:9200}")
+    private int port;
+    @Value("${es.scheme:http}")
+    private String scheme;
+
+    //连接池，默认值对应 RestClientBuilder 的 30/10，压测下明显不够
+    @Value("${es.pool.max-total:200}")
+    private int maxConnTotal;
+    @Value("${es.pool.max-per-route:50}")
+    private int maxConnPerRoute;
+    @Value("${es.pool.io-threads:0}")
+    private int ioThreadCount;
+    @Value("${es.pool.keep-alive-ms:60000}")
+    private long keepAliveMillis;
+
+    @Value("${es.timeout.connect-ms:1000}")
+    private int connectTimeoutMillis;
+    @Value("${es.timeout.socket-ms:30000}")
+    private int socketTimeoutMillis;
+
+    @Value("${es.sniff.enabled:false}")
+    private boolean sniffEnabled;
+    private final SniffOnFailure sniffOnFailure = new SniffOnFailure();
 
-    @Bean
+    @Autowired(required = false)
+    private InFlightRequests inFlightRequests;
+    @Autowired(required = false)
+    private LatencyAwareNodeSelector nodeSelector;
+    @Autowired(required = false)
+    private ClientMetrics clientMetrics;
+    @Autowired(required = false)
+    private RequestTracer requestTracer;
+    @Autowired(required = false)
+    private AdaptiveCompression compression;
+
+    /**
+     * 整个应用共用这一个客户端和它的连接池，预热和关闭前的等待见 {@link ClientLifecycle}
+     */
+    @Bean(destroyMethod = "close")
     public RestHighLevelClient restHighLevelClient() {
-        RestHighLevelClient client = new RestHighLevelClient(
-                RestClient.builder(
-                        new HttpHost(servers, port, "http")
-                )
-        );
-        return client;
+        return new RestHighLevelClient(restClientBuilder());
+    }
+
+    /**
+     * 定时从集群拉取节点列表，把请求分摊到所有 http 节点上；某个节点请求失败时立即嗅探一次，after-failure-delay 后再嗅探一次
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "es.sniff.enabled", havingValue = "true")
+    public Sniffer sniffer(RestHighLevelClient restHighLevelClient,
+                           @Value("${es.sniff.interval-ms:300000}") int sniffIntervalMillis,
+                           @Value("${es.sniff.after-failure-delay-ms:60000}") int sniffAfterFailureDelayMillis) {
+        Sniffer sniffer = Sniffer.builder(restHighLevelClient.getLowLevelClient())
+                .setSniffIntervalMillis(sniffIntervalMillis)
+                .setSniffAfterFailureDelayMillis(sniffAfterFailureDelayMillis)
+                .build();
+        sniffOnFailure.sniffer = sniffer;
+        return sniffer;
+    }
+
+    public RestClientBuilder restClientBuilder() {
+        HttpHost[] hosts = Arrays.stream(servers)
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(this::toHttpHost)
+                .toArray(HttpHost[]::new);
+        log.info("es节点:{},连接池 maxTotal={} maxPerRoute={}", Arrays.toString(hosts), maxConnTotal, maxConnPerRoute);
+        RestClientBuilder builder = RestClient.builder(hosts);
+        if (nodeSelector != null) {
+            builder.setNodeSelector(nodeSelector);
+        }
+        if (sniffEnabled) {
+            builder.setFailureListener(sniffOnFailure);
+        }
+        return builder
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(socketTimeoutMillis))
+                .setHttpClientConfigCallback(httpClient -> {
+                    IOReactorConfig.Builder ioReactor = IOReactorConfig.custom().setSoKeepAlive(true);
+                    if (ioThreadCount > 0) {
+                        ioReactor.setIoThreadCount(ioThreadCount);
+                    }
+                    httpClient
+                            .setMaxConnTotal(maxConnTotal)
+                            .setMaxConnPerRoute(maxConnPerRoute)
+                            .setDefaultIOReactorConfig(ioReactor.build())
+                            .setKeepAliveStrategy((response, context) -> keepAliveMillis);
+                    HttpAsyncClientBuilder instrumented = httpClient;
+                    if (inFlightRequests != null) {
+                        instrumented = inFlightRequests.instrument(instrumented);
+                    }
+                    if (nodeSelector != null) {
+                        instrumented = nodeSelector.instrument(instrumented);
+                    }
+                    if (clientMetrics != null) {
+                        instrumented = clientMetrics.instrument(instrumented);
+                    }
+                    if (requestTracer != null) {
+                        instrumented = requestTracer.instrument(instrumented);
+                    }
+                    //压缩放在最外层，里面的指标和追踪看到的是线路上的字节
+                    return compression == null ? instrumented : compression.instrument(instrumented);
+                });
+    }
+
+    private HttpHost toHttpHost(String server) {
+        if (server.contains("://")) {
+            return HttpHost.create(server);
+        }
+        int idx = server.lastIndexOf(':');
+        if (idx > 0) {
+            return new HttpHost(server.substring(0, idx), Integer.parseInt(server.substring(idx + 1)), scheme);
+        }
+        return new HttpHost(server, port, scheme);
+    }
+
+    /**
+     * 和 SniffOnFailureListener 一样，但 Sniffer 建好之前的失败直接忽略；
+     * SniffOnFailureListener 这时会抛 IllegalStateException，打断 RestClient 的失败回调
+     */
+    private static final class SniffOnFailure extends RestClient.FailureListener {
+
+        private volatile Sniffer sniffer;
+
+        @Override
+        public void onFailure(Node node) {
+            Sniffer current = sniffer;
+            if (current != null) {
+                current.sniffOnFailure();
+            }
+        }
     }
 
 }
@@ -0,0 +1,186 @@
+package com.example.elk.controller;
+
+import com.alibaba.fastjson.JSON;
+import com.example.elk.bean.Article;
+import com.example.elk.bean.Bucket;
+import com.example.elk.client.MultiSearchBatcher;
+import com.example.elk.service.ArticleAggregator;
+import com.example.elk.service.ArticleService;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 返回 CompletableFuture，spring mvc 会走 servlet 异步模式：
+ * 等 es 响应期间 tomcat 工作线程直接归还，成千上万个慢请求也不会把线程池占满
+ */
+@RestController
+@RequestMapping("/articles")
+public class ArticleController {
+
+    private final ArticleService articleService;
+    private final MultiSearchBatcher multiSearch;
+    private final ArticleAggregator aggregator;
+
+    public ArticleController(ArticleService articleService, MultiSearchBatcher multiSearch, ArticleAggregator aggregator) {
+        this.articleService = articleService;
+        this.multiSearch = multiSearch;
+        this.aggregator = aggregator;
+    }
+
+    @GetMapping("/{id}")
+    public CompletableFuture<ResponseEntity<Article>> get(@PathVariable long id) {
+        return articleService.get(id)
+                .thenApply(article -> article == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(article));
+    }
+
+    @PostMapping
+    public CompletableFuture<Map<String, Object>> index(@RequestBody Article article) {
+        if (article.getId() == null) {
+            throw new IllegalArgumentException("id不能为空");
+        }
+        return articleService.index(article)
+                .thenApply(response -> Map.of("id", response.getId(), "result", response.getResult().getLowercase()));
+    }
+
+    @GetMapping("/search/term")
+    public CompletableFuture<List<Article>> term(@RequestParam String field, @RequestParam String value,
+                                                 @RequestParam(defaultValue = "10") int size) {
+        return articleService.term(field, value, size);
+    }
+
+    @GetMapping("/search/terms")
+    public CompletableFuture<List<Article>> terms(@RequestParam String field, @RequestParam List<String> values,
+                                                  @RequestParam(defaultValue = "10") int size) {
+        return articleService.terms(field, values, size);
+    }
+
+    @GetMapping("/search/range")
+    public CompletableFuture<List<Article>> range(@RequestParam(defaultValue = "id") String field,
+                                                  @RequestParam(required = false) Long gte,
+                                                  @RequestParam(required = false) Long lte,
+                                                  @RequestParam(defaultValue = "10") int size) {
+        return articleService.range(field, gte, lte, size);
+    }
+
+    /**
+     * mode=must 相当于 and，mode=should 相当于 or
+     */
+    @GetMapping("/search/bool")
+    public CompletableFuture<List<Article>> bool(@RequestParam(required = false) String title,
+                                                 @RequestParam(required = false) Long idFrom,
+                                                 @RequestParam(required = false) Long idTo,
+                                                 @RequestParam(defaultValue = "must") String mode,
+                                                 @RequestParam(defaultValue = "10") int size) {
+        return articleService.bool(title, idFrom, idTo, !"should".equalsIgnoreCase(mode), size);
+    }
+
+    @GetMapping("/search/highlight")
+    public CompletableFuture<List<Article>> highlight(@RequestParam(defaultValue = "title") String field,
+                                                      @RequestParam String keyword,
+                                                      @RequestParam(defaultValue = "<font style='color:red'>") String preTag,
+                                                      @RequestParam(defaultValue = "</font>") String postTag,
+                                                      @RequestParam(defaultValue = "10") int size) {
+        return articleService.highlight(field, keyword, preTag, postTag, size);
+    }
+
+    /**
+     * 只返回 id、title 和正文命中的片段，适合搜索结果列表
+     */
+    @GetMapping("/search/snippets")
+    public CompletableFuture<List<Article>> snippets(@RequestParam String keyword,
+                                                     @RequestParam(defaultValue = "10") int size) {
+        return articleService.snippets(keyword, size);
+    }
+
+    /**
+     * 用登记过的查询模板查询，除 size 以外的请求参数都作为模板参数，比如
+     * /search/template/title-in-id-range?title=job&idFrom=1&idTo=4
+     */
+    @GetMapping("/search/template/{name}")
+    public CompletableFuture<List<Article>> template(@PathVariable String name,
+                                                     @RequestParam Map<String, String> params,
+                                                     @RequestParam(defaultValue = "10") int size) {
+        Map<String, String> templateParams = new HashMap<>(params);
+        templateParams.remove("size");
+        return articleService.template(name, templateParams, size);
+    }
+
+    /**
+     * 看板页要的 must、should、范围和高亮四个查询，攒成一个 _msearch 发出去
+     */
+    @GetMapping("/search/dashboard")
+    public CompletableFuture<Map<String, List<Article>>> dashboard(@RequestParam String title,
+                                                                   @RequestParam(required = false) Long idFrom,
+                                                                   @RequestParam(required = false) Long idTo,
+                                                                   @RequestParam(defaultValue = "10") int size) {
+        CompletableFuture<List<Article>> must;
+        CompletableFuture<List<Article>> should;
+        CompletableFuture<List<Article>> range;
+        CompletableFuture<List<Article>> highlight;
+        try (MultiSearchBatcher.Scope ignored = multiSearch.scope()) {
+            must = articleService.bool(title, idFrom, idTo, true, size);
+            should = articleService.bool(title, idFrom, idTo, false, size);
+            range = articleService.range("id", idFrom, idTo, size);
+            highlight = articleService.highlight("title", title, "<font style='color:red'>", "</font>", size);
+        }
+        return CompletableFuture.allOf(must, should, range, highlight)
+                .thenApply(v -> Map.of("must", must.join(), "should", should.join(),
+                        "range", range.join(), "highlight", highlight.join()));
+    }
+
+    /**
+     * 文档数最多的 size 个取值，text 字段要用 keyword 子字段，比如 title.keyword
+     */
+    @GetMapping("/facets/terms")
+    public CompletableFuture<List<Bucket>> termsFacet(@RequestParam(defaultValue = "title.keyword") String field,
+                                                      @RequestParam(defaultValue = "10") int size) {
+        return aggregator.terms(null, field, size);
+    }
+
+    @GetMapping("/facets/range")
+    public CompletableFuture<List<Bucket>> rangeFacet(@RequestParam(defaultValue = "id") String field,
+                                                      @RequestParam double[] boundaries) {
+        return aggregator.range(null, field, boundaries);
+    }
+
+    /**
+     * 全部取值和文档数，每行一个 json，按页从 es 取、边取边写，不在内存里攒全部桶
+     */
+    @GetMapping(value = "/facets/terms/all", produces = "application/x-ndjson")
+    public StreamingResponseBody allTerms(@RequestParam(defaultValue = "title.keyword") String field,
+                                          @RequestParam(defaultValue = "1000") int pageSize) {
+        Iterator<Bucket> buckets = aggregator.streamTerms(null, field, pageSize);
+        return out -> {
+            while (buckets.hasNext()) {
+                out.write(JSON.toJSONBytes(buckets.next()));
+                out.write('\n');
+            }
+        };
+    }
+
+    @ExceptionHandler(ElasticsearchStatusException.class)
+    public ResponseEntity<Map<String, String>> esError(ElasticsearchStatusException e) {
+        return ResponseEntity.status(e.status().getStatus()).body(Map.of("error", e.getDetailedMessage()));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", e.getMessage()));
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.elk.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * es 客户端的请求指标，在 http 层统计，所有经过 RestHighLevelClient 的请求都会被记录，调用方不用改
+ * <p>
+ * 按操作类型（search、bulk、index、get...）分别记录：
+ * <ul>
+ *     <li>es.client.requests：从发起请求到响应体读完的耗时，按结果分 success/client_error/server_error/error/cancelled</li>
+ *     <li>es.client.connection.acquire：从发起请求到拿到连接的耗时，包括等连接池和新建连接</li>
+ *     <li>es.client.request.bytes / es.client.response.bytes：线路上的请求体、响应体字节数</li>
+ *     <li>es.client.server.took：响应里的 took，即服务端耗时；es.client.overhead：客户端耗时减去 took</li>
+ * </ul>
+ * 所有 meter 在启动时建好，记录时不拼字符串；耗时分位数由 micrometer 的 HdrHistogram 在本地计算。
+ * took 只在响应没有被 gzip 压缩时解析。
+ */
+@Component
+@ConditionalOnProperty(name = "es.metrics.enabled", havingValue = "true", matchIfMissing = true)
+public class ClientMetrics implements HttpExchangeObserver {
+
+    static final String UNKNOWN = "unknown";
+
+    private static final byte[] TOOK_PREFIX = "{\"took\":".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String[] OPERATIONS = {
+            "search", "scroll", "msearch", "count", "bulk", "index", "update", "get", "mget", "delete", "other", UNKNOWN
+    };
+
+    private final Map<String, OperationMeters> meters = new HashMap<>();
+    private final Timer connectionAcquire;
+
+    public ClientMetrics(MeterRegistry registry,
+                         @Value("${es.metrics.percentiles:0.5,0.9,0.99}") double[] percentiles) {
+        for (String operation : OPERATIONS) {
+            meters.put(operation, new OperationMeters(registry, operation, percentiles));
+        }
+        connectionAcquire = Timer.builder("es.client.connection.acquire")
+                .description("等待连接池和建立连接的耗时")
+                .publishPercentiles(percentiles)
+                .register(registry);
+    }
+
+    /**
+     * 在 RestClientBuilder 的 HttpClientConfigCallback 里最后调用，返回的 builder 构造出的客户端会记录每个请求
+     */
+    public HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder builder) {
+        return InstrumentedHttpAsyncClient.wrap(builder, this);
+    }
+
+    @Override
+    public Exchange start(HttpHost target) {
+        return new MetricsExchange();
+    }
+
+    /**
+     * 根据请求方法和路径判断操作类型，路径上的索引名和文档 id 都不影响结果
+     */
+    static String operation(String method, String uri) {
+        int end = uri.indexOf('?');
+        String path = end < 0 ? uri : uri.substring(0, end);
+        if (path.contains("/_search/scroll")) {
+            return "scroll";
+        }
+        if (path.endsWith("/_search")) {
+            return "search";
+        }
+        if (path.endsWith("/_msearch")) {
+            return "msearch";
+        }
+        if (path.endsWith("/_count")) {
+            return "count";
+        }
+        if (path.endsWith("/_bulk")) {
+            return "bulk";
+        }
+        if (path.endsWith("/_mget")) {
+            return "mget";
+        }
+        if (path.contains("/_update/")) {
+            return "update";
+        }
+        if (path.contains("/_doc/") || path.endsWith("/_doc") || path.contains("/_create/")) {
+            switch (method) {
+                case "GET":
+                case "HEAD":
+                    return "get";
+                case "DELETE":
+                    return "delete";
+                default:
+                    return "index";
+            }
+        }
+        return "other";
+    }
+
+    static final class OperationMeters {
+
+        static final int SUCCESS = 0;
+        static final int CLIENT_ERROR = 1;
+        static final int SERVER_ERROR = 2;
+        static final int ERROR = 3;
+        static final int CANCELLED = 4;
+
+        private static final String[] OUTCOMES = {"success", "client_error", "server_error", "error", "cancelled"};
+
+        final String operation;
+        /**
+         * 只有响应体以 took 开头的操作才去解析 took
+         */
+        final boolean hasTook;
+        final Timer[] requests = new Timer[OUTCOMES.length];
+        final DistributionSummary requestBytes;
+        final DistributionSummary responseBytes;
+        final Timer serverTook;
+        final Timer overhead;
+
+        private OperationMeters(MeterRegistry registry, String operation, double[] percentiles) {
+            this.operation = operation;
+            this.hasTook = "search".equals(operation) || "scroll".equals(operation)
+                    || "msearch".equals(operation) || "bulk".equals(operation);
+            for (int i = 0; i < OUTCOMES.length; i++) {
+                requests[i] = Timer.builder("es.client.requests")
+                        .description("es请求客户端耗时")
+                        .tag("operation", operation)
+                        .tag("outcome", OUTCOMES[i])
+                        .publishPercentiles(percentiles)
+                        .publishPercentileHistogram()
+                        .register(registry);
+            }
+            requestBytes = DistributionSummary.builder("es.client.request.bytes")
+                    .baseUnit("bytes")
+                    .tag("operation", operation)
+                    .register(registry);
+            responseBytes = DistributionSummary.builder("es.client.response.bytes")
+                    .baseUnit("bytes")
+                    .tag("operation", operation)
+                    .register(registry);
+            serverTook = Timer.builder("es.client.server.took")
+                    .description("响应里的took")
+                    .tag("operation", operation)
+                    .publishPercentiles(percentiles)
+                    .register(registry);
+            overhead = Timer.builder("es.client.overhead")
+                    .description("客户端耗时减去服务端took,即网络、排队和编解码的耗时")
+                    .tag("operation", operation)
+                    .publishPercentiles(percentiles)
+                    .register(registry);
+        }
+
+        static int outcome(int status) {
+            if (status >= 500) {
+                return SERVER_ERROR;
+            }
+            return status >= 400 ? CLIENT_ERROR : SUCCESS;
+        }
+    }
+
+    /**
+     * 一次请求的计量状态，除了 cancel 都在 io 线程上按顺序访问
+     */
+    private final class MetricsExchange implements Exchange {
+
+        private final long startNanos = System.nanoTime();
+        private OperationMeters operation;
+        private long requestBytes;
+        private long responseBytes;
+        private int status;
+        /**
+         * 匹配到 TOOK_PREFIX 的位置，匹配完后解析数字，-1 表示不再解析
+         */
+        private int tookMatched = -1;
+        private long took = -1;
+        private boolean recorded;
+
+        @Override
+        public void requestGenerated(HttpRequest request) {
+            if (operation == null) {
+                connectionAcquire.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+            operation = meters.get(operation(request.getRequestLine().getMethod(), request.getRequestLine().getUri()));
+        }
+
+        @Override
+        public void requestContent(ByteBuffer buffer, int from, int to) {
+            requestBytes += to - from;
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) {
+            status = response.getStatusLine().getStatusCode();
+            if (operation != null && operation.hasTook && !response.containsHeader("Content-Encoding")) {
+                tookMatched = 0;
+            }
+        }
+
+        /**
+         * took 直接从读进缓冲区的前几个字节里解析，数字可能被拆在两次 read 里
+         */
+        @Override
+        public void responseContent(ByteBuffer buffer, int from, int to) {
+            responseBytes += to - from;
+            for (int i = from; i < to && tookMatched >= 0; i++) {
+                byte b = buffer.get(i);
+                if (tookMatched < TOOK_PREFIX.length) {
+                    tookMatched = b == TOOK_PREFIX[tookMatched] ? tookMatched + 1 : -1;
+                } else if (b >= '0' && b <= '9') {
+                    took = (took < 0 ? 0 : took * 10) + (b - '0');
+                } else {
+                    tookMatched = -1;
+                }
+            }
+        }
+
+        @Override
+        public void completed() {
+            record(OperationMeters.outcome(status));
+        }
+
+        @Override
+        public void failed(boolean cancelled) {
+            record(cancelled ? OperationMeters.CANCELLED : OperationMeters.ERROR);
+        }
+
+        private synchronized void record(int outcome) {
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            long elapsedNanos = System.nanoTime() - startNanos;
+            OperationMeters m = operation == null ? meters.get(UNKNOWN) : operation;
+            m.requests[outcome].record(elapsedNanos, TimeUnit.NANOSECONDS);
+            m.requestBytes.record(requestBytes);
+            m.responseBytes.record(responseBytes);
+            if (took >= 0) {
+                m.serverTook.record(took, TimeUnit.MILLISECONDS);
+                long overheadNanos = elapsedNanos - TimeUnit.MILLISECONDS.toNanos(took);
+                if (overheadNanos > 0) {
+                    m.overhead.record(overheadNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.elk.metrics;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 观察 RestClient 底层的每一次 http 交换，由 {@link InstrumentedHttpAsyncClient} 回调
+ * <p>
+ * 回调都在 io 线程上执行，不能阻塞；传进来的 ByteBuffer 是客户端自己的缓冲区，只能按绝对位置读，不能改 position
+ */
+interface HttpExchangeObserver {
+
+    /**
+     * 发起请求时调用，target 是这次请求选中的节点；返回 null 表示不观察这次请求，不会为它套任何包装
+     */
+    Exchange start(HttpHost target);
+
+    interface Exchange {
+
+        /**
+         * 拿到连接、即将发送请求头
+         */
+        void requestGenerated(HttpRequest request);
+
+        /**
+         * 请求体写出了 buffer 中 [from, to) 这一段
+         */
+        default void requestContent(ByteBuffer buffer, int from, int to) {
+        }
+
+        void responseReceived(HttpResponse response);
+
+        /**
+         * 响应体读进了 buffer 中 [from, to) 这一段
+         */
+        default void responseContent(ByteBuffer buffer, int from, int to) {
+        }
+
+        void completed();
+
+        /**
+         * 没有拿到完整响应，cancelled 表示是调用方取消的；可能和 completed 或者重复调用，实现要自己去重
+         */
+        void failed(boolean cancelled);
+    }
+}
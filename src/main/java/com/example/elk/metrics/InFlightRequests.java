@@ -0,0 +1,88 @@
+package com.example.elk.metrics;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 统计还没结束的 es 请求数，关闭客户端前等它们做完
+ */
+@Component
+public class InFlightRequests implements HttpExchangeObserver {
+
+    private final Object lock = new Object();
+    private int inFlight;
+
+    public HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder builder) {
+        return InstrumentedHttpAsyncClient.wrap(builder, this);
+    }
+
+    @Override
+    public Exchange start(HttpHost target) {
+        synchronized (lock) {
+            inFlight++;
+        }
+        return new CountingExchange();
+    }
+
+    public int get() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    /**
+     * @return 超时前所有请求都结束了返回 true
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (inFlight > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    private void finish() {
+        synchronized (lock) {
+            if (--inFlight == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private final class CountingExchange implements Exchange {
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        @Override
+        public void requestGenerated(HttpRequest request) {
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) {
+        }
+
+        @Override
+        public void completed() {
+            if (finished.compareAndSet(false, true)) {
+                finish();
+            }
+        }
+
+        @Override
+        public void failed(boolean cancelled) {
+            completed();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.elk.metrics;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Future;
+
+/**
+ * 包装 RestClient 底层的异步 http 客户端，给需要观察的请求的 producer/consumer 套一层，把事件转给 {@link HttpExchangeObserver}
+ * <p>
+ * 请求体在 ContentEncoder 上看，响应体在 ContentDecoder 上看，都是线路上的字节（开了压缩就是压缩后的），不复制缓冲区。
+ */
+final class InstrumentedHttpAsyncClient extends CloseableHttpAsyncClient {
+
+    private final CloseableHttpAsyncClient delegate;
+    private final HttpExchangeObserver observer;
+
+    private InstrumentedHttpAsyncClient(CloseableHttpAsyncClient delegate, HttpExchangeObserver observer) {
+        this.delegate = delegate;
+        this.observer = observer;
+    }
+
+    /**
+     * 返回的 builder 构造出的客户端会把每个请求交给 observer，可以多层嵌套
+     */
+    static HttpAsyncClientBuilder wrap(HttpAsyncClientBuilder builder, HttpExchangeObserver observer) {
+        return new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new InstrumentedHttpAsyncClient(builder.build(), observer);
+            }
+        };
+    }
+
+    @Override
+    public boolean isRunning() {
+        return delegate.isRunning();
+    }
+
+    @Override
+    public void start() {
+        delegate.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context, FutureCallback<T> callback) {
+        HttpExchangeObserver.Exchange exchange = observer.start(requestProducer.getTarget());
+        if (exchange == null) {
+            return delegate.execute(requestProducer, responseConsumer, context, callback);
+        }
+        try {
+            return delegate.execute(new Producer(requestProducer, exchange), new Consumer<>(responseConsumer, exchange), context, callback);
+        } catch (RuntimeException | Error e) {
+            //比如客户端已经关闭，同步抛出时不会再有回调，在途数之类的统计要在这里结束
+            exchange.failed(false);
+            throw e;
+        }
+    }
+
+    private static final class Producer implements HttpAsyncRequestProducer, ContentEncoder {
+
+        private final HttpAsyncRequestProducer delegate;
+        private final HttpExchangeObserver.Exchange exchange;
+        private ContentEncoder encoder;
+
+        private Producer(HttpAsyncRequestProducer delegate, HttpExchangeObserver.Exchange exchange) {
+            this.delegate = delegate;
+            this.exchange = exchange;
+        }
+
+        @Override
+        public HttpHost getTarget() {
+            return delegate.getTarget();
+        }
+
+        @Override
+        public HttpRequest generateRequest() throws IOException, HttpException {
+            HttpRequest request = delegate.generateRequest();
+            exchange.requestGenerated(request);
+            return request;
+        }
+
+        @Override
+        public void produceContent(ContentEncoder encoder, IOControl ioControl) throws IOException {
+            this.encoder = encoder;
+            delegate.produceContent(this, ioControl);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int from = src.position();
+            int n = encoder.write(src);
+            if (n > 0) {
+                exchange.requestContent(src, from, from + n);
+            }
+            return n;
+        }
+
+        @Override
+        public void complete() throws IOException {
+            encoder.complete();
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return encoder.isCompleted();
+        }
+
+        @Override
+        public void requestCompleted(HttpContext context) {
+            delegate.requestCompleted(context);
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            delegate.failed(ex);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return delegate.isRepeatable();
+        }
+
+        @Override
+        public void resetRequest() throws IOException {
+            delegate.resetRequest();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class Consumer<T> implements HttpAsyncResponseConsumer<T>, ContentDecoder {
+
+        private final HttpAsyncResponseConsumer<T> delegate;
+        private final HttpExchangeObserver.Exchange exchange;
+        private ContentDecoder decoder;
+
+        private Consumer(HttpAsyncResponseConsumer<T> delegate, HttpExchangeObserver.Exchange exchange) {
+            this.delegate = delegate;
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) throws IOException, HttpException {
+            exchange.responseReceived(response);
+            delegate.responseReceived(response);
+        }
+
+        @Override
+        public void consumeContent(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            this.decoder = decoder;
+            delegate.consumeContent(this, ioControl);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = decoder.read(dst);
+            if (n > 0) {
+                exchange.responseContent(dst, dst.position() - n, dst.position());
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isCompleted() {
+            return decoder.isCompleted();
+        }
+
+        @Override
+        public void responseCompleted(HttpContext context) {
+            delegate.responseCompleted(context);
+            exchange.completed();
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            delegate.failed(ex);
+            exchange.failed(false);
+        }
+
+        @Override
+        public Exception getException() {
+            return delegate.getException();
+        }
+
+        @Override
+        public T getResult() {
+            return delegate.getResult();
+        }
+
+        @Override
+        public boolean isDone() {
+            return delegate.isDone();
+        }
+
+        @Override
+        public boolean cancel() {
+            boolean cancelled = delegate.cancel();
+            exchange.failed(true);
+            return cancelled;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.elk.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.common.unit.TimeValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按节点的响应耗时选节点，替代 RestClient 默认的轮询
+ * <p>
+ * 每个节点记录耗时的指数加权平均（EWMA）和在途请求数，得分 = EWMA × (在途数 + 1)。
+ * NodeSelector 只能从候选里删节点，不能排序，所以只留下得分不超过最好节点 tolerance 倍的那些，RestClient 在它们之间轮询、失败时互为备份。
+ * 还没有样本的节点得分为 0，会优先拿到一个试探请求，新加入的节点很快就有数据。
+ * <p>
+ * EWMA 超过最快节点的 eject-factor 倍、且绝对值超过 eject-min 的节点（比如正在长时间 GC）被摘掉 eject-period，
+ * 到期后清空它的统计重新试探。节点全被摘掉时不过滤，交给 RestClient 自己的失败节点处理。
+ * <p>
+ * 失败的请求（连接被拒绝这类往往很快）按 failure-penalty 记样本，默认等于 socket 超时，不会把 EWMA 拉低；
+ * 最近一次请求失败的节点也不参与最快节点的比较，免得健康的节点因为和它比而被摘掉。5xx 和 429 响应同样按失败记。
+ * <p>
+ * 只有搜索和按 id 取文档的请求记样本，bulk、滚动、_tasks、forcemerge 这类请求本身就慢，只计在途数；
+ * 还没发出请求就失败的（比如连接被拒绝）和操作无关，照样按失败记。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "es.routing.latency-aware", havingValue = "true", matchIfMissing = true)
+public class LatencyAwareNodeSelector implements NodeSelector, HttpExchangeObserver {
+
+    private final double alpha;
+    private final double tolerance;
+    private final double ejectFactor;
+    private final long ejectMinNanos;
+    private final long ejectPeriodNanos;
+    private final long failurePenaltyNanos;
+
+    private final Map<HttpHost, NodeStats> stats = new ConcurrentHashMap<>();
+
+    public LatencyAwareNodeSelector(@Value("${es.routing.ewma-alpha:0.2}") double alpha,
+                                    @Value("${es.routing.tolerance:1.5}") double tolerance,
+                                    @Value("${es.routing.eject-factor:3}") double ejectFactor,
+                                    @Value("${es.routing.eject-min:50ms}") String ejectMin,
+                                    @Value("${es.routing.eject-period:30s}") String ejectPeriod,
+                                    @Value("${es.routing.failure-penalty:${es.timeout.socket-ms:30000}ms}") String failurePenalty) {
+        this.alpha = alpha;
+        this.tolerance = tolerance;
+        this.ejectFactor = ejectFactor;
+        this.ejectMinNanos = TimeValue.parseTimeValue(ejectMin, "es.routing.eject-min").nanos();
+        this.ejectPeriodNanos = TimeValue.parseTimeValue(ejectPeriod, "es.routing.eject-period").nanos();
+        this.failurePenaltyNanos = TimeValue.parseTimeValue(failurePenalty, "es.routing.failure-penalty").nanos();
+    }
+
+    public HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder builder) {
+        return InstrumentedHttpAsyncClient.wrap(builder, this);
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        long now = System.nanoTime();
+        double best = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            NodeStats candidate = stats(node.getHost());
+            if (!candidate.isEjected(now)) {
+                best = Math.min(best, candidate.score());
+            }
+        }
+        //没有可选的节点时不过滤
+        if (best == Double.MAX_VALUE) {
+            return;
+        }
+        double limit = best * tolerance;
+        for (Iterator<Node> it = nodes.iterator(); it.hasNext(); ) {
+            NodeStats nodeStats = stats(it.next().getHost());
+            if (nodeStats.isEjected(now) || nodeStats.score() > limit) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public Exchange start(HttpHost target) {
+        return target == null ? null : new TimedExchange(stats(target));
+    }
+
+    /**
+     * 节点当前的 EWMA 耗时，单位纳秒，没有样本时是 0
+     */
+    public double ewmaNanos(HttpHost host) {
+        return stats(host).ewma;
+    }
+
+    public int inFlight(HttpHost host) {
+        return stats(host).inFlight.get();
+    }
+
+    public boolean isEjected(HttpHost host) {
+        return stats(host).isEjected(System.nanoTime());
+    }
+
+    /**
+     * 搜索、msearch、mget 和 GET/HEAD 单个文档的耗时能代表节点快慢，其他请求不记样本
+     */
+    static boolean isLatencySample(HttpRequest request) {
+        String uri = request.getRequestLine().getUri();
+        int query = uri.indexOf('?');
+        String[] segments = (query < 0 ? uri : uri.substring(0, query)).split("/");
+        String last = segments[segments.length - 1];
+        if ("_search".equals(last) || "_msearch".equals(last) || "_mget".equals(last)) {
+            return true;
+        }
+        String method = request.getRequestLine().getMethod();
+        return segments.length >= 2 && ("_doc".equals(segments[segments.length - 2]) || "_source".equals(segments[segments.length - 2]))
+                && ("GET".equals(method) || "HEAD".equals(method));
+    }
+
+    private NodeStats stats(HttpHost host) {
+        return stats.computeIfAbsent(host, NodeStats::new);
+    }
+
+    /**
+     * 记一个样本，再拿没被摘掉的节点和其中最快的比，慢太多的摘掉；被比较的节点不一定是刚记样本的这个
+     */
+    private void record(NodeStats node, long elapsedNanos, boolean failed) {
+        node.update(failed ? Math.max(elapsedNanos, failurePenaltyNanos) : elapsedNanos, alpha);
+        node.failing = failed;
+        long now = System.nanoTime();
+        double fastest = Double.MAX_VALUE;
+        for (NodeStats candidate : stats.values()) {
+            if (candidate.ewma > 0 && !candidate.failing && !candidate.isEjected(now)) {
+                fastest = Math.min(fastest, candidate.ewma);
+            }
+        }
+        if (fastest == Double.MAX_VALUE) {
+            return;
+        }
+        for (NodeStats candidate : stats.values()) {
+            double ewma = candidate.ewma;
+            if (ewma >= ejectMinNanos && ewma > fastest * ejectFactor && !candidate.isEjected(now)
+                    && candidate.eject(now + ejectPeriodNanos)) {
+                log.warn("es节点{}响应过慢,EWMA {}ms,最快节点{}ms,摘除{}ms", candidate.host,
+                        (long) ewma / 1_000_000, (long) fastest / 1_000_000, ejectPeriodNanos / 1_000_000);
+            }
+        }
+    }
+
+    private static final class NodeStats {
+
+        private final HttpHost host;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double ewma;
+        /**
+         * 最近一次请求是否失败，失败的节点不当作最快节点的基准
+         */
+        private volatile boolean failing;
+        /**
+         * 摘除到期的时间，0 表示没有被摘除
+         */
+        private volatile long ejectedUntil;
+
+        private NodeStats(HttpHost host) {
+            this.host = host;
+        }
+
+        /**
+         * 没有样本的节点同一时间只放一个试探请求过去，试探还没回来之前不参与选择
+         */
+        private double score() {
+            double current = ewma;
+            int pending = inFlight.get();
+            if (current == 0) {
+                return pending == 0 ? 0 : Double.MAX_VALUE;
+            }
+            return current * (pending + 1);
+        }
+
+        /**
+         * 摘除到期后清空统计，下一次选节点时它的得分是 0，会先被试探一次
+         */
+        private boolean isEjected(long now) {
+            long until = ejectedUntil;
+            if (until == 0) {
+                return false;
+            }
+            if (now - until < 0) {
+                return true;
+            }
+            synchronized (this) {
+                if (ejectedUntil == until) {
+                    ejectedUntil = 0;
+                    ewma = 0;
+                    failing = false;
+                }
+            }
+            return false;
+        }
+
+        private synchronized boolean eject(long until) {
+            if (ejectedUntil != 0) {
+                return false;
+            }
+            ejectedUntil = until;
+            return true;
+        }
+
+        private synchronized void update(long elapsedNanos, double alpha) {
+            double current = ewma;
+            ewma = current == 0 ? elapsedNanos : current + alpha * (elapsedNanos - current);
+        }
+    }
+
+    private final class TimedExchange implements Exchange {
+
+        private final NodeStats node;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        /**
+         * 请求发出之前失败的也要记，所以默认记样本
+         */
+        private volatile boolean sampled = true;
+        private volatile boolean errorStatus;
+
+        private TimedExchange(NodeStats node) {
+            this.node = node;
+            node.inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void requestGenerated(HttpRequest request) {
+            sampled = isLatencySample(request);
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) {
+            int status = response.getStatusLine().getStatusCode();
+            errorStatus = status >= 500 || status == 429;
+        }
+
+        @Override
+        public void completed() {
+            finish(errorStatus, false);
+        }
+
+        /**
+         * 被取消的请求（比如对冲请求输掉了）不算样本；其他失败至少按 failure-penalty 记，失败的节点会因此被降权
+         */
+        @Override
+        public void failed(boolean cancelled) {
+            finish(true, cancelled);
+        }
+
+        private void finish(boolean failed, boolean cancelled) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            node.inFlight.decrementAndGet();
+            if (!cancelled && sampled) {
+                record(node, System.nanoTime() - start, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.elk.metrics;
+
+import jakarta.annotation.PreDestroy;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * 按比例抽样记录 es 请求和响应的原始报文，可以在生产环境常开
+ * <p>
+ * 没抽中的请求只多一次随机数，不套任何包装；抽中的请求在 io 线程上只把请求体、响应体的前 maxBody 个字节拷出来，
+ * 放进定长的环形队列就返回。转成字符串、拼日志都在后台线程里做，队列满了直接丢弃并计数，不会拖慢请求。
+ * 默认写到名为 es.trace 的 logger，INFO 级别关掉时不抽样。
+ * <p>
+ * es.trace.sample-rate 大于 0 时才启用。
+ */
+@Component
+@ConditionalOnExpression("${es.trace.sample-rate:0} > 0")
+public class RequestTracer implements HttpExchangeObserver {
+
+    private static final Logger TRACE_LOG = LoggerFactory.getLogger("es.trace");
+
+    /**
+     * {@link #lazy(ToXContent)} 截断的字符数，和 RequestTracer 的配置无关
+     */
+    private static final int LAZY_MAX_CHARS = 2048;
+
+    private final double sampleRate;
+    private final int maxBodyBytes;
+    private final BlockingQueue<Trace> ring;
+    private final Consumer<Trace> sink;
+    private final BooleanSupplier sinkEnabled;
+    private final Thread writer;
+
+    private final AtomicLong traced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Autowired
+    public RequestTracer(@Value("${es.trace.sample-rate:0}") double sampleRate,
+                         @Value("${es.trace.max-body:2kb}") String maxBody,
+                         @Value("${es.trace.buffer-size:1024}") int bufferSize) {
+        this(sampleRate, (int) ByteSizeValue.parseBytesSizeValue(maxBody, "es.trace.max-body").getBytes(), bufferSize,
+                trace -> TRACE_LOG.info("{}", trace), TRACE_LOG::isInfoEnabled);
+    }
+
+    RequestTracer(double sampleRate, int maxBodyBytes, int bufferSize, Consumer<Trace> sink, BooleanSupplier sinkEnabled) {
+        this.sampleRate = sampleRate;
+        this.maxBodyBytes = maxBodyBytes;
+        this.ring = new ArrayBlockingQueue<>(bufferSize);
+        this.sink = sink;
+        this.sinkEnabled = sinkEnabled;
+        this.writer = new Thread(this::drain, "es-trace-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public HttpAsyncClientBuilder instrument(HttpAsyncClientBuilder builder) {
+        return InstrumentedHttpAsyncClient.wrap(builder, this);
+    }
+
+    @Override
+    public Exchange start(HttpHost target) {
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return null;
+        }
+        return sinkEnabled.getAsBoolean() ? new TraceExchange() : null;
+    }
+
+    public long getTraced() {
+        return traced.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @PreDestroy
+    public void close() {
+        writer.interrupt();
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Trace trace = ring.take();
+                try {
+                    sink.accept(trace);
+                } catch (RuntimeException e) {
+                    TRACE_LOG.warn("请求跟踪写出失败", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 打日志时用，只有日志真的要输出、调用 toString 的时候才渲染成 json，超过 2048 个字符截断
+     * <pre>log.debug("查询条件:{}", RequestTracer.lazy(request.source()));</pre>
+     */
+    public static Object lazy(ToXContent content) {
+        return lazy(content, LAZY_MAX_CHARS);
+    }
+
+    /**
+     * @param maxChars 截断的字符数，不是字节数
+     */
+    public static Object lazy(ToXContent content, int maxChars) {
+        return new Object() {
+            @Override
+            public String toString() {
+                if (content == null) {
+                    return "null";
+                }
+                String json = Strings.toString(content);
+                return json.length() <= maxChars ? json : json.substring(0, maxChars) + "...(" + json.length() + "字符)";
+            }
+        };
+    }
+
+    /**
+     * 一次抽中的请求，交给 sink 时已经完成
+     */
+    public static final class Trace {
+
+        private String method;
+        private String uri;
+        private int status;
+        private long elapsedNanos;
+        private boolean cancelled;
+        private boolean requestGzip;
+        private boolean gzip;
+        private final Body request = new Body();
+        private final Body response = new Body();
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * 没收到响应时是 0
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        public long getElapsed(TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public String getRequestBody() {
+            return requestGzip ? "[gzip " + request.total + "字节]" : request.toString();
+        }
+
+        public long getRequestBytes() {
+            return request.total;
+        }
+
+        public String getResponseBody() {
+            return gzip ? "[gzip " + response.total + "字节]" : response.toString();
+        }
+
+        public long getResponseBytes() {
+            return response.total;
+        }
+
+        @Override
+        public String toString() {
+            return method + ' ' + uri + ' ' + (status == 0 ? (cancelled ? "cancelled" : "failed") : String.valueOf(status))
+                    + ' ' + getElapsed(TimeUnit.MILLISECONDS) + "ms\n> " + getRequestBody() + "\n< " + getResponseBody();
+        }
+    }
+
+    private static final class Body {
+
+        private byte[] bytes;
+        private int length;
+        private long total;
+
+        private void append(ByteBuffer buffer, int from, int to, int max) {
+            total += to - from;
+            int n = Math.min(to - from, max - length);
+            if (n <= 0) {
+                return;
+            }
+            if (bytes == null) {
+                bytes = new byte[max];
+            }
+            buffer.get(from, bytes, length, n);
+            length += n;
+        }
+
+        @Override
+        public String toString() {
+            if (total == 0) {
+                return "";
+            }
+            //max-body 为 0 时一个字节都没拷，只有总长度
+            if (bytes == null) {
+                return "...(共" + total + "字节)";
+            }
+            String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            return total > length ? text + "...(共" + total + "字节)" : text;
+        }
+    }
+
+    private final class TraceExchange implements Exchange {
+
+        private final long startNanos = System.nanoTime();
+        private final Trace trace = new Trace();
+        private boolean finished;
+
+        @Override
+        public void requestGenerated(HttpRequest request) {
+            trace.method = request.getRequestLine().getMethod();
+            trace.uri = request.getRequestLine().getUri();
+            trace.requestGzip = request.containsHeader("Content-Encoding");
+        }
+
+        @Override
+        public void requestContent(ByteBuffer buffer, int from, int to) {
+            trace.request.append(buffer, from, to, maxBodyBytes);
+        }
+
+        @Override
+        public void responseReceived(HttpResponse response) {
+            trace.status = response.getStatusLine().getStatusCode();
+            trace.gzip = response.containsHeader("Content-Encoding");
+        }
+
+        @Override
+        public void responseContent(ByteBuffer buffer, int from, int to) {
+            trace.response.append(buffer, from, to, maxBodyBytes);
+        }
+
+        @Override
+        public void completed() {
+            finish(false);
+        }
+
+        @Override
+        public void failed(boolean cancelled) {
+            finish(cancelled);
+        }
+
+        private synchronized void finish(boolean cancelled) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            trace.elapsedNanos = System.nanoTime() - startNanos;
+            trace.cancelled = cancelled;
+            if (ring.offer(trace)) {
+                traced.incrementAndGet();
+            } else {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+}
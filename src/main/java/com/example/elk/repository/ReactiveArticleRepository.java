@@ -0,0 +1,282 @@
+package com.example.elk.repository;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.codec.ArticleHitMapper;
+import com.example.elk.codec.ArticleWriter;
+import com.example.elk.service.IndexWriteListener;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * 基于 xxxAsync 接口的响应式仓库，所有方法都不阻塞调用线程，适合放在 WebFlux 这类少量事件循环线程的前端后面
+ * <p>
+ * 返回的 Mono/Flux 是冷的，订阅时才发请求；取消订阅会调用 {@link Cancellable#cancel()}，直接中断在途的 http 请求。
+ * <p>
+ * 配置了 searchGuard 时 search 和 stream 的每一页都经过它，和 ArticleService 的查询共用名额，被拒绝时以
+ * {@link ClusterGuard.RejectedException} 结束；按 id 读和写入不经过它。
+ */
+@Slf4j
+@Repository
+public class ReactiveArticleRepository {
+
+    private final RestHighLevelClient client;
+    private final String index;
+    private final int pageSize;
+    private ClusterGuard searchGuard;
+
+    private final List<IndexWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    public ReactiveArticleRepository(RestHighLevelClient client,
+                                     @Value("${es.index:article_index}") String index,
+                                     @Value("${es.reactive.page-size:500}") int pageSize) {
+        this.client = client;
+        this.index = index;
+        this.pageSize = pageSize;
+    }
+
+    @Autowired(required = false)
+    public void setSearchGuard(@Qualifier("searchGuard") ClusterGuard searchGuard) {
+        this.searchGuard = searchGuard;
+    }
+
+    @Autowired(required = false)
+    public void setWriteListeners(List<IndexWriteListener> listeners) {
+        writeListeners.addAll(listeners);
+    }
+
+    /**
+     * 文档不存在时是空的 Mono
+     */
+    public Mono<Article> findById(long id) {
+        GetRequest request = new GetRequest(index, String.valueOf(id));
+        return execute((ActionListener<GetResponse> listener) ->
+                client.getAsync(request, RequestOptions.DEFAULT, listener))
+                .filter(GetResponse::isExists)
+                .mapNotNull(ArticleHitMapper.ALL::map);
+    }
+
+    public Mono<IndexResponse> save(Article article) {
+        IndexRequest request = indexRequest(article);
+        return execute((ActionListener<IndexResponse> listener) -> client.indexAsync(request, RequestOptions.DEFAULT, listener))
+                .doFinally(signal -> notifyWritten(List.of(request)));
+    }
+
+    public Mono<DeleteResponse> deleteById(long id) {
+        DeleteRequest request = new DeleteRequest(index, String.valueOf(id));
+        return execute((ActionListener<DeleteResponse> listener) -> client.deleteAsync(request, RequestOptions.DEFAULT, listener))
+                .doFinally(signal -> notifyWritten(List.of(request)));
+    }
+
+    /**
+     * 按 batchSize 条攒一个 bulk，同一时刻只有一个 bulk 在途，上游按 bulk 的完成速度拉取数据
+     */
+    public Flux<BulkResponse> saveAll(Publisher<Article> articles, int batchSize) {
+        return Flux.from(articles)
+                .buffer(batchSize)
+                .concatMap(batch -> {
+                    BulkRequest request = new BulkRequest();
+                    batch.forEach(article -> request.add(indexRequest(article)));
+                    return execute((ActionListener<BulkResponse> listener) -> client.bulkAsync(request, RequestOptions.DEFAULT, listener))
+                            .doFinally(signal -> notifyWritten(request.requests()));
+                }, 1);
+    }
+
+    /**
+     * 只查一页，size、from、排序、_source 过滤都由 source 决定
+     */
+    public Flux<Article> search(SearchSourceBuilder source) {
+        ArticleHitMapper mapper = ArticleHitMapper.of(source);
+        SearchRequest request = new SearchRequest(index).source(source);
+        return Mono.<SearchResponse>create(sink -> {
+            Runnable cancel = search(request, ActionListener.wrap(sink::success, e -> {
+                if (!(e instanceof CancellationException)) {
+                    sink.error(e);
+                }
+            }));
+            sink.onCancel(cancel::run);
+        }).flatMapIterable(mapper::toList);
+    }
+
+    /**
+     * 按 id 升序用 search_after 逐页拉取所有命中的文档
+     * <p>
+     * 只有下游还有未满足的需求时才去拉下一页，同一时刻最多一个请求在途，下游消费慢时不会堆积数据
+     */
+    public Flux<Article> stream(QueryBuilder query) {
+        return stream(query, pageSize);
+    }
+
+    public Flux<Article> stream(QueryBuilder query, int pageSize) {
+        return Flux.create(sink -> new PageFetcher(sink, query, pageSize).request());
+    }
+
+    private IndexRequest indexRequest(Article article) {
+        return new IndexRequest(index)
+                .id(String.valueOf(article.getId()))
+                .source(ArticleWriter.toBytesReference(article), XContentType.JSON);
+    }
+
+    private void notifyWritten(List<DocWriteRequest<?>> requests) {
+        for (IndexWriteListener listener : writeListeners) {
+            try {
+                listener.afterWrite(requests);
+            } catch (RuntimeException e) {
+                log.warn("写入回调{}执行失败", listener, e);
+            }
+        }
+    }
+
+    /**
+     * 把 xxxAsync 调用包装成 Mono，取消订阅时中断请求，中断引起的 CancellationException 不再往下传
+     */
+    static <T> Mono<T> execute(Function<ActionListener<T>, Cancellable> call) {
+        return Mono.create(sink -> {
+            Cancellable cancellable = call.apply(ActionListener.wrap(sink::success, e -> {
+                if (!(e instanceof CancellationException)) {
+                    sink.error(e);
+                }
+            }));
+            sink.onCancel(cancellable::cancel);
+        });
+    }
+
+    /**
+     * 配置了 searchGuard 时先经过它，被拒绝时 listener 收到 {@link ClusterGuard.RejectedException}
+     *
+     * @return 中断在途请求
+     */
+    private Runnable search(SearchRequest request, ActionListener<SearchResponse> listener) {
+        ClusterGuard guard = searchGuard;
+        if (guard == null) {
+            return client.searchAsync(request, RequestOptions.DEFAULT, listener)::cancel;
+        }
+        AtomicReference<Cancellable> inFlight = new AtomicReference<>();
+        guard.execute(() -> {
+            CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+            inFlight.set(client.searchAsync(request, RequestOptions.DEFAULT,
+                    ActionListener.wrap(future::complete, future::completeExceptionally)));
+            return future;
+        }).whenComplete((response, e) -> {
+            if (e == null) {
+                listener.onResponse(response);
+            } else {
+                listener.onFailure(e instanceof Exception ? (Exception) e : new CompletionException(e));
+            }
+        });
+        return () -> {
+            Cancellable cancellable = inFlight.get();
+            if (cancellable != null) {
+                cancellable.cancel();
+            }
+        };
+    }
+
+    private class PageFetcher {
+
+        private final FluxSink<Article> sink;
+        private final QueryBuilder query;
+        private final int size;
+
+        private Object[] searchAfter;
+        private Runnable inFlight;
+        private boolean fetching;
+        private boolean done;
+
+        private PageFetcher(FluxSink<Article> sink, QueryBuilder query, int size) {
+            this.sink = sink;
+            this.query = query;
+            this.size = size;
+            sink.onRequest(n -> request());
+            sink.onCancel(this::cancel);
+        }
+
+        private synchronized void request() {
+            if (fetching || done || sink.isCancelled() || sink.requestedFromDownstream() == 0) {
+                return;
+            }
+            fetching = true;
+            SearchSourceBuilder source = new SearchSourceBuilder()
+                    .query(query)
+                    .size(size)
+                    .sort("id", SortOrder.ASC)
+                    .trackTotalHits(false);
+            if (searchAfter != null) {
+                source.searchAfter(searchAfter);
+            }
+            inFlight = search(new SearchRequest(index).source(source), ActionListener.wrap(this::onPage, this::onFailure));
+        }
+
+        private void onPage(SearchResponse response) {
+            SearchHit[] hits = response.getHits().getHits();
+            synchronized (this) {
+                fetching = false;
+                inFlight = null;
+                if (hits.length > 0) {
+                    searchAfter = hits[hits.length - 1].getSortValues();
+                }
+                done = hits.length < size;
+            }
+            //一页里超出下游需求的部分由 sink 缓存，最多一页
+            ArticleHitMapper.ALL.iterator(response).forEachRemaining(sink::next);
+            if (done) {
+                sink.complete();
+            } else {
+                request();
+            }
+        }
+
+        private void onFailure(Exception e) {
+            synchronized (this) {
+                fetching = false;
+                inFlight = null;
+                done = true;
+            }
+            if (!(e instanceof CancellationException)) {
+                sink.error(e);
+            }
+        }
+
+        private synchronized void cancel() {
+            done = true;
+            if (inFlight != null) {
+                inFlight.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.elk.service;
+
+import com.example.elk.bean.Bucket;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.client.CoalescingClient;
+import com.example.elk.codec.Facet;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregation;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeValuesSourceBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.TermsValuesSourceBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 统计和分面，由 es 在服务端聚合，不再把 hit 拉回来在客户端计数
+ * <p>
+ * 所有请求都是 size=0，不取 hit，size=0 的请求还能命中分片的 request cache。
+ * 几个 {@link Facet} 放在同一个请求里一次算完。
+ * 桶很多的字段（比如按 title 统计全部取值）用 {@link #streamTerms} 走 composite 聚合按 after_key 一页一页取，
+ * 迭代器里同时只有一页的桶，内存占用和桶的总数无关。
+ * <p>
+ * 配置了 searchGuard 时分面和 composite 的每一页都经过它限流和熔断，和 ArticleService 的查询共用名额。
+ */
+@Service
+public class ArticleAggregator {
+
+    private static final String COMPOSITE = "buckets";
+
+    private final RestHighLevelClient client;
+    private final CoalescingClient coalescing;
+    private final String index;
+    private ClusterGuard searchGuard;
+
+    public ArticleAggregator(RestHighLevelClient client, CoalescingClient coalescing,
+                             @Value("${es.index:article_index}") String index) {
+        this.client = client;
+        this.coalescing = coalescing;
+        this.index = index;
+    }
+
+    @Autowired(required = false)
+    public void setSearchGuard(@Qualifier("searchGuard") ClusterGuard searchGuard) {
+        this.searchGuard = searchGuard;
+    }
+
+    /**
+     * @param query 为 null 表示全部文档
+     * @return facet 名字到桶列表，顺序和参数一致
+     */
+    public CompletableFuture<Map<String, List<Bucket>>> facets(QueryBuilder query, Facet... facets) {
+        SearchSourceBuilder source = new SearchSourceBuilder().size(0).trackTotalHits(false);
+        if (query != null) {
+            source.query(query);
+        }
+        for (Facet facet : facets) {
+            source.aggregation(facet.aggregation());
+        }
+        SearchRequest request = new SearchRequest(index).source(source);
+        return guarded(() -> {
+            try {
+                return coalescing.searchAsync(request, RequestOptions.DEFAULT);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }).thenApply(r -> {
+            Map<String, List<Bucket>> result = new LinkedHashMap<>();
+            for (Facet facet : facets) {
+                result.put(facet.getName(), facet.buckets(r.getAggregations()));
+            }
+            return result;
+        });
+    }
+
+    public CompletableFuture<List<Bucket>> terms(QueryBuilder query, String field, int size) {
+        return single(query, Facet.terms(field, field, size));
+    }
+
+    public CompletableFuture<List<Bucket>> range(QueryBuilder query, String field, double... boundaries) {
+        return single(query, Facet.range(field, field, boundaries));
+    }
+
+    public CompletableFuture<List<Bucket>> dateHistogram(QueryBuilder query, String field, String interval, String format) {
+        return single(query, Facet.dateHistogram(field, field, interval, format));
+    }
+
+    private CompletableFuture<List<Bucket>> single(QueryBuilder query, Facet facet) {
+        return facets(query, facet).thenApply(result -> result.get(facet.getName()));
+    }
+
+    private CompletableFuture<SearchResponse> guarded(Supplier<CompletableFuture<SearchResponse>> call) {
+        return searchGuard == null ? call.get() : searchGuard.execute(call);
+    }
+
+    /**
+     * field 的全部取值和文档数，按取值升序；迭代时才按需取下一页，取下一页失败时 next() 抛 {@link UncheckedIOException}，
+     * 被 searchGuard 拒绝时抛 {@link ClusterGuard.RejectedException}
+     */
+    public Iterator<Bucket> streamTerms(QueryBuilder query, String field, int pageSize) {
+        return new CompositeIterator(query, new TermsValuesSourceBuilder(field).field(field), pageSize);
+    }
+
+    private final class CompositeIterator implements Iterator<Bucket> {
+
+        private final QueryBuilder query;
+        private final CompositeValuesSourceBuilder<?> values;
+        private final int pageSize;
+
+        private Iterator<? extends CompositeAggregation.Bucket> page;
+        private Map<String, Object> afterKey;
+        private boolean last;
+
+        private CompositeIterator(QueryBuilder query, CompositeValuesSourceBuilder<?> values, int pageSize) {
+            this.query = query;
+            this.values = values;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while ((page == null || !page.hasNext()) && !last) {
+                fetch();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Bucket next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CompositeAggregation.Bucket bucket = page.next();
+            Object key = bucket.getKey().get(values.name());
+            return new Bucket(String.valueOf(key), bucket.getDocCount());
+        }
+
+        private void fetch() {
+            CompositeAggregationBuilder composite = AggregationBuilders.composite(COMPOSITE, List.of(values)).size(pageSize);
+            if (afterKey != null) {
+                composite.aggregateAfter(afterKey);
+            }
+            SearchSourceBuilder source = new SearchSourceBuilder().size(0).trackTotalHits(false).aggregation(composite);
+            if (query != null) {
+                source.query(query);
+            }
+            SearchRequest request = new SearchRequest(index).source(source);
+            SearchResponse response;
+            try {
+                response = CoalescingClient.await(guarded(() -> {
+                    CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+                    client.searchAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+                    return future;
+                }));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            CompositeAggregation aggregation = response.getAggregations() == null ? null
+                    : response.getAggregations().get(COMPOSITE);
+            if (aggregation == null) {
+                page = List.<CompositeAggregation.Bucket>of().iterator();
+                last = true;
+                return;
+            }
+            page = aggregation.getBuckets().iterator();
+            afterKey = aggregation.afterKey();
+            //after_key 为空或者不满一页说明取完了，省掉最后一次空请求
+            last = afterKey == null || aggregation.getBuckets().size() < pageSize;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.elk.service;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 用 sliced scroll 把整个索引导出成 bulk 格式的 NDJSON 文件，可选 gzip 压缩
+ * <p>
+ * 每个文档两行：{"index":{"_id":...}} 和 _source，导出的文件可以直接用 _bulk 导回任意索引，_id 不会丢。
+ * 没有 _source 的文档（mapping 里关掉了 _source）无法导出，跳过并计入 {@link Progress#getSkipped()}。
+ * <p>
+ * 每个 slice 由一个线程独立 scroll，写到 {目标文件}.parts 目录下自己的分片文件，写完落一个 .done 标记；
+ * 全部 slice 完成后按顺序用 transferTo 拼到目标文件（多段 gzip 直接拼接仍然是合法的 gzip 流）。
+ * 中途失败的话已完成的 slice 会保留，用同样的 slice 数重新导出时只跑没完成的 slice。
+ * _source 字节原样写出，不做反序列化。
+ * <p>
+ * 导出是离线任务，一次 scroll 要持续几分钟，不经过 searchGuard，免得长时间占着在线查询的并发名额；
+ * 它对集群的压力由 slice 数和 es.export.threads 控制。
+ */
+@Slf4j
+@Service
+public class ArticleExporter {
+
+    private static final byte[] NEWLINE = {'\n'};
+    private static final byte[] ACTION_PREFIX = "{\"index\":{\"_id\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACTION_SUFFIX = "\"}}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final RestHighLevelClient client;
+    private final String index;
+    private final int pageSize;
+    private final int maxThreads;
+    private final TimeValue keepAlive;
+
+    public ArticleExporter(RestHighLevelClient client,
+                           @Value("${es.index:article_index}") String index,
+                           @Value("${es.export.page-size:1000}") int pageSize,
+                           @Value("${es.export.threads:8}") int maxThreads,
+                           @Value("${es.export.keep-alive:5m}") String keepAlive) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("es.export.threads必须大于0:" + maxThreads);
+        }
+        this.client = client;
+        this.index = index;
+        this.pageSize = pageSize;
+        this.maxThreads = maxThreads;
+        this.keepAlive = TimeValue.parseTimeValue(keepAlive, "es.export.keep-alive");
+    }
+
+    public Progress export(Path target, int slices, boolean gzip) throws IOException, InterruptedException {
+        Progress progress = new Progress(slices);
+        export(target, slices, gzip, progress);
+        return progress;
+    }
+
+    /**
+     * 导出过程中可以在其他线程读取 progress 查看进度
+     */
+    public void export(Path target, int slices, boolean gzip, Progress progress) throws IOException, InterruptedException {
+        //先校验再写 manifest，免得留下一个 slice 数无效的导出进度
+        if (slices <= 0) {
+            throw new IllegalArgumentException("slice数必须大于0:" + slices);
+        }
+        Path parts = preparePartsDir(target, slices, gzip);
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(slices, maxThreads));
+        try {
+            List<Future<?>> futures = new ArrayList<>(slices);
+            for (int i = 0; i < slices; i++) {
+                int slice = i;
+                if (Files.exists(doneMarker(parts, slice))) {
+                    progress.completedSlices.incrementAndGet();
+                    continue;
+                }
+                futures.add(workers.submit(() -> {
+                    exportSlice(slice, slices, partFile(parts, slice), gzip, progress);
+                    Files.createFile(doneMarker(parts, slice));
+                    progress.completedSlices.incrementAndGet();
+                    log.info("导出slice {}/{}完成,累计{}条", slice + 1, slices, progress.getDocs());
+                    return null;
+                }));
+            }
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+            if (!failures.isEmpty()) {
+                IOException e = new IOException(failures.size() + "个slice导出失败,重新执行会从未完成的slice继续");
+                failures.forEach(e::addSuppressed);
+                throw e;
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        merge(parts, slices, target);
+        deleteRecursively(parts);
+    }
+
+    private void exportSlice(int slice, int slices, Path part, boolean gzip, Progress progress) throws IOException {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.matchAllQuery())
+                .size(pageSize)
+                .sort("_doc");
+        if (slices > 1) {
+            source.slice(new SliceBuilder(slice, slices));
+        }
+        try (FileChannel file = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             WritableByteChannel out = gzip ? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(file), 1 << 16)) : file) {
+            SearchResponse response = client.search(new SearchRequest(index).scroll(keepAlive).source(source), RequestOptions.DEFAULT);
+            String scrollId = response.getScrollId();
+            try {
+                while (response.getHits().getHits().length > 0) {
+                    for (SearchHit hit : response.getHits().getHits()) {
+                        BytesReference sourceRef = hit.getSourceRef();
+                        if (sourceRef == null) {
+                            progress.skipped.incrementAndGet();
+                            log.warn("文档{}没有_source,跳过", hit.getId());
+                            continue;
+                        }
+                        byte[] id = JsonStringEncoder.getInstance().quoteAsUTF8(hit.getId());
+                        writeFully(out, ByteBuffer.wrap(ACTION_PREFIX));
+                        writeFully(out, ByteBuffer.wrap(id));
+                        writeFully(out, ByteBuffer.wrap(ACTION_SUFFIX));
+                        BytesRef ref = sourceRef.toBytesRef();
+                        writeFully(out, ByteBuffer.wrap(ref.bytes, ref.offset, ref.length));
+                        writeFully(out, ByteBuffer.wrap(NEWLINE));
+                        progress.bytes.addAndGet(ACTION_PREFIX.length + id.length + ACTION_SUFFIX.length + ref.length + 1);
+                        progress.docs.incrementAndGet();
+                    }
+                    response = client.scroll(new SearchScrollRequest(scrollId).scroll(keepAlive), RequestOptions.DEFAULT);
+                    scrollId = response.getScrollId();
+                }
+            } finally {
+                clearScroll(scrollId);
+            }
+        }
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        ClearScrollRequest request = new ClearScrollRequest();
+        request.addScrollId(scrollId);
+        try {
+            client.clearScroll(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            //scroll 到 keep_alive 会自己过期，这里失败只记录
+            log.warn("清理scroll失败:{}", e.getMessage());
+        }
+    }
+
+    /**
+     * slice 数或压缩方式变了以后旧的分片文件不能复用，整个目录清掉重来
+     */
+    private Path preparePartsDir(Path target, int slices, boolean gzip) throws IOException {
+        Path parts = target.resolveSibling(target.getFileName() + ".parts");
+        Path manifest = parts.resolve("manifest");
+        String expected = slices + (gzip ? " gzip" : " plain");
+        if (Files.exists(manifest) && !expected.equals(Files.readString(manifest, StandardCharsets.UTF_8))) {
+            log.warn("{}的slice配置变了,丢弃之前的导出进度", parts);
+            deleteRecursively(parts);
+        }
+        Files.createDirectories(parts);
+        Files.writeString(manifest, expected, StandardCharsets.UTF_8);
+        return parts;
+    }
+
+    private void merge(Path parts, int slices, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < slices; i++) {
+                try (FileChannel in = FileChannel.open(partFile(parts, i), StandardOpenOption.READ)) {
+                    long position = 0;
+                    long size = in.size();
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static Path partFile(Path parts, int slice) {
+        return parts.resolve("slice-" + slice);
+    }
+
+    private static Path doneMarker(Path parts, int slice) {
+        return parts.resolve("slice-" + slice + ".done");
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    public static class Progress {
+
+        private final int slices;
+        private final AtomicInteger completedSlices = new AtomicInteger();
+        private final AtomicLong docs = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+
+        public Progress(int slices) {
+            this.slices = slices;
+        }
+
+        public int getSlices() {
+            return slices;
+        }
+
+        public int getCompletedSlices() {
+            return completedSlices.get();
+        }
+
+        public long getDocs() {
+            return docs.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * 没有 _source、没能导出的文档数
+         */
+        public long getSkipped() {
+            return skipped.get();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.elk.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.PutComposableIndexTemplateRequest;
+import org.elasticsearch.client.indices.PutMappingRequest;
+import org.elasticsearch.cluster.metadata.ComposableIndexTemplate;
+import org.elasticsearch.cluster.metadata.Template;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressedXContent;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 管理 Article 索引的 mapping 和 settings，启动时建好索引模板和索引
+ * <p>
+ * mapping 是固定声明的，不依赖动态映射：id 是 long，title、content 用 ik_smart 分词，各带一个 keyword 子字段用于精确匹配和聚合。
+ * 实际的索引按版本号命名（{index}_v1、{index}_v2……），应用只通过别名 {index} 读写，换 mapping 时由 {@link ArticleReindexer} 建新版本再切别名。
+ * 索引模板匹配 {index}*，手工新建的版本索引也会自动带上同样的 mapping 和 settings。
+ * <p>
+ * 大批量导入时用 {@link #beginBulkLoad(String)}：导入期间关掉 refresh、副本数设为 0，结束后 refresh、force merge，再恢复原来的设置。
+ */
+@Slf4j
+@Service
+public class ArticleIndexManager {
+
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    /**
+     * force merge 在大索引上要几分钟甚至更久，不能用客户端默认的 socket 超时：超时后 RestClient 会把它重发给其他节点，最后还是失败。
+     * 这里不设 socket 超时，一直等到合并完成
+     */
+    private static final RequestOptions FORCE_MERGE_OPTIONS = RequestOptions.DEFAULT.toBuilder()
+            .setRequestConfig(RequestConfig.custom().setSocketTimeout(0).build())
+            .build();
+
+    private final RestHighLevelClient client;
+    private final String index;
+    private final int shards;
+    private final int replicas;
+    private final String refreshInterval;
+    private final boolean createOnStartup;
+    private final int maxSegments;
+
+    public ArticleIndexManager(RestHighLevelClient client,
+                               @Value("${es.index:article_index}") String index,
+                               @Value("${es.index-manager.shards:1}") int shards,
+                               @Value("${es.index-manager.replicas:1}") int replicas,
+                               @Value("${es.index-manager.refresh-interval:1s}") String refreshInterval,
+                               @Value("${es.index-manager.create-on-startup:true}") boolean createOnStartup,
+                               @Value("${es.index-manager.bulk-load.max-segments:1}") int maxSegments) {
+        this.client = client;
+        this.index = index;
+        this.shards = shards;
+        this.replicas = replicas;
+        this.refreshInterval = refreshInterval;
+        this.createOnStartup = createOnStartup;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * 别名和同名索引都不存在时建第一个版本并挂上别名；集群连不上时只打日志，不影响应用启动
+     */
+    @PostConstruct
+    public void init() {
+        if (!createOnStartup) {
+            return;
+        }
+        try {
+            putTemplate();
+            if (!client.indices().exists(new GetIndexRequest(index), RequestOptions.DEFAULT)) {
+                String first = versionedIndex(1);
+                create(first, index);
+                log.info("索引{}不存在,已创建{}并挂上别名", index, first);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("初始化索引{}失败:{}", index, e.toString());
+        }
+    }
+
+    /**
+     * 别名，应用读写都用这个名字
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    public String versionedIndex(int version) {
+        return index + "_v" + version;
+    }
+
+    public void putTemplate() throws IOException {
+        Template template = new Template(settings(), new CompressedXContent(BytesReference.bytes(mapping())), null);
+        ComposableIndexTemplate indexTemplate = new ComposableIndexTemplate(
+                Collections.singletonList(index + "*"), template, null, null, null, null);
+        client.indices().putIndexTemplate(new PutComposableIndexTemplateRequest()
+                .name(index + "_template")
+                .indexTemplate(indexTemplate), RequestOptions.DEFAULT);
+    }
+
+    /**
+     * @return 索引原来不存在、这次新建的返回 true
+     */
+    public boolean createIfAbsent(String name) throws IOException {
+        if (client.indices().exists(new GetIndexRequest(name), RequestOptions.DEFAULT)) {
+            return false;
+        }
+        create(name);
+        return true;
+    }
+
+    public void create(String name) throws IOException {
+        client.indices().create(new CreateIndexRequest(name)
+                .settings(settings())
+                .mapping(mapping()), RequestOptions.DEFAULT);
+    }
+
+    public void create(String name, String alias) throws IOException {
+        client.indices().create(new CreateIndexRequest(name)
+                .settings(settings())
+                .mapping(mapping())
+                .alias(new Alias(alias)), RequestOptions.DEFAULT);
+    }
+
+    /**
+     * 给已有的索引补上 mapping，只能加字段，已有字段的类型和分词器改不了，要改得走 {@link ArticleReindexer}
+     */
+    public void putMapping(String name) throws IOException {
+        client.indices().putMapping(new PutMappingRequest(name).source(mapping()), RequestOptions.DEFAULT);
+    }
+
+    public Settings settings() {
+        return Settings.builder()
+                .put("index.number_of_shards", shards)
+                .put(NUMBER_OF_REPLICAS, replicas)
+                .put(REFRESH_INTERVAL, refreshInterval)
+                .build();
+    }
+
+    /**
+     * Article 的 mapping，对应 {@link com.example.elk.bean.Article} 的字段
+     */
+    public static XContentBuilder mapping() {
+        try {
+            XContentBuilder builder = XContentFactory.jsonBuilder()
+                    .startObject()
+                    .field("dynamic", false)
+                    .startObject("properties");
+            builder.startObject("id").field("type", "long").endObject();
+            textWithKeyword(builder, "title");
+            textWithKeyword(builder, "content");
+            return builder.endObject().endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void textWithKeyword(XContentBuilder builder, String field) throws IOException {
+        builder.startObject(field)
+                .field("type", "text")
+                .field("analyzer", "ik_smart")
+                .field("search_analyzer", "ik_smart")
+                .startObject("fields")
+                .startObject("keyword").field("type", "keyword").field("ignore_above", 256).endObject()
+                .endObject()
+                .endObject();
+    }
+
+    /**
+     * 进入批量导入模式，用 try-with-resources 包住导入过程；关闭前调用方要先把写入都 flush 完
+     * <p>
+     * name 可以是别名，原来的设置按别名背后的实际索引分别保存和恢复
+     */
+    public BulkLoad beginBulkLoad(String name) throws IOException {
+        GetSettingsResponse current = client.indices().getSettings(new GetSettingsRequest()
+                .indices(name)
+                .names(REFRESH_INTERVAL, NUMBER_OF_REPLICAS), RequestOptions.DEFAULT);
+        Map<String, Settings> original = new LinkedHashMap<>();
+        current.getIndexToSettings().forEach(cursor -> original.put(cursor.key, cursor.value));
+        BulkLoad bulkLoad = new BulkLoad(name, original);
+        client.indices().putSettings(new UpdateSettingsRequest(name).settings(Settings.builder()
+                .put(REFRESH_INTERVAL, "-1")
+                .put(NUMBER_OF_REPLICAS, 0)), RequestOptions.DEFAULT);
+        bulkLoad.original.forEach((concrete, settings) -> log.info(
+                "索引{}进入批量导入模式,原设置 refresh_interval={} number_of_replicas={}",
+                concrete, settings.get(REFRESH_INTERVAL), settings.get(NUMBER_OF_REPLICAS)));
+        return bulkLoad;
+    }
+
+    public final class BulkLoad implements AutoCloseable {
+
+        private final String name;
+        /**
+         * 实际索引名到原来的设置，没有显式设置的项恢复时重置成默认值
+         */
+        private final Map<String, Settings> original;
+        private boolean closed;
+
+        private BulkLoad(String name, Map<String, Settings> original) {
+            this.name = name;
+            this.original = original;
+        }
+
+        /**
+         * 先 refresh 和 force merge，这时还没有副本，合并只在主分片上做一次；再恢复 refresh 间隔和副本数，副本直接复制合并后的段
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                client.indices().refresh(new RefreshRequest(name), RequestOptions.DEFAULT);
+                if (maxSegments > 0) {
+                    client.indices().forcemerge(new ForceMergeRequest(name).maxNumSegments(maxSegments), FORCE_MERGE_OPTIONS);
+                }
+            } finally {
+                for (Map.Entry<String, Settings> entry : original.entrySet()) {
+                    client.indices().putSettings(new UpdateSettingsRequest(entry.getKey())
+                            .settings(restore(entry.getValue())), RequestOptions.DEFAULT);
+                }
+                log.info("索引{}退出批量导入模式", name);
+            }
+        }
+
+        private Settings.Builder restore(Settings settings) {
+            Settings.Builder restore = Settings.builder();
+            for (String key : new String[]{REFRESH_INTERVAL, NUMBER_OF_REPLICAS}) {
+                String value = settings.get(key);
+                if (Strings.hasText(value)) {
+                    restore.put(key, value);
+                } else {
+                    restore.putNull(key);
+                }
+            }
+            return restore;
+        }
+    }
+}
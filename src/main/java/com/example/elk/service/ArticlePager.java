@@ -0,0 +1,191 @@
+package com.example.elk.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.example.elk.bean.Article;
+import com.example.elk.bean.ArticlePage;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.client.CoalescingClient;
+import com.example.elk.codec.ArticleHitMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 基于 search_after 的游标分页，替代 from/size 深分页
+ * <p>
+ * from/size 翻到第 N 页时每个分片都要取 from+size 条再合并，越往后越慢，超过 index.max_result_window 直接报错；
+ * search_after 按上一页最后一条的排序值继续往后取，第 N 页和第 1 页开销相同。
+ * 排序固定为 id 升序，id 和文档 _id 一一对应，可以保证顺序稳定。
+ * 开启 point-in-time 时额外加 _shard_doc 作为 tiebreaker，翻页期间看到的是同一份快照，不受并发写入影响。
+ * <p>
+ * 返回给调用方的 token 是不透明的 base64 字符串，调用方翻页时原样传回，查询条件需要和第一页保持一致。
+ * <p>
+ * 配置了 searchGuard 时每一页的查询都经过它限流和熔断，被拒绝时抛 {@link ClusterGuard.RejectedException}；
+ * 打开和释放 point-in-time 不经过它。
+ */
+@Slf4j
+@Service
+public class ArticlePager {
+
+    private final RestHighLevelClient client;
+    private final String index;
+    private final TimeValue keepAlive;
+    private ClusterGuard searchGuard;
+
+    public ArticlePager(RestHighLevelClient client,
+                        @Value("${es.index:article_index}") String index,
+                        @Value("${es.pager.keep-alive:1m}") String keepAlive) {
+        this.client = client;
+        this.index = index;
+        this.keepAlive = TimeValue.parseTimeValue(keepAlive, "es.pager.keep-alive");
+    }
+
+    @Autowired(required = false)
+    public void setSearchGuard(@Qualifier("searchGuard") ClusterGuard searchGuard) {
+        this.searchGuard = searchGuard;
+    }
+
+    /**
+     * 第一页
+     *
+     * @param pinned 是否固定在 point-in-time 快照上翻页
+     */
+    public ArticlePage first(QueryBuilder query, int size, boolean pinned) throws IOException {
+        String pitId = pinned ? openPointInTime() : null;
+        return fetch(query, size, new Cursor(null, pitId));
+    }
+
+    public ArticlePage next(QueryBuilder query, int size, String token) throws IOException {
+        return fetch(query, size, Cursor.decode(token));
+    }
+
+    /**
+     * 调用方提前放弃翻页时释放 point-in-time，翻到最后一页会自动释放
+     */
+    public void release(String token) throws IOException {
+        if (token != null) {
+            closePointInTime(Cursor.decode(token).pitId);
+        }
+    }
+
+    private ArticlePage fetch(QueryBuilder query, int size, Cursor cursor) throws IOException {
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(query)
+                .size(size)
+                .trackTotalHits(false)
+                .sort(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+        SearchRequest request;
+        if (cursor.pitId != null) {
+            source.sort(SortBuilders.fieldSort("_shard_doc").order(SortOrder.ASC));
+            source.pointInTimeBuilder(new PointInTimeBuilder(cursor.pitId).setKeepAlive(keepAlive));
+            request = new SearchRequest().source(source);
+        } else {
+            request = new SearchRequest(index).source(source);
+        }
+        if (cursor.searchAfter != null) {
+            source.searchAfter(cursor.searchAfter);
+        }
+        SearchResponse response = search(request);
+        SearchHit[] hits = response.getHits().getHits();
+        List<Article> articles = ArticleHitMapper.ALL.toList(response);
+        //每次搜索都可能返回新的 pit id，后续请求要用新的
+        String pitId = response.pointInTimeId() != null ? response.pointInTimeId() : cursor.pitId;
+        if (hits.length < size) {
+            closePointInTime(pitId);
+            return new ArticlePage(articles, null);
+        }
+        return new ArticlePage(articles, new Cursor(hits[hits.length - 1].getSortValues(), pitId).encode());
+    }
+
+    private SearchResponse search(SearchRequest request) throws IOException {
+        if (searchGuard == null) {
+            return client.search(request, RequestOptions.DEFAULT);
+        }
+        return CoalescingClient.await(searchGuard.execute(() -> {
+            CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+            client.searchAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        }));
+    }
+
+    /**
+     * 7.12 的 RestHighLevelClient 还没有 openPointInTime，直接走低级客户端
+     */
+    private String openPointInTime() throws IOException {
+        Request request = new Request("POST", "/" + index + "/_pit");
+        request.addParameter("keep_alive", keepAlive.getStringRep());
+        Response response = client.getLowLevelClient().performRequest(request);
+        return JSON.parseObject(EntityUtils.toString(response.getEntity())).getString("id");
+    }
+
+    private void closePointInTime(String pitId) {
+        if (pitId == null) {
+            return;
+        }
+        Request request = new Request("DELETE", "/_pit");
+        JSONObject body = new JSONObject();
+        body.put("id", pitId);
+        request.setEntity(new NStringEntity(body.toJSONString(), ContentType.APPLICATION_JSON));
+        try {
+            client.getLowLevelClient().performRequest(request);
+        } catch (IOException e) {
+            //pit 到 keep_alive 会自己过期，这里失败只记录
+            log.warn("释放point-in-time失败:{}", e.getMessage());
+        }
+    }
+
+    private static final class Cursor {
+
+        private final Object[] searchAfter;
+        private final String pitId;
+
+        private Cursor(Object[] searchAfter, String pitId) {
+            this.searchAfter = searchAfter;
+            this.pitId = pitId;
+        }
+
+        private String encode() {
+            JSONObject json = new JSONObject();
+            json.put("a", searchAfter);
+            json.put("p", pitId);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(json.toJSONString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static Cursor decode(String token) {
+            try {
+                JSONObject json = JSON.parseObject(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+                JSONArray searchAfter = json.getJSONArray("a");
+                return new Cursor(searchAfter == null ? null : searchAfter.toArray(), json.getString("p"));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("无效的翻页token:" + token, e);
+            }
+        }
+    }
+}
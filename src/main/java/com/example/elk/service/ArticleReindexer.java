@@ -0,0 +1,340 @@
+package com.example.elk.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.RethrottleRequest;
+import org.elasticsearch.client.core.CountRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.tasks.TaskId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 不停服重建索引：换 mapping（比如换分词器）时不再删索引重灌，而是建一个新版本的索引，拷完数据后原子地把别名切过去
+ * <p>
+ * 流程：找到别名当前指向的索引 → 按新 mapping 建下一个版本 → 新索引进入批量导入模式 →
+ * 服务端分片并行 _reindex（按 requests_per_second 限速）→ 补拷迁移期间写过的文档 → 核对文档数 → 一个 _aliases 请求里摘旧挂新。
+ * 整个过程中读写都走别名、落在旧索引上，查询不受影响；任何一步失败都会删掉新索引，别名保持不动。
+ * <p>
+ * 迁移期间经本地写入路径（{@link IndexWriteListener}）写过的 id 会被记下来，_reindex 结束后从旧索引实时读出来补到新索引，删掉的也同步删掉。
+ * 补拷和切别名之间仍有一个很短的窗口，这期间写入旧索引的文档不会出现在新索引里，切换完成后会把窗口内写过的 id 打出来。
+ * <p>
+ * 别名还不存在、{index} 是个真实索引（老版本直接建的）时，切换时会把这个旧索引删掉，因为别名不能和索引同名。
+ */
+@Slf4j
+@Service
+public class ArticleReindexer implements IndexWriteListener {
+
+    private static final Pattern VERSION = Pattern.compile("_v(\\d+)$");
+    private static final int MAX_CATCH_UP_ROUNDS = 10;
+    private static final int MAX_VERIFY_ATTEMPTS = 3;
+
+    private final RestHighLevelClient client;
+    private final ArticleIndexManager indexManager;
+    private final String alias;
+    private final int slices;
+    private final float requestsPerSecond;
+    private final int batchSize;
+    private final long pollIntervalMillis;
+    private final boolean deleteOld;
+
+    private final Set<String> dirtyIds = ConcurrentHashMap.newKeySet();
+    /**
+     * 正在迁移的旧索引，没有迁移时是 null
+     */
+    private volatile String source;
+    private volatile TaskId task;
+
+    public ArticleReindexer(RestHighLevelClient client,
+                            ArticleIndexManager indexManager,
+                            @Value("${es.reindex.slices:0}") int slices,
+                            @Value("${es.reindex.requests-per-second:-1}") float requestsPerSecond,
+                            @Value("${es.reindex.batch-size:1000}") int batchSize,
+                            @Value("${es.reindex.poll-interval:1s}") String pollInterval,
+                            @Value("${es.reindex.delete-old:false}") boolean deleteOld) {
+        this.client = client;
+        this.indexManager = indexManager;
+        this.alias = indexManager.getIndex();
+        this.slices = slices;
+        this.requestsPerSecond = requestsPerSecond;
+        this.batchSize = batchSize;
+        this.pollIntervalMillis = TimeValue.parseTimeValue(pollInterval, "es.reindex.poll-interval").millis();
+        this.deleteOld = deleteOld;
+    }
+
+    public String reindex() throws IOException {
+        return reindex(requestsPerSecond);
+    }
+
+    /**
+     * @param requestsPerSecond 每秒拷贝的文档数上限，不大于 0 表示不限速
+     * @return 别名切换后指向的新索引
+     */
+    public synchronized String reindex(float requestsPerSecond) throws IOException {
+        String from = currentIndex();
+        boolean concrete = from.equals(alias);
+        String to = indexManager.versionedIndex(nextVersion(from));
+        indexManager.create(to);
+        log.info("开始重建索引{}:{} -> {}", alias, from, to);
+        long start = System.nanoTime();
+        dirtyIds.clear();
+        source = from;
+        boolean swapped = false;
+        try {
+            try (ArticleIndexManager.BulkLoad ignored = indexManager.beginBulkLoad(to)) {
+                copy(from, to, requestsPerSecond);
+                catchUp(from, to);
+            }
+            verifyCounts(from, to);
+            swap(from, to, concrete);
+            swapped = true;
+        } finally {
+            source = null;
+            task = null;
+            if (!swapped) {
+                deleteQuietly(to);
+            }
+        }
+        if (!dirtyIds.isEmpty()) {
+            log.warn("切换别名期间有{}个文档写入了旧索引{},需要核对:{}", dirtyIds.size(), from, dirtyIds);
+            dirtyIds.clear();
+        }
+        if (deleteOld && !concrete) {
+            client.indices().delete(new DeleteIndexRequest(from), RequestOptions.DEFAULT);
+        }
+        log.info("重建索引{}完成,{} -> {},耗时{}ms", alias, from, to, (System.nanoTime() - start) / 1_000_000);
+        return to;
+    }
+
+    /**
+     * 调整正在运行的 _reindex 的速度，没有在跑时什么都不做
+     */
+    public void rethrottle(float requestsPerSecond) throws IOException {
+        TaskId running = task;
+        if (running != null) {
+            client.reindexRethrottle(new RethrottleRequest(running, rate(requestsPerSecond)), RequestOptions.DEFAULT);
+        }
+    }
+
+    public boolean isRunning() {
+        return source != null;
+    }
+
+    @Override
+    public void afterWrite(List<DocWriteRequest<?>> requests) {
+        String from = source;
+        if (from == null) {
+            return;
+        }
+        for (DocWriteRequest<?> request : requests) {
+            if (request.id() != null && (alias.equals(request.index()) || from.equals(request.index()))) {
+                dirtyIds.add(request.id());
+            }
+        }
+    }
+
+    /**
+     * 别名指向的索引；别名不存在但有同名的真实索引时返回索引本身
+     */
+    String currentIndex() throws IOException {
+        GetAliasesResponse response = client.indices().getAlias(new GetAliasesRequest(alias), RequestOptions.DEFAULT);
+        Set<String> indices = response.getAliases().keySet();
+        if (indices.size() > 1) {
+            throw new IllegalStateException("别名" + alias + "指向了多个索引:" + indices);
+        }
+        if (indices.size() == 1) {
+            return indices.iterator().next();
+        }
+        if (client.indices().exists(new GetIndexRequest(alias), RequestOptions.DEFAULT)) {
+            return alias;
+        }
+        throw new IllegalStateException("索引" + alias + "不存在");
+    }
+
+    static int nextVersion(String index) {
+        Matcher matcher = VERSION.matcher(index);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) + 1 : 1;
+    }
+
+    /**
+     * 提交成后台任务再轮询，数据量大时同步调用会超过 socket 超时
+     */
+    private void copy(String from, String to, float requestsPerSecond) throws IOException {
+        ReindexRequest request = new ReindexRequest()
+                .setSourceIndices(from)
+                .setDestIndex(to)
+                .setSourceBatchSize(batchSize)
+                .setSlices(slices > 0 ? slices : AbstractBulkByScrollRequest.AUTO_SLICES)
+                .setRequestsPerSecond(rate(requestsPerSecond));
+        TaskId submitted = new TaskId(client.submitReindexTask(request, RequestOptions.DEFAULT).getTask());
+        task = submitted;
+        log.info("_reindex任务{}已提交,slices={},requests_per_second={}", submitted, request.getSlices(), request.getRequestsPerSecond());
+        //高级客户端的 GetTaskResponse 不解析 error 和 response，只能走低级客户端
+        Request poll = new Request("GET", "/_tasks/" + submitted);
+        poll.addParameter("ignore", "404");
+        while (true) {
+            Response response = client.getLowLevelClient().performRequest(poll);
+            if (response.getStatusLine().getStatusCode() == 404) {
+                throw new IOException("_reindex任务" + submitted + "不存在");
+            }
+            JSONObject status = JSON.parseObject(EntityUtils.toString(response.getEntity()));
+            if (status.getBooleanValue("completed")) {
+                checkResult(submitted, status);
+                return;
+            }
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待_reindex任务" + submitted + "时被中断");
+            }
+        }
+    }
+
+    /**
+     * 任务完成不代表成功：任务本身出错时带 error，被取消时 response.canceled 有值，部分文档写入失败时 response.failures 不为空
+     */
+    private static void checkResult(TaskId task, JSONObject status) throws IOException {
+        JSONObject error = status.getJSONObject("error");
+        if (error != null) {
+            throw new IOException("_reindex任务" + task + "失败:" + error.getString("type") + ":" + error.getString("reason"));
+        }
+        JSONObject response = status.getJSONObject("response");
+        if (response == null) {
+            return;
+        }
+        String canceled = response.getString("canceled");
+        if (canceled != null) {
+            throw new IOException("_reindex任务" + task + "被取消:" + canceled);
+        }
+        JSONArray failures = response.getJSONArray("failures");
+        if (failures != null && !failures.isEmpty()) {
+            throw new IOException("_reindex任务" + task + "有" + failures.size() + "个失败,第一个:" + failures.get(0));
+        }
+    }
+
+    /**
+     * 迁移期间写过的文档从旧索引实时读出来覆盖到新索引，补拷期间又有写入就再来一轮
+     */
+    private void catchUp(String from, String to) throws IOException {
+        for (int round = 0; round < MAX_CATCH_UP_ROUNDS && !dirtyIds.isEmpty(); round++) {
+            List<String> ids = drain();
+            for (int i = 0; i < ids.size(); i += batchSize) {
+                copyDocuments(from, to, ids.subList(i, Math.min(i + batchSize, ids.size())));
+            }
+            log.info("补拷迁移期间写入的{}个文档", ids.size());
+        }
+    }
+
+    private List<String> drain() {
+        List<String> ids = new ArrayList<>();
+        for (Iterator<String> it = dirtyIds.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        return ids;
+    }
+
+    private void copyDocuments(String from, String to, List<String> ids) throws IOException {
+        MultiGetRequest mget = new MultiGetRequest();
+        ids.forEach(id -> mget.add(from, id));
+        MultiGetResponse response = client.mget(mget, RequestOptions.DEFAULT);
+        BulkRequest bulk = new BulkRequest();
+        for (MultiGetItemResponse item : response.getResponses()) {
+            if (item.isFailed()) {
+                throw new IOException("读取旧索引文档" + item.getId() + "失败:" + item.getFailure().getMessage());
+            }
+            if (item.getResponse().isExists()) {
+                bulk.add(new IndexRequest(to).id(item.getId())
+                        .source(item.getResponse().getSourceAsBytesRef(), XContentType.JSON));
+            } else {
+                bulk.add(new DeleteRequest(to, item.getId()));
+            }
+        }
+        BulkResponse result = client.bulk(bulk, RequestOptions.DEFAULT);
+        if (result.hasFailures()) {
+            throw new IOException("补拷文档失败:" + result.buildFailureMessage());
+        }
+    }
+
+    /**
+     * 核对前再补拷一次，两边 refresh 后比较文档数；写入一直在进行时两次 count 之间可能有差，多试几次
+     */
+    private void verifyCounts(String from, String to) throws IOException {
+        long expected = -1;
+        long actual = -1;
+        for (int attempt = 0; attempt < MAX_VERIFY_ATTEMPTS; attempt++) {
+            catchUp(from, to);
+            client.indices().refresh(new RefreshRequest(from, to), RequestOptions.DEFAULT);
+            expected = count(from);
+            actual = count(to);
+            if (expected == actual) {
+                log.info("文档数核对一致:{}", actual);
+                return;
+            }
+        }
+        throw new IllegalStateException("文档数不一致," + from + ":" + expected + "," + to + ":" + actual);
+    }
+
+    private long count(String index) throws IOException {
+        return client.count(new CountRequest(index), RequestOptions.DEFAULT).getCount();
+    }
+
+    private void swap(String from, String to, boolean concrete) throws IOException {
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        if (concrete) {
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(from));
+        } else {
+            request.addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(from).alias(alias));
+        }
+        request.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(to).alias(alias));
+        client.indices().updateAliases(request, RequestOptions.DEFAULT);
+    }
+
+    private void deleteQuietly(String index) {
+        try {
+            client.indices().delete(new DeleteIndexRequest(index), RequestOptions.DEFAULT);
+            log.warn("重建索引失败,已删除新索引{}", index);
+        } catch (IOException | RuntimeException e) {
+            log.warn("重建索引失败,删除新索引{}也失败:{}", index, e.toString());
+        }
+    }
+
+    private static float rate(float requestsPerSecond) {
+        return requestsPerSecond > 0 ? requestsPerSecond : Float.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.elk.service;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.cache.ArticleNearCache;
+import com.example.elk.client.CoalescingClient;
+import com.example.elk.client.QueryTemplateRegistry;
+import com.example.elk.client.SearchResultCache;
+import com.example.elk.codec.ArticleHitMapper;
+import com.example.elk.codec.ArticleWriter;
+import com.example.elk.codec.HighlightProjection;
+import com.example.elk.codec.QueryTemplate;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Article 的查询和写入，全部走异步接口，返回 CompletableFuture，调用线程不会阻塞在 es 请求上
+ * <p>
+ * 查询条件对应 Elasticsearch7xTest 里演示的 term、terms、range、bool must/should 和高亮查询。
+ * 查询先查 {@link SearchResultCache}，命中时不发请求，也不占 searchGuard 的名额。
+ * 配置了 searchGuard 时查询经过它限流和熔断，被拒绝时用 SearchResultCache 里同一个查询上一次的结果降级，没有则失败
+ */
+@Slf4j
+@Service
+public class ArticleService {
+
+    private static final HighlightProjection SNIPPETS = HighlightProjection.of(new String[]{"title", "content"},
+            new String[]{"id", "title"}, "<em>", "</em>", 100, 1);
+    private static final int MAX_PROJECTIONS = 64;
+
+    /**
+     * title 等于 title，id 在 (idFrom, idTo] 之间，对应 Elasticsearch7xTest.searchByBolts
+     */
+    public static final String TITLE_IN_ID_RANGE = "title-in-id-range";
+    /**
+     * title 等于 titles 里的任意一个
+     */
+    public static final String TITLE_IN = "title-in";
+
+    private final RestHighLevelClient client;
+    private final CoalescingClient coalescing;
+    private final QueryTemplateRegistry templates;
+    private final String index;
+    private ClusterGuard searchGuard;
+    private SearchResultCache cache;
+    private ArticleNearCache nearCache;
+
+    private final List<IndexWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+    private final Map<List<String>, HighlightProjection> projections = new ConcurrentHashMap<>();
+
+    public ArticleService(RestHighLevelClient client, CoalescingClient coalescing, QueryTemplateRegistry templates,
+                          @Value("${es.index:article_index}") String index) {
+        this.client = client;
+        this.coalescing = coalescing;
+        this.templates = templates;
+        this.index = index;
+        templates.register(TITLE_IN_ID_RANGE, QueryTemplate.compile(new SearchSourceBuilder().query(QueryBuilders.boolQuery()
+                .must(QueryBuilders.termQuery("title", QueryTemplate.param("title")))
+                .must(QueryBuilders.rangeQuery("id").gt(QueryTemplate.param("idFrom")).lte(QueryTemplate.param("idTo"))))));
+        templates.register(TITLE_IN, QueryTemplate.compile(new SearchSourceBuilder()
+                .query(QueryBuilders.termsQuery("title", QueryTemplate.param("titles")))));
+    }
+
+    @Autowired(required = false)
+    public void setSearchGuard(@Qualifier("searchGuard") ClusterGuard searchGuard) {
+        this.searchGuard = searchGuard;
+    }
+
+    @Autowired(required = false)
+    public void setCache(SearchResultCache cache) {
+        this.cache = cache;
+    }
+
+    @Autowired(required = false)
+    public void setNearCache(ArticleNearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    @Autowired(required = false)
+    public void setWriteListeners(List<IndexWriteListener> listeners) {
+        writeListeners.addAll(listeners);
+    }
+
+    /**
+     * 按 id 查询，并发的 get 会被合并成 _mget；文档不存在时返回 null
+     * <p>
+     * 配置了 {@link ArticleNearCache} 时先查缓存，没命中再发请求并回填
+     */
+    public CompletableFuture<Article> get(long id) {
+        if (nearCache == null) {
+            return coalescing.getAsync(new GetRequest(index, String.valueOf(id)))
+                    .thenApply(response -> response.isExists() ? ArticleHitMapper.ALL.map(response) : null);
+        }
+        Article cached = nearCache.get(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        long generation = nearCache.generation();
+        return coalescing.getAsync(new GetRequest(index, String.valueOf(id))).thenApply(response -> {
+            if (!response.isExists()) {
+                return null;
+            }
+            nearCache.fill(id, response, generation);
+            return ArticleHitMapper.ALL.map(response);
+        });
+    }
+
+    public CompletableFuture<IndexResponse> index(Article article) {
+        IndexRequest request = new IndexRequest(index)
+                .id(String.valueOf(article.getId()))
+                .timeout(TimeValue.timeValueSeconds(5))
+                .source(ArticleWriter.toBytesReference(article), XContentType.JSON);
+        CompletableFuture<IndexResponse> future = new CompletableFuture<>();
+        client.indexAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(
+                response -> {
+                    notifyWritten(request);
+                    future.complete(response);
+                },
+                e -> {
+                    notifyWritten(request);
+                    future.completeExceptionally(e);
+                }));
+        return future;
+    }
+
+    public CompletableFuture<List<Article>> term(String field, String value, int size) {
+        return search(new SearchSourceBuilder().query(QueryBuilders.termQuery(field, value)).size(size));
+    }
+
+    public CompletableFuture<List<Article>> terms(String field, Collection<String> values, int size) {
+        return search(new SearchSourceBuilder().query(QueryBuilders.termsQuery(field, values)).size(size));
+    }
+
+    /**
+     * 按文档 id 批量查询，结果顺序不保证和 ids 一致
+     */
+    public CompletableFuture<List<Article>> ids(Collection<Long> ids) {
+        String[] values = ids.stream().map(String::valueOf).toArray(String[]::new);
+        return search(new SearchSourceBuilder().query(QueryBuilders.idsQuery().addIds(values)).size(values.length));
+    }
+
+    /**
+     * 边界为 null 表示不限制
+     */
+    public CompletableFuture<List<Article>> range(String field, Object gte, Object lte, int size) {
+        RangeQueryBuilder range = QueryBuilders.rangeQuery(field);
+        if (gte != null) {
+            range.gte(gte);
+        }
+        if (lte != null) {
+            range.lte(lte);
+        }
+        return search(new SearchSourceBuilder().query(QueryBuilders.boolQuery().filter(range)).size(size));
+    }
+
+    /**
+     * title 的 term 条件和 id 的范围条件，must 表示同时满足（and），否则满足其一即可（should，or）
+     */
+    public CompletableFuture<List<Article>> bool(String title, Long idFrom, Long idTo, boolean must, int size) {
+        BoolQueryBuilder bool = QueryBuilders.boolQuery();
+        if (title != null) {
+            if (must) {
+                bool.must(QueryBuilders.termQuery("title", title));
+            } else {
+                bool.should(QueryBuilders.termQuery("title", title));
+            }
+        }
+        if (idFrom != null || idTo != null) {
+            RangeQueryBuilder range = QueryBuilders.rangeQuery("id").gte(idFrom).lte(idTo);
+            if (must) {
+                bool.must(range);
+            } else {
+                bool.should(range);
+            }
+        }
+        return search(new SearchSourceBuilder().query(bool).size(size));
+    }
+
+    /**
+     * 高亮字段的内容替换成拼好的高亮片段
+     */
+    public CompletableFuture<List<Article>> highlight(String field, String keyword, String preTag, String postTag, int size) {
+        return highlight(projection(field, preTag, postTag), QueryBuilders.termQuery(field, keyword), size);
+    }
+
+    /**
+     * 标题或正文包含关键词的文章，只取 id、title 和正文里命中的一小段，不传整段正文
+     */
+    public CompletableFuture<List<Article>> snippets(String keyword, int size) {
+        return highlight(SNIPPETS, QueryBuilders.multiMatchQuery(keyword, "title", "content"), size);
+    }
+
+    public CompletableFuture<List<Article>> highlight(HighlightProjection projection, QueryBuilder query, int size) {
+        return searchAsync(projection.apply(new SearchSourceBuilder().query(query).size(size))).thenApply(projection::toList);
+    }
+
+    private HighlightProjection projection(String field, String preTag, String postTag) {
+        List<String> key = List.of(field, preTag, postTag);
+        HighlightProjection projection = projections.get(key);
+        if (projection == null) {
+            projection = HighlightProjection.of(field, preTag, postTag);
+            //标签来自请求参数，只缓存有限几种
+            if (projections.size() < MAX_PROJECTIONS) {
+                projections.putIfAbsent(key, projection);
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * 用登记过的查询模板查询，只拼参数不构造查询；模板不存在或缺参数时返回失败的 future
+     *
+     * @param size 小于 0 表示用模板里的 size
+     */
+    public CompletableFuture<List<Article>> template(String name, Map<String, ?> params, int size) {
+        QueryTemplate template;
+        try {
+            template = templates.get(name);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (searchGuard == null) {
+            return templates.searchAsync(index, template, params, size).thenApply(template.mapper()::toList);
+        }
+        return searchGuard.execute(() -> templates.searchAsync(index, template, params, size))
+                .thenApply(template.mapper()::toList);
+    }
+
+    public CompletableFuture<List<Article>> search(SearchSourceBuilder source) {
+        ArticleHitMapper mapper = ArticleHitMapper.of(source);
+        return searchAsync(source).thenApply(mapper::toList);
+    }
+
+    /**
+     * 先查 {@link SearchResultCache}，没命中才经过 searchGuard 和 single-flight 发请求
+     */
+    private CompletableFuture<SearchResponse> searchAsync(SearchSourceBuilder source) {
+        SearchRequest request = new SearchRequest(index).source(source);
+        return cache == null ? guarded(request) : cache.searchAsync(request, this::guarded);
+    }
+
+    private CompletableFuture<SearchResponse> guarded(SearchRequest request) {
+        if (searchGuard == null) {
+            return send(request);
+        }
+        if (cache == null) {
+            return searchGuard.execute(() -> send(request));
+        }
+        return searchGuard.execute(() -> send(request), () -> cache.stale(request));
+    }
+
+    private CompletableFuture<SearchResponse> send(SearchRequest request) {
+        try {
+            return coalescing.searchAsync(request, RequestOptions.DEFAULT);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void notifyWritten(DocWriteRequest<?> request) {
+        for (IndexWriteListener listener : writeListeners) {
+            try {
+                listener.afterWrite(List.of(request));
+            } catch (RuntimeException e) {
+                log.warn("写入回调{}执行失败", listener, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.elk.service;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.codec.ArticleWriter;
+import com.example.elk.spool.BulkSpool;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步批量写入 Article，多个生产线程可以同时调用 {@link #index(Article)}
+ * <p>
+ * 按文档条数、字节数、时间间隔三个条件中先满足的一个刷一次 bulk，
+ * 同时在途的 bulk 请求数由 concurrentRequests 限制，超过时调用线程会被阻塞，起到背压作用。
+ * 部分失败的 bulk 只重试返回 429 的条目，重试间隔指数退避。
+ * 配置了 bulkGuard 时每个 bulk 请求还要经过它的并发限制、限流和熔断。
+ * 被 bulkGuard 拒绝的 bulk 不交给 BulkProcessor 的重试（它只重试 es 返回的 429），而是按指数退避一直重发到放行为止，
+ * 重发期间这个 bulk 一直占着 concurrentRequests 的名额，写入方会被阻塞，数据不会丢。
+ * <p>
+ * 开启了 {@link BulkSpool}（es.spool.enabled=true）时 index、delete 改为先落盘，由 BulkSpool 发 bulk，
+ * 这时本类的计数不再变化，看 BulkSpool 的计数。
+ */
+@Slf4j
+@Service
+public class BulkIndexer {
+
+    private static final long MAX_GUARD_RETRY_DELAY_MILLIS = 5000;
+
+    private final String index;
+    private final long guardRetryDelayMillis;
+    private final BulkProcessor processor;
+    private volatile ClusterGuard guard;
+    private BulkSpool spool;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong guardRetries = new AtomicLong();
+
+    private final ScheduledExecutorService guardRetrier = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bulk-guard-retrier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<IndexWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    public BulkIndexer(RestHighLevelClient client,
+                       @Value("${es.bulk.index:article_index}") String index,
+                       @Value("${es.bulk.actions:1000}") int bulkActions,
+                       @Value("${es.bulk.size-mb:5}") long bulkSizeMb,
+                       @Value("${es.bulk.flush-interval-ms:1000}") long flushIntervalMillis,
+                       @Value("${es.bulk.concurrent-requests:2}") int concurrentRequests,
+                       @Value("${es.bulk.backoff.initial-delay-ms:100}") long backoffInitialDelayMillis,
+                       @Value("${es.bulk.backoff.max-retries:5}") int backoffMaxRetries) {
+        this.index = index;
+        this.guardRetryDelayMillis = Math.max(1, backoffInitialDelayMillis);
+        this.processor = BulkProcessor.builder(
+                        (request, listener) -> send(client, request, listener),
+                        new Listener())
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+                .setFlushInterval(TimeValue.timeValueMillis(flushIntervalMillis))
+                .setConcurrentRequests(concurrentRequests)
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(
+                        TimeValue.timeValueMillis(backoffInitialDelayMillis), backoffMaxRetries))
+                .build();
+    }
+
+    @Autowired(required = false)
+    public void setGuard(@Qualifier("bulkGuard") ClusterGuard guard) {
+        this.guard = guard;
+    }
+
+    @Autowired(required = false)
+    public void setSpool(BulkSpool spool) {
+        this.spool = spool;
+    }
+
+    @Autowired(required = false)
+    public void setWriteListeners(List<IndexWriteListener> listeners) {
+        writeListeners.addAll(listeners);
+    }
+
+    public void addWriteListener(IndexWriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    /**
+     * 开启了 spool 时落盘后返回，spool 满了抛 {@link IllegalStateException}
+     */
+    public void index(Article article) {
+        if (spool != null) {
+            spool.index(article);
+            return;
+        }
+        submitted.incrementAndGet();
+        processor.add(new IndexRequest(index)
+                .id(String.valueOf(article.getId()))
+                .source(ArticleWriter.toBytesReference(article), XContentType.JSON));
+    }
+
+    public void delete(Long id) {
+        if (spool != null) {
+            spool.delete(id);
+            return;
+        }
+        submitted.incrementAndGet();
+        processor.add(new DeleteRequest(index, String.valueOf(id)));
+    }
+
+    /**
+     * 立即把缓冲区里的文档发出去，不等待响应；spool 由自己的后台线程发送，不受影响
+     */
+    public void flush() {
+        processor.flush();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 被 bulkGuard 拒绝后重发的次数
+     */
+    public long getGuardRetries() {
+        return guardRetries.get();
+    }
+
+    private void send(RestHighLevelClient client, BulkRequest request, ActionListener<BulkResponse> listener) {
+        ClusterGuard current = guard;
+        if (current == null) {
+            client.bulkAsync(request, RequestOptions.DEFAULT, listener);
+            return;
+        }
+        send(current, client, request, listener, 0);
+    }
+
+    private void send(ClusterGuard current, RestHighLevelClient client, BulkRequest request,
+                      ActionListener<BulkResponse> listener, int attempt) {
+        current.execute(() -> {
+            CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+            client.bulkAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        }).whenComplete((response, e) -> {
+            if (e instanceof ClusterGuard.RejectedException) {
+                long delay = Math.min(MAX_GUARD_RETRY_DELAY_MILLIS, guardRetryDelayMillis << Math.min(attempt, 16));
+                log.warn("bulk被bulkGuard拒绝({}),{}条,{}ms后重发", ((ClusterGuard.RejectedException) e).getRejection(),
+                        request.numberOfActions(), delay);
+                guardRetries.incrementAndGet();
+                try {
+                    guardRetrier.schedule(() -> send(current, client, request, listener, attempt + 1), delay, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException closed) {
+                    //已经关闭，只能按失败处理
+                }
+            }
+            if (e != null) {
+                listener.onFailure(e instanceof Exception ? (Exception) e : new RuntimeException(e));
+            } else {
+                listener.onResponse(response);
+            }
+        });
+    }
+
+    /**
+     * 等待期间被 bulkGuard 拒绝的 bulk 还会继续重发
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        try {
+            if (!processor.awaitClose(30, TimeUnit.SECONDS)) {
+                log.warn("bulk写入30秒内没有完成,可能有数据丢失");
+            }
+        } finally {
+            guardRetrier.shutdownNow();
+        }
+    }
+
+    private class Listener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            log.debug("bulk[{}]开始,条数:{},字节:{}", executionId, request.numberOfActions(), request.estimatedSizeInBytes());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            int failures = 0;
+            if (response.hasFailures()) {
+                for (BulkItemResponse item : response.getItems()) {
+                    if (item.isFailed()) {
+                        failures++;
+                        log.warn("bulk[{}]写入失败,id:{},原因:{}", executionId, item.getId(), item.getFailureMessage());
+                    }
+                }
+            }
+            failed.addAndGet(failures);
+            succeeded.addAndGet(response.getItems().length - failures);
+            notifyWritten(request);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            failed.addAndGet(request.numberOfActions());
+            log.error("bulk[{}]请求失败,丢弃{}条", executionId, request.numberOfActions(), failure);
+            //请求失败也可能有部分文档已经写进去了
+            notifyWritten(request);
+        }
+
+        private void notifyWritten(BulkRequest request) {
+            for (IndexWriteListener listener : writeListeners) {
+                try {
+                    listener.afterWrite(request.requests());
+                } catch (RuntimeException e) {
+                    log.warn("写入回调{}执行失败", listener, e);
+                }
+            }
+        }
+    }
+}
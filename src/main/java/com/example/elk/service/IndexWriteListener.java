@@ -0,0 +1,13 @@
+package com.example.elk.service;
+
+import org.elasticsearch.action.DocWriteRequest;
+
+import java.util.List;
+
+/**
+ * 本地写入路径（BulkIndexer 等）在写请求完成后回调，用于让各种客户端缓存失效
+ */
+public interface IndexWriteListener {
+
+    void afterWrite(List<DocWriteRequest<?>> requests);
+}
@@ -0,0 +1,334 @@
+package com.example.elk.spool;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.codec.ArticleWriter;
+import com.example.elk.service.IndexWriteListener;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 先落盘再写 es 的批量写入，集群不可用时 {@link #index(Article)} 照样以写磁盘的速度返回，文档不会丢
+ * <p>
+ * 写入先追加到 {@link SpoolLog}，后台线程从 checkpoint 开始按 bulk-actions、bulk-size 取一批按顺序发 bulk，
+ * 成功后才推进 checkpoint，重启后从上次确认的位置继续。
+ * 整个请求失败或者有条目返回 429/5xx 时，从第一个这样的条目开始按指数退避重发，后面已经成功的条目也会重发，
+ * 同一个 id 的写入顺序不会乱；其他失败的条目（比如 mapping 冲突）记日志后跳过，不会卡住后面的数据。
+ * 投递是至少一次的，index 和 delete 都按 id 写，重发是幂等的。
+ * <p>
+ * 和 {@link com.example.elk.service.BulkIndexer} 一样，配置了 bulkGuard 时每个 bulk 请求还要经过它。
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "es.spool.enabled", havingValue = "true")
+public class BulkSpool {
+
+    private static final byte INDEX = 'i';
+    private static final byte DELETE = 'd';
+
+    private final RestHighLevelClient client;
+    private final String index;
+    private final SpoolLog spool;
+    private final int bulkActions;
+    private final long bulkSizeBytes;
+    private final long pollIntervalMillis;
+    private final long backoffInitialDelayMillis;
+    private final long backoffMaxDelayMillis;
+    private final boolean syncEveryWrite;
+    private volatile ClusterGuard guard;
+
+    private final List<IndexWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "bulk-spool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 只在 drain 线程里访问
+     */
+    private int attempts;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public BulkSpool(RestHighLevelClient client,
+                     @Value("${es.bulk.index:article_index}") String index,
+                     @Value("${es.spool.dir:spool}") String dir,
+                     @Value("${es.spool.segment-size:64mb}") String segmentSize,
+                     @Value("${es.spool.max-size:1gb}") String maxSize,
+                     @Value("${es.spool.bulk-actions:1000}") int bulkActions,
+                     @Value("${es.spool.bulk-size:5mb}") String bulkSize,
+                     @Value("${es.spool.poll-interval:200ms}") String pollInterval,
+                     @Value("${es.spool.sync-interval:1s}") String syncInterval,
+                     @Value("${es.spool.backoff.initial-delay:100ms}") String backoffInitialDelay,
+                     @Value("${es.spool.backoff.max-delay:30s}") String backoffMaxDelay) throws IOException {
+        this.client = client;
+        this.index = index;
+        this.spool = new SpoolLog(Path.of(dir),
+                Math.toIntExact(ByteSizeValue.parseBytesSizeValue(segmentSize, "es.spool.segment-size").getBytes()),
+                ByteSizeValue.parseBytesSizeValue(maxSize, "es.spool.max-size").getBytes());
+        this.bulkActions = bulkActions;
+        this.bulkSizeBytes = ByteSizeValue.parseBytesSizeValue(bulkSize, "es.spool.bulk-size").getBytes();
+        this.pollIntervalMillis = TimeValue.parseTimeValue(pollInterval, "es.spool.poll-interval").millis();
+        this.backoffInitialDelayMillis = TimeValue.parseTimeValue(backoffInitialDelay, "es.spool.backoff.initial-delay").millis();
+        this.backoffMaxDelayMillis = TimeValue.parseTimeValue(backoffMaxDelay, "es.spool.backoff.max-delay").millis();
+        long syncIntervalMillis = TimeValue.parseTimeValue(syncInterval, "es.spool.sync-interval").millis();
+        this.syncEveryWrite = syncIntervalMillis <= 0;
+        if (!syncEveryWrite) {
+            scheduler.scheduleWithFixedDelay(spool::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (spool.getBacklog() > 0) {
+            log.info("spool里还有{}字节没有写入es,从偏移量{}继续", spool.getBacklog(), spool.getCheckpoint());
+        }
+        scheduler.execute(this::drain);
+    }
+
+    @Autowired(required = false)
+    public void setGuard(@Qualifier("bulkGuard") ClusterGuard guard) {
+        this.guard = guard;
+    }
+
+    @Autowired(required = false)
+    public void setWriteListeners(List<IndexWriteListener> listeners) {
+        writeListeners.addAll(listeners);
+    }
+
+    /**
+     * 落盘后返回；未消费的数据超过 max-size 时抛 {@link IllegalStateException}
+     */
+    public void index(Article article) {
+        append(INDEX, String.valueOf(article.getId()), ArticleWriter.toBytes(article));
+    }
+
+    public void delete(Long id) {
+        append(DELETE, String.valueOf(id), new byte[0]);
+    }
+
+    private void append(byte op, String id, byte[] source) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + 2 + idBytes.length + source.length);
+        record.put(op).putShort((short) idBytes.length).put(idBytes).put(source);
+        spool.append(record.array());
+        if (syncEveryWrite) {
+            spool.sync();
+        }
+        appended.incrementAndGet();
+    }
+
+    private DocWriteRequest<?> decode(byte[] data) {
+        ByteBuffer record = ByteBuffer.wrap(data);
+        byte op = record.get();
+        int idLength = record.getShort() & 0xffff;
+        String id = new String(data, 3, idLength, StandardCharsets.UTF_8);
+        if (op == DELETE) {
+            return new DeleteRequest(index, id);
+        }
+        int sourceOffset = 3 + idLength;
+        return new IndexRequest(index).id(id).source(data, sourceOffset, data.length - sourceOffset, XContentType.JSON);
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * 还没写入 es 的字节数
+     */
+    public long getBacklog() {
+        return spool.getBacklog();
+    }
+
+    /**
+     * 等 spool 里的数据全部写入 es，超时返回 false
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (spool.getBacklog() > 0) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * 在途的 bulk 不等了，没确认的数据留在磁盘上，下次启动重发
+     */
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+        spool.close();
+    }
+
+    private void drain() {
+        List<SpoolLog.Record> records;
+        try {
+            records = spool.read(spool.getCheckpoint(), bulkActions, bulkSizeBytes);
+        } catch (RuntimeException e) {
+            log.error("读取spool失败", e);
+            schedule(backoffMillis());
+            return;
+        }
+        if (records.isEmpty()) {
+            schedule(pollIntervalMillis);
+            return;
+        }
+        BulkRequest bulk = new BulkRequest();
+        for (SpoolLog.Record record : records) {
+            bulk.add(decode(record.getData()));
+        }
+        CompletableFuture<BulkResponse> future;
+        try {
+            future = send(bulk);
+        } catch (RuntimeException e) {
+            afterBulk(records, bulk, null, e);
+            return;
+        }
+        future.whenComplete((response, e) -> {
+            try {
+                //checkpoint 要写文件，不在 http 客户端的 io 线程上做
+                scheduler.execute(() -> afterBulk(records, bulk, response, e));
+            } catch (RuntimeException rejected) {
+                //已经关闭
+            }
+        });
+    }
+
+    private void afterBulk(List<SpoolLog.Record> records, BulkRequest bulk, BulkResponse response, Throwable failure) {
+        if (failure != null) {
+            long delay = nextBackoff();
+            log.warn("spool写入es失败,{}条,{}ms后重试:{}", records.size(), delay, failure.toString());
+            return;
+        }
+        BulkItemResponse[] items = response.getItems();
+        int acknowledged = 0;
+        while (acknowledged < items.length) {
+            BulkItemResponse item = items[acknowledged];
+            if (item.isFailed() && retryable(item.status())) {
+                break;
+            }
+            if (item.isFailed()) {
+                failed.incrementAndGet();
+                log.warn("spool写入失败,跳过,id:{},原因:{}", item.getId(), item.getFailureMessage());
+            } else {
+                succeeded.incrementAndGet();
+            }
+            acknowledged++;
+        }
+        if (acknowledged > 0) {
+            try {
+                spool.commit(records.get(acknowledged - 1).getNext());
+            } catch (IOException e) {
+                //checkpoint 没写成只会导致重发
+                log.error("写spool checkpoint失败", e);
+            }
+            notifyWritten(bulk.requests().subList(0, acknowledged));
+        }
+        if (acknowledged < items.length) {
+            long delay = nextBackoff();
+            log.warn("spool写入有{}条被拒绝,{}ms后从id:{}开始重试", items.length - acknowledged, delay,
+                    items[acknowledged].getId());
+            return;
+        }
+        attempts = 0;
+        scheduler.execute(this::drain);
+    }
+
+    /**
+     * 安排一次退避后的 drain
+     */
+    private long nextBackoff() {
+        long delay = backoffMillis();
+        attempts++;
+        retries.incrementAndGet();
+        schedule(delay);
+        return delay;
+    }
+
+    private long backoffMillis() {
+        return Math.min(backoffMaxDelayMillis, backoffInitialDelayMillis << Math.min(attempts, 20));
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            scheduler.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            //已经关闭
+        }
+    }
+
+    private static boolean retryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    private CompletableFuture<BulkResponse> send(BulkRequest request) {
+        ClusterGuard current = guard;
+        if (current == null) {
+            return bulkAsync(request);
+        }
+        return current.execute(() -> bulkAsync(request));
+    }
+
+    private CompletableFuture<BulkResponse> bulkAsync(BulkRequest request) {
+        CompletableFuture<BulkResponse> future = new CompletableFuture<>();
+        client.bulkAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+        return future;
+    }
+
+    private void notifyWritten(List<DocWriteRequest<?>> requests) {
+        for (IndexWriteListener listener : writeListeners) {
+            try {
+                listener.afterWrite(requests);
+            } catch (RuntimeException e) {
+                log.warn("写入回调{}执行失败", listener, e);
+            }
+        }
+    }
+}
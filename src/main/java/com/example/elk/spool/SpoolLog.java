@@ -0,0 +1,314 @@
+package com.example.elk.spool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写的分段日志，每段是一个固定大小的 mmap 文件，追加只是一次内存拷贝，由操作系统回写磁盘
+ * <p>
+ * 偏移量是全局的字节位置，第 n 段覆盖 [n * segmentSize, (n + 1) * segmentSize)，文件名是段的起始偏移量。
+ * 记录格式：4 字节长度 + 4 字节 crc32 + 内容。段尾放不下下一条记录时剩下的空间保持全 0，读到长度 0 就跳到下一段。
+ * <p>
+ * checkpoint 文件保存已经确认消费的偏移量，整段都在它之前的文件会被删掉。
+ * 打开时从最后一段里 checkpoint（或段首）开始逐条校验 crc 找到写入位置，进程崩溃时写了一半的记录会被丢掉。
+ * 进程崩溃不丢数据，机器掉电时最多丢最近一次 {@link #sync()} 之后的记录。
+ * <p>
+ * 可以多个线程同时追加，读取和 commit 只能在同一个线程里做。
+ */
+public final class SpoolLog implements Closeable {
+
+    private static final int HEADER_LENGTH = 8;
+    private static final String SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final NavigableMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * 只在持有 this 锁时访问
+     */
+    private ByteBuffer head;
+    private long headBase;
+
+    private volatile long writeOffset;
+    private volatile long checkpoint;
+
+    /**
+     * @param maxBytes 还没消费的字节数上限，超过后 append 抛 {@link IllegalStateException}
+     */
+    public SpoolLog(Path dir, int segmentSize, long maxBytes) throws IOException {
+        if (segmentSize <= HEADER_LENGTH) {
+            throw new IllegalArgumentException("段大小太小:" + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        open();
+    }
+
+    private void open() throws IOException {
+        long committed = readCheckpoint();
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> bases.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        Collections.sort(bases);
+        for (long base : bases) {
+            if (base + segmentSize <= committed) {
+                Files.deleteIfExists(segmentPath(base));
+            } else {
+                segments.put(base, map(base));
+            }
+        }
+        if (segments.isEmpty()) {
+            headBase = committed - committed % segmentSize;
+            segments.put(headBase, map(headBase));
+            head = segments.get(headBase).duplicate();
+            writeOffset = committed;
+        } else {
+            //checkpoint 之前的段被手工删掉了，只能从现存的第一段开始
+            committed = Math.max(committed, segments.firstKey());
+            headBase = segments.lastKey();
+            head = segments.get(headBase).duplicate();
+            writeOffset = recover(head, headBase, Math.max(committed, headBase));
+        }
+        checkpoint = committed;
+    }
+
+    /**
+     * @return 最后一条完整记录的结尾
+     */
+    private long recover(ByteBuffer segment, long base, long from) {
+        int position = (int) (from - base);
+        while (position + HEADER_LENGTH <= segmentSize) {
+            int length = segment.getInt(position);
+            if (length == 0) {
+                return base + position;
+            }
+            if (length < 0 || length > segmentSize - HEADER_LENGTH - position
+                    || crc(segment, position + HEADER_LENGTH, length) != segment.getInt(position + 4)) {
+                //写了一半的记录清零，免得后面追加的短记录之后还留着它的残片
+                for (int i = position; i < segmentSize; i++) {
+                    segment.put(i, (byte) 0);
+                }
+                return base + position;
+            }
+            position += HEADER_LENGTH + length;
+        }
+        return base + position;
+    }
+
+    /**
+     * 长度 0 是段尾的标记，不能写空记录
+     *
+     * @return 记录的偏移量
+     */
+    public synchronized long append(byte[] bytes, int offset, int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("记录不能为空");
+        }
+        int size = HEADER_LENGTH + length;
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("记录" + length + "字节,超过段大小" + segmentSize);
+        }
+        if (writeOffset + size - checkpoint > maxBytes) {
+            throw new IllegalStateException("spool已满,未消费" + (writeOffset - checkpoint) + "字节");
+        }
+        int position = (int) (writeOffset - headBase);
+        if (position + size > segmentSize) {
+            roll();
+            position = 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        head.position(position + HEADER_LENGTH);
+        head.put(bytes, offset, length);
+        head.putInt(position + 4, (int) crc.getValue());
+        head.putInt(position, length);
+        long recordOffset = headBase + position;
+        writeOffset = recordOffset + size;
+        return recordOffset;
+    }
+
+    public long append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    private void roll() {
+        long base = headBase + segmentSize;
+        MappedByteBuffer segment;
+        try {
+            segment = map(base);
+        } catch (IOException e) {
+            throw new IllegalStateException("创建spool段失败:" + segmentPath(base), e);
+        }
+        segments.put(base, segment);
+        head = segment.duplicate();
+        headBase = base;
+    }
+
+    /**
+     * 从 from 开始读，最多 maxRecords 条、maxBytes 字节，但至少读一条；from 必须是某条记录的开头或者 commit 过的偏移量
+     */
+    public List<Record> read(long from, int maxRecords, long maxBytes) {
+        long end = writeOffset;
+        List<Record> records = new ArrayList<>();
+        long offset = from;
+        long bytes = 0;
+        while (offset < end && records.size() < maxRecords && (records.isEmpty() || bytes < maxBytes)) {
+            Map.Entry<Long, MappedByteBuffer> entry = segments.floorEntry(offset);
+            if (entry == null) {
+                throw new IllegalStateException("偏移量" + offset + "所在的段已经删除");
+            }
+            long base = entry.getKey();
+            ByteBuffer segment = entry.getValue();
+            int position = (int) (offset - base);
+            int length = position + HEADER_LENGTH <= segmentSize ? segment.getInt(position) : 0;
+            if (length == 0) {
+                offset = base + segmentSize;
+                continue;
+            }
+            byte[] data = new byte[length];
+            segment.get(position + HEADER_LENGTH, data);
+            long next = offset + HEADER_LENGTH + length;
+            records.add(new Record(offset, next, data));
+            bytes += length;
+            offset = next;
+        }
+        return records;
+    }
+
+    /**
+     * 确认 offset 之前的记录都已经消费，持久化 checkpoint，删掉用完的段
+     */
+    public void commit(long offset) throws IOException {
+        if (offset <= checkpoint) {
+            return;
+        }
+        Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, offset);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        checkpoint = offset;
+        synchronized (this) {
+            while (segments.firstKey() + segmentSize <= offset && segments.firstKey() != headBase) {
+                //映射要等 gc 才释放，linux 上删除已映射的文件没有问题
+                Files.deleteIfExists(segmentPath(segments.pollFirstEntry().getKey()));
+            }
+        }
+    }
+
+    /**
+     * 把还没消费的段刷到磁盘
+     */
+    public void sync() {
+        for (MappedByteBuffer segment : segments.tailMap(segments.floorKey(checkpoint), true).values()) {
+            segment.force();
+        }
+    }
+
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    public long getWriteOffset() {
+        return writeOffset;
+    }
+
+    /**
+     * 还没消费的字节数，包括段尾空着的部分
+     */
+    public long getBacklog() {
+        return writeOffset - checkpoint;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() {
+        sync();
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path file = dir.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length != Long.BYTES) {
+            throw new IOException("checkpoint文件损坏:" + file);
+        }
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private MappedByteBuffer map(long base) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(base),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Path segmentPath(long base) {
+        return dir.resolve(String.format("%020d%s", base, SUFFIX));
+    }
+
+    private static int crc(ByteBuffer segment, int position, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(segment.slice(position, length));
+        return (int) crc.getValue();
+    }
+
+    public static final class Record {
+
+        private final long offset;
+        private final long next;
+        private final byte[] data;
+
+        private Record(long offset, long next, byte[] data) {
+            this.offset = offset;
+            this.next = next;
+            this.data = data;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * 下一条记录的偏移量，commit 它表示这一条已经消费
+         */
+        public long getNext() {
+            return next;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -3,9 +3,10 @@ package com.example.elk;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.example.elk.bean.Article;
+import com.example.elk.codec.ArticleHitMapper;
 import com.example.elk.config.RestClientConfig;
+import com.example.elk.metrics.RequestTracer;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.http.HttpHost;
 import org.assertj.core.util.Lists;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.bulk.BulkRequest;
@@ -20,7 +21,6 @@ import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
@@ -28,8 +28,6 @@ import org.elasticsearch.index.query.*;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
-import org.junit.After;
-import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -42,23 +40,13 @@ import java.util.List;
 @SpringBootTest
 public class Elasticsearch7xTest {
 
+    /**
+     * 容器里共享的客户端，用例里不要再新建或者关闭
+     */
     @Qualifier(value = "restHighLevelClient")
     @Autowired
     public RestHighLevelClient client;
 
-    @Before
-    public void before() {
-        client = new RestHighLevelClient(RestClient.builder(
-                new HttpHost("127.0.0.1", 9200, "http")
-        ));
-
-    }
-
-    @After
-    public void after() throws IOException {
-        this.client.close();
-    }
-
 
     @Test
     public void testInfo() {
@@ -128,8 +116,8 @@ public class Elasticsearch7xTest {
              * 在 6.X 版本中，一个 index 下只能存在一个 type；
              *
              * 在 7.X 版本中，直接去除了 type 的概念，就是说 index 不再会有 type。
+             * mapping 由 ArticleIndexManager 声明，这里不再指定 type
              */
-            indexRequest.type("type_sole");
             System.out.println(JSON.toJSONString(indexRequest));
             bulkRequest.add(indexRequest);
         }
@@ -200,8 +188,8 @@ public class Elasticsearch7xTest {
         builder.fetchSource(includes, excludes);
         request.source(builder);
         SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-        for (SearchHit hit : response.getHits().getHits()) {
-            Article article = JSONObject.parseObject(hit.getSourceAsString(), Article.class);
+        //直接从_source字节解析,只绑定includes里的字段
+        for (Article article : ArticleHitMapper.of(builder).toList(response)) {
             System.out.println(JSON.toJSONString(article));
         }
     }
@@ -217,7 +205,7 @@ public class Elasticsearch7xTest {
         boolQueryBuilder.filter(QueryBuilders.rangeQuery("id").gt(2).lt(4));
         builder.query(boolQueryBuilder);
         request.source(builder);
-        log.info("范围查询boolQuery为:{},这个是{}", JSON.toJSONString(request),JSON.toJSONString(boolQueryBuilder));
+        log.debug("范围查询boolQuery为:{}", RequestTracer.lazy(request.source()));
         SearchResponse response = client.search(request, RequestOptions.DEFAULT);
         for (SearchHit hit : response.getHits().getHits()) {
             Article article = JSONObject.parseObject(hit.getSourceAsString(), Article.class);
@@ -292,7 +280,7 @@ public class Elasticsearch7xTest {
         SearchSourceBuilder sourceBuilder = new SearchSourceBuilder();
         sourceBuilder.query(QueryBuilders.rangeQuery("id").gte(3).lte(2));
         request.source(sourceBuilder);
-        log.info("参数为:{}", JSONObject.toJSONString(request));
+        log.debug("参数为:{}", RequestTracer.lazy(request.source()));
         SearchResponse search = client.search(request, RequestOptions.DEFAULT);
         for (SearchHit hit : search.getHits().getHits()) {
             Article article = JSON.parseObject(hit.getSourceAsString(), Article.class);
@@ -339,9 +327,9 @@ public class Elasticsearch7xTest {
         boolQueryBuilder.must(QueryBuilders.rangeQuery("id").lte(4).gt(1));
         builder.query(boolQueryBuilder);
         request.source(builder);
-        System.out.println(JSON.toJSONString(request));
+        log.debug("参数为:{}", RequestTracer.lazy(request.source()));
         SearchResponse search = client.search(request, RequestOptions.DEFAULT);
-        log.info("search为:{}", JSON.toJSONString(search));
+        log.debug("search为:{}", RequestTracer.lazy(search));
         for (SearchHit hit : search.getHits().getHits()) {
             Article article = JSON.parseObject(hit.getSourceAsString(), Article.class);
             System.out.println(JSON.toJSONString(article));
@@ -385,9 +373,9 @@ public class Elasticsearch7xTest {
         boolQueryBuilder.should(QueryBuilders.rangeQuery("id").lte(4).gt(1));
         builder.query(boolQueryBuilder);
         request.source(builder);
-        System.out.println(JSON.toJSONString(request));
+        log.debug("参数为:{}", RequestTracer.lazy(request.source()));
         SearchResponse search = client.search(request, RequestOptions.DEFAULT);
-        log.info("search为:{}", JSON.toJSONString(search));
+        log.debug("search为:{}", RequestTracer.lazy(search));
         for (SearchHit hit : search.getHits().getHits()) {
             Article article = JSON.parseObject(hit.getSourceAsString(), Article.class);
             System.out.println(JSON.toJSONString(article));
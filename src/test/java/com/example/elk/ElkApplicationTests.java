@@ -1,40 +1,44 @@
 package com.example.elk;
 
 import com.example.elk.bean.Article;
+import com.example.elk.service.ArticleIndexManager;
+import com.example.elk.service.ArticleService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest;
-import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.Requests;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.common.settings.Setting;
-import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.text.Text;
-import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
-import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
-import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
-import org.elasticsearch.transport.client.PreBuiltTransportClient;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.web.bind.annotation.PutMapping;
 
-import javax.swing.text.Highlighter;
-import java.io.UnsupportedEncodingException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
+/**
+ * 原来每个用例都新建一个 TransportClient 连 9301 再关掉，现在都用容器里共享的 RestHighLevelClient，连接池在用例之间复用
+ */
 @SpringBootTest
 class ElkApplicationTests {
 
+    @Autowired
+    private RestHighLevelClient client;
+    @Autowired
+    private ArticleIndexManager indexManager;
+    @Autowired
+    private ArticleService articleService;
+
     @Test
     void contextLoads() {
     }
@@ -42,63 +46,32 @@ class ElkApplicationTests {
 
     @Test
     public void test1() throws Exception {
-        Settings setting = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(setting)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
-        client.admin().indices().prepareCreate("blog4").get();
-        client.close();
+        indexManager.create("blog4");
     }
 
 
     @Test
     public void test3() throws Exception {
-        Settings setting = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(setting)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
         // 添加映射
         /**
          * 格式：
          * "mappings" : {
-         "article" : {
          "dynamic" : "false",
          "properties" : {
-         "id" : { "type" : "string" },
-         "content" : { "type" : "string" },
-         "author" : { "type" : "string" }
-         }
+         "id" : { "type" : "long" },
+         "title" : { "type" : "text", "analyzer" : "ik_smart" },
+         "content" : { "type" : "text", "analyzer" : "ik_smart" }
          }
          }
+         * 7.x 没有 type，mapping 由 ArticleIndexManager.mapping() 声明
          */
-        XContentBuilder builder = XContentFactory.jsonBuilder()
-                .startObject()
-                .startObject("article")
-                .startObject("properties")
-                .startObject("id")
-                .field("type", "integer").field("store", true)
-                .endObject()
-                .startObject("title")
-                .field("type", "text").field("store", true).field("analyzer", "ik_smart")
-                .endObject()
-                .startObject("content")
-                .field("type", "text").field("store", true).field("analyzer", "ik_smart")
-                .endObject()
-                .endObject()
-                .endObject()
-                .endObject();
         //创建映射
-        PutMappingRequest mapping = Requests.putMappingRequest("blog4")
-                .type("article").source(builder);
-        client.admin().indices().putMapping(mapping).get();
-        client.close();
-
+        indexManager.putMapping("blog4");
     }
 
 
     @Test
     public void test4() throws Exception {
-        Settings setting = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(setting)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
         //创建文档信息
         XContentBuilder builder = XContentFactory.jsonBuilder()
                 .startObject()
@@ -109,20 +82,14 @@ class ElkApplicationTests {
                 .endObject();
         // 建立文档对象
         /**
-         * 参数一blog1：表示索引对象
-         * 参数二article：类型
-         * 参数三1：建立id
+         * 参数一blog4：表示索引对象
+         * 参数二1：建立id
          */
-        client.prepareIndex("blog4", "article", "1").setSource(builder).get();
-        client.close();
+        client.index(new IndexRequest("blog4").id("1").source(builder), RequestOptions.DEFAULT);
     }
 
     @Test
     public void test5() throws Exception {
-        //建立client对象
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
         // 描述json 数据
         //{id:xxx, title:xxx, content:xxx}
         Article article = new Article();
@@ -132,21 +99,15 @@ class ElkApplicationTests {
 
         ObjectMapper objectMapper = new ObjectMapper();
         //建立文档
-        client.prepareIndex("blog4", "article", article.getId().toString())
-                .setSource(objectMapper.writeValueAsString(article).getBytes(), XContentType.JSON).get();
-        //释放资源
-        client.close();
+        client.index(new IndexRequest("blog4").id(article.getId().toString())
+                .source(objectMapper.writeValueAsBytes(article), XContentType.JSON), RequestOptions.DEFAULT);
     }
 
     @Test
-    public void testTempQuery() throws UnknownHostException, UnsupportedEncodingException {
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
+    public void testTempQuery() throws IOException {
         //设置搜索条件
-        SearchResponse searchResponse = client.prepareSearch("blog2")
-                .setTypes("article")
-                .setQuery(QueryBuilders.termQuery("content", "搜索")).get();
+        SearchResponse searchResponse = client.search(new SearchRequest("blog2")
+                .source(new SearchSourceBuilder().query(QueryBuilders.termQuery("content", "搜索"))), RequestOptions.DEFAULT);
         //遍历搜索结果数据
         SearchHits hits = searchResponse.getHits(); //获取命中次数，查询结果有多少对象
         System.out.println("查询结果有：" + hits.getTotalHits() + "条");
@@ -156,21 +117,15 @@ class ElkApplicationTests {
             System.out.println(searchHit.getSourceAsString()); // 获取字符串格式打印
             System.out.println("title:" + searchHit.getSourceAsMap().get("title"));
         }
-        //释放资源
-        client.close();
 
     }
 
 
     @Test
-    public void testStringQuery() throws UnknownHostException, UnsupportedEncodingException {
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
+    public void testStringQuery() throws IOException {
         //设置搜索条件
-        SearchResponse searchResponse = client.prepareSearch("blog2")
-                .setTypes("article")
-                .setQuery(QueryBuilders.queryStringQuery("搜索")).get();
+        SearchResponse searchResponse = client.search(new SearchRequest("blog2")
+                .source(new SearchSourceBuilder().query(QueryBuilders.queryStringQuery("搜索"))), RequestOptions.DEFAULT);
         //遍历搜索结果数据
         SearchHits hits = searchResponse.getHits(); //获取命中次数，查询结果有多少对象
         System.out.println("查询结果有：" + hits.getTotalHits() + "条");
@@ -180,40 +135,22 @@ class ElkApplicationTests {
             System.out.println(searchHit.getSourceAsString()); // 获取字符串格式打印
             System.out.println("title:" + searchHit.getSourceAsMap().get("title"));
         }
-        //释放资源
-        client.close();
 
     }
 
 
     //使用文档id查询文档
     @Test
-    public void testIdQuery() throws UnknownHostException {
-        //1、创建es客户端连接对象
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
-        SearchResponse response = client.prepareSearch("blog3")
-                .setTypes("article")
-                .setQuery(QueryBuilders.idsQuery().addIds("3"))
-                .get();
-
-        SearchHits hits = response.getHits(); //获取命中次数，查询结果有多少对象
-        System.out.println("查询结果有：" + hits.getTotalHits() + "条");
-        Iterator<SearchHit> iterator = hits.iterator();
-        while (iterator.hasNext()) {
-            SearchHit searchHit = iterator.next();//每个查询对象
-            System.out.println(searchHit.getSourceAsString()); // 获取字符串格式打印
+    public void testIdQuery() throws Exception {
+        List<Article> articles = articleService.ids(Collections.singletonList(3L)).get();
+        System.out.println("查询结果有：" + articles.size() + "条");
+        for (Article article : articles) {
+            System.out.println(article);
         }
-        //释放资源
-        client.close();
     }
 
     @Test
-    public void test9() throws UnknownHostException, JsonProcessingException {
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
+    public void test9() throws IOException, JsonProcessingException {
         ObjectMapper objectMapper = new ObjectMapper();
         for (int i = 1; i <= 10; i++) {
             // 描述json 数据
@@ -224,29 +161,22 @@ class ElkApplicationTests {
                     + "我们希望我们的搜索解决方案要快，我们希望有一个零配置和一个完全免费的搜索模式，我们希望能够简单地使用JSON通过HTTP的索引数据，我们希望我们的搜索服务器始终可用，我们希望能够一台开始并扩展到数百，我们要实时搜索，我们要简单的多租户，我们希望建立一个云的解决方案。Elasticsearch旨在解决所有这些问题和更多的问题。");
 
             //建立文档
-            client.prepareIndex("blog4", "article", article.getId().toString())
-                    .setSource(objectMapper.writeValueAsString(article).getBytes(), XContentType.JSON).get();
+            client.index(new IndexRequest("blog4").id(article.getId().toString())
+                    .source(objectMapper.writeValueAsBytes(article), XContentType.JSON), RequestOptions.DEFAULT);
         }
-        client.close();
     }
 
 
     //分页查询
     @Test
-    public void test10() throws UnknownHostException {
-        //1、创建es客户端连接对象
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
-
-        SearchRequestBuilder searchRequestBuilder = client.prepareSearch("blog4")
-                .setTypes("article")
-                .setQuery(QueryBuilders.matchAllQuery());//默认10条记录
+    public void test10() throws IOException {
         //   查询第2页数据，每页20条
-        //setFrom()：从第几条开始检索，默认是0。
-        //setSize():每页最多显示的记录数。
-        searchRequestBuilder.setFrom(0).setSize(5);
-        SearchResponse response = searchRequestBuilder.get();
+        //from()：从第几条开始检索，默认是0。
+        //size():每页最多显示的记录数。
+        SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(QueryBuilders.matchAllQuery())//默认10条记录
+                .from(0).size(5);
+        SearchResponse response = client.search(new SearchRequest("blog4").source(source), RequestOptions.DEFAULT);
 
         SearchHits hits = response.getHits(); // 获取命中次数，查询结果有多少对象
         System.out.println("查询结果有：" + hits.getTotalHits() + "条");
@@ -259,55 +189,19 @@ class ElkApplicationTests {
             System.out.println("content:" + searchHit.getSourceAsMap().get("content"));
             System.out.println("-----------------------------------------");
         }
-
-        //释放资源
-        client.close();
     }
 
 
 
     //高亮显示代码
     @Test
-    public void test11() throws UnknownHostException {
-        //1、创建es客户端连接对象
-        Settings settings = Settings.builder().put("cluster.name", "my-elasticsearch").build();
-        TransportClient client = new PreBuiltTransportClient(settings)
-                .addTransportAddress(new TransportAddress(InetAddress.getByName("127.0.0.1"), 9301));
-
-        // 搜索数据
-        SearchRequestBuilder searchRequestBuilder = client
-                .prepareSearch("blog4").setTypes("article")
-                .setQuery(QueryBuilders.termQuery("title", "搜索"));
-
-        //设置高亮数据
-        HighlightBuilder highlightBuilder = new HighlightBuilder();
-        highlightBuilder.preTags("<font style='color:red'>");
-        highlightBuilder.postTags("</font>");
-        highlightBuilder.field("title");
-        searchRequestBuilder.highlighter(highlightBuilder);
-        //获取查询结果数据
-        SearchResponse response = searchRequestBuilder.get();
-
-        //获取查询结果集
-        SearchHits searchHits = response.getHits();
-        System.out.println("共搜到:"+searchHits.getTotalHits()+"条结果!");
-        //遍历结果
-        for(SearchHit hit:searchHits){
-            System.out.println("String方式打印文档搜索内容:");
-            System.out.println(hit.getSourceAsString());
-            System.out.println("Map方式打印高亮内容");
-            System.out.println(hit.getHighlightFields());
-
-            System.out.println("遍历高亮集合，打印高亮片段:");
-            Text[] text = hit.getHighlightFields().get("title").getFragments();
-            for (Text str : text) {
-                System.out.println(str);
-            }
+    public void test11() throws Exception {
+        //title 替换成了拼好的高亮片段
+        List<Article> articles = articleService.highlight("title", "搜索", "<font style='color:red'>", "</font>", 10).get();
+        System.out.println("共搜到:" + articles.size() + "条结果!");
+        for (Article article : articles) {
+            System.out.println(article.getTitle());
         }
-
-        //释放资源
-        client.close();
-
     }
 
 
@@ -0,0 +1,81 @@
+package com.example.elk.cache;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.CoalescingClient;
+import com.example.elk.client.QueryTemplateRegistry;
+import com.example.elk.service.ArticleService;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ArticleNearCacheTest {
+
+    private static final String INDEX_RESPONSE = "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"7\","
+            + "\"_version\":2,\"result\":\"updated\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+            + "\"_seq_no\":2,\"_primary_term\":1}";
+
+    private static String mget(int seqNo) {
+        return "{\"docs\":[{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"7\",\"_version\":" + seqNo
+                + ",\"_seq_no\":" + seqNo + ",\"_primary_term\":1,\"found\":true,"
+                + "\"_source\":{\"id\":7,\"title\":\"标题" + seqNo + "\"}}]}";
+    }
+
+    @Test
+    void readThroughAndInvalidateOnLocalWrite() throws Exception {
+        AtomicInteger seqNo = new AtomicInteger(1);
+        StubElasticsearch stub = new StubElasticsearch(4);
+        stub.route("_mget", () -> mget(seqNo.get())).route("PUT _doc/", INDEX_RESPONSE).start();
+        try (stub; RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            ArticleNearCache nearCache = new ArticleNearCache("article_index", "1mb", "5m");
+            ArticleService service = new ArticleService(client, new CoalescingClient(client, "2ms", 100),
+                    new QueryTemplateRegistry(client), "article_index");
+            service.setNearCache(nearCache);
+            service.setWriteListeners(List.of(nearCache));
+
+            assertEquals("标题1", service.get(7).get().getTitle());
+            assertEquals("标题1", service.get(7).get().getTitle());
+            assertEquals(1, stub.calls("_mget"));
+            assertEquals(1, nearCache.getHits());
+
+            seqNo.set(2);
+            service.index(new Article(7L, "标题2", null)).get();
+            assertEquals(1, nearCache.getInvalidations());
+            assertEquals("标题2", service.get(7).get().getTitle());
+            assertEquals(2, stub.calls("_mget"));
+            assertEquals("标题2", service.get(7).get().getTitle());
+            assertEquals(2, stub.calls("_mget"));
+        }
+    }
+
+    @Test
+    void writeDuringReadThroughSkipsFill() throws Exception {
+        StubElasticsearch stub = new StubElasticsearch(4);
+        stub.route("_mget", () -> mget(1)).start();
+        try (stub; RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            ArticleNearCache nearCache = new ArticleNearCache("article_index", "1mb", "5m");
+            CoalescingClient coalescing = new CoalescingClient(client, "2ms", 100);
+            long generation = nearCache.generation();
+            GetResponse response = coalescing.getAsync(new GetRequest("article_index", "7")).get();
+
+            nearCache.afterWrite(List.of(new DeleteRequest("article_index", "7")));
+            nearCache.fill(7, response, generation);
+            assertNull(nearCache.get(7));
+
+            nearCache.fill(7, response, nearCache.generation());
+            Article cached = nearCache.get(7);
+            assertEquals("标题1", cached.getTitle());
+            assertEquals(1, nearCache.size());
+        }
+    }
+}
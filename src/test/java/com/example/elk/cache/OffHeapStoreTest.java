@@ -0,0 +1,106 @@
+package com.example.elk.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapStoreTest {
+
+    private static boolean put(OffHeapStore store, long key, long seqNo, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return store.put(key, 1, seqNo, 0, bytes, 0, bytes.length);
+    }
+
+    private static String get(OffHeapStore store, long key) {
+        byte[] value = store.get(key, 0);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void olderSeqNoDoesNotOverwrite() {
+        OffHeapStore store = new OffHeapStore(64 * 1024);
+        assertTrue(put(store, 7, 3, "v3"));
+        assertFalse(put(store, 7, 2, "v2"));
+        assertEquals("v3", get(store, 7));
+        assertTrue(put(store, 7, 4, "v4"));
+        assertEquals("v4", get(store, 7));
+        assertEquals(1, store.size());
+
+        assertTrue(store.remove(7));
+        assertNull(get(store, 7));
+        assertEquals(0, store.liveBytes());
+    }
+
+    @Test
+    void expiredEntriesAreMisses() {
+        OffHeapStore store = new OffHeapStore(64 * 1024);
+        byte[] bytes = {1, 2, 3};
+        store.put(1, 1, 1, 100, bytes, 0, bytes.length);
+        assertNull(store.get(1, 101));
+        assertArrayEquals(bytes, store.get(1, 100));
+
+        //同一个版本只刷新时间戳
+        assertTrue(store.put(1, 1, 1, 200, new byte[0], 0, 0));
+        assertArrayEquals(bytes, store.get(1, 150));
+    }
+
+    @Test
+    void clockKeepsRecentlyReadEntries() {
+        //每条 40 字节头 + 24 字节内容，4096 字节放得下 64 条
+        OffHeapStore store = new OffHeapStore(4096);
+        String value = "x".repeat(24);
+        for (long key = 0; key < 64; key++) {
+            put(store, key, 1, value);
+        }
+        assertEquals(64, store.size());
+        assertNotNull(get(store, 0));
+        assertNotNull(get(store, 1));
+
+        for (long key = 64; key < 1000; key++) {
+            put(store, key, 1, value);
+            //热点 id 一直有人读
+            get(store, 0);
+        }
+        assertEquals(value, get(store, 0));
+        assertNull(get(store, 1));
+        assertEquals(value, get(store, 999));
+        assertTrue(store.liveBytes() <= store.capacity());
+        assertEquals(store.size() * 64L, store.liveBytes());
+        assertTrue(store.getEvictions() > 0);
+    }
+
+    @Test
+    void variableSizesWrapAround() {
+        OffHeapStore store = new OffHeapStore(8192);
+        Map<Long, String> latest = new HashMap<>();
+        for (long i = 0; i < 5000; i++) {
+            String value = String.valueOf(i).repeat((int) (i % 37) + 1);
+            assertTrue(put(store, i % 300, i, value));
+            latest.put(i % 300, value);
+            assertEquals(value, get(store, i % 300));
+        }
+        int present = 0;
+        for (Map.Entry<Long, String> entry : latest.entrySet()) {
+            String value = get(store, entry.getKey());
+            if (value != null) {
+                assertEquals(entry.getValue(), value);
+                present++;
+            }
+        }
+        assertEquals(store.size(), present);
+        assertTrue(store.liveBytes() <= store.capacity());
+
+        //超过容量 1/8 的值不缓存，同时删掉旧值
+        assertFalse(put(store, 4999 % 300, Long.MAX_VALUE, "y".repeat(2000)));
+        assertNull(get(store, 4999 % 300));
+    }
+}
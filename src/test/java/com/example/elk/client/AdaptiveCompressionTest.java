@@ -0,0 +1,143 @@
+package com.example.elk.client;
+
+import com.example.elk.bean.Article;
+import com.example.elk.codec.ArticleWriter;
+import com.example.elk.codec.GzipCodec;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveCompressionTest {
+
+    private static final String CONTENT = "我们希望我们的搜索解决方案要快，我们希望有一个零配置和一个完全免费的搜索模式，"
+            + "我们希望能够简单地使用JSON通过HTTP的索引数据，我们希望我们的搜索服务器始终可用。";
+
+    private StubElasticsearch stub;
+    private AdaptiveCompression compression;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(4).cannedRoutes().start();
+        compression = new AdaptiveCompression("1kb", 0.5, 1, 4, true, "100mb");
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address()))
+                .setHttpClientConfigCallback(compression::instrument));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    private static BulkRequest bulk(int articles, String content) {
+        BulkRequest bulk = new BulkRequest("article_index");
+        for (long i = 0; i < articles; i++) {
+            bulk.add(new IndexRequest().id(String.valueOf(i))
+                    .source(ArticleWriter.toBytesReference(new Article(i, "标题" + i, content)), XContentType.JSON));
+        }
+        return bulk;
+    }
+
+    @Test
+    void largeBulkIsCompressed() throws IOException {
+        BulkResponse response = client.bulk(bulk(50, CONTENT), RequestOptions.DEFAULT);
+
+        assertEquals(1, response.getItems().length);
+        assertEquals(1, stub.gzipRequests());
+        assertTrue(stub.lastBody("_bulk").contains(CONTENT));
+        assertEquals(1, compression.getCompressedRequests());
+        assertTrue(compression.getCompressedBytes() * 5 < compression.getUncompressedBytes());
+    }
+
+    @Test
+    void smallOrIncompressibleBodiesAreSentAsIs() throws IOException {
+        client.bulk(bulk(1, "短"), RequestOptions.DEFAULT);
+        byte[] random = new byte[3000];
+        new Random(1).nextBytes(random);
+        String noise = Base64.getEncoder().encodeToString(random);
+        client.bulk(bulk(1, noise), RequestOptions.DEFAULT);
+
+        assertEquals(0, stub.gzipRequests());
+        assertEquals(0, compression.getCompressedRequests());
+        assertTrue(stub.lastBody("_bulk").contains(noise));
+    }
+
+    @Test
+    void searchAsksForGzipAndDecodesResponse() throws IOException {
+        SearchResponse response = client.search(new SearchRequest("article_index").source(new SearchSourceBuilder()),
+                RequestOptions.DEFAULT);
+
+        assertEquals("学习", response.getHits().getHits()[0].getSourceAsMap().get("title"));
+        assertEquals(1, stub.gzipResponses());
+        assertEquals(1, compression.getDecompressedResponses());
+
+        client.bulk(bulk(1, "短"), RequestOptions.DEFAULT);
+        assertEquals(1, stub.gzipResponses());
+    }
+
+    @Test
+    void oversizedGzipResponseFailsTheRequest() throws IOException {
+        stub.route("_search", "{\"padding\":\"" + "a".repeat(10_000) + "\"}");
+        AdaptiveCompression limited = new AdaptiveCompression("1kb", 0.5, 1, 4, true, "4kb");
+        try (RestHighLevelClient limitedClient = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address()))
+                .setHttpClientConfigCallback(limited::instrument))) {
+            IOException e = assertThrows(IOException.class, () -> limitedClient.search(
+                    new SearchRequest("article_index").source(new SearchSourceBuilder()), RequestOptions.DEFAULT));
+
+            assertTrue(e.getMessage().contains("解压后超过4096字节"), e.getMessage());
+            assertEquals(0, limited.getDecompressedResponses());
+        }
+        GzipCodec codec = new GzipCodec(1, 1);
+        byte[] compressed = codec.compress(new byte[4097]);
+        assertNull(codec.decompress(compressed, 0, compressed.length, 4096));
+        assertEquals(4097, codec.decompress(compressed, 0, compressed.length, 4097).length);
+    }
+
+    @Test
+    void codecIsCompatibleWithJdkGzip() throws IOException {
+        GzipCodec codec = new GzipCodec(6, 1);
+        byte[] text = CONTENT.repeat(20).getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = codec.compress(text);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(text, in.readAllBytes());
+        }
+
+        ByteArrayOutputStream jdk = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(jdk)) {
+            out.write(text);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(text, codec.decompress(jdk.toByteArray(), 0, jdk.size()));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.elk.client;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterGuardTest {
+
+    private static CircuitBreaker breaker(long slowCallNanos, long openNanos) {
+        return new CircuitBreaker(10, 4, 0.5, slowCallNanos, 0.8, openNanos, 2);
+    }
+
+    private static ClusterGuard.Rejection rejection(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        return assertInstanceOf(ClusterGuard.RejectedException.class, e.getCause()).getRejection();
+    }
+
+    @Test
+    void bulkheadRejectsWhenFullAndReleasesOnCompletion() {
+        ClusterGuard guard = new ClusterGuard("search", 2, 0, -1, breaker(Long.MAX_VALUE, 1_000_000_000L));
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        guard.execute(() -> first);
+        guard.execute(() -> second);
+        assertEquals(2, guard.getActive());
+
+        CompletableFuture<String> rejected = guard.execute(() -> CompletableFuture.completedFuture("x"));
+        assertEquals(ClusterGuard.Rejection.BULKHEAD_FULL, rejection(rejected));
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, ((ElasticsearchStatusException) rejected.handle((v, e) -> e).join()).status());
+
+        first.complete("a");
+        assertEquals("b", guard.execute(() -> CompletableFuture.completedFuture("b")).join());
+        assertEquals(1, guard.getActive());
+        assertEquals(1, guard.getRejected(ClusterGuard.Rejection.BULKHEAD_FULL));
+    }
+
+    @Test
+    void breakerOpensOnFailuresAndRecoversThroughHalfOpen() throws Exception {
+        ClusterGuard guard = new ClusterGuard("search", 10, 0, -1, breaker(Long.MAX_VALUE, TimeUnit.MILLISECONDS.toNanos(100)));
+        for (int i = 0; i < 4; i++) {
+            guard.execute(() -> CompletableFuture.failedFuture(new ConnectException("refused")));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.getBreaker().getState());
+
+        CompletableFuture<String> rejected = guard.execute(() -> CompletableFuture.completedFuture("x"));
+        assertEquals(ClusterGuard.Rejection.CIRCUIT_OPEN, rejection(rejected));
+        assertEquals("cached", guard.execute(() -> CompletableFuture.completedFuture("x"), () -> "cached").join());
+        assertEquals(1, guard.getFallbacks());
+
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, guard.getBreaker().getState());
+        CompletableFuture<String> probe1 = new CompletableFuture<>();
+        CompletableFuture<String> probe2 = new CompletableFuture<>();
+        guard.execute(() -> probe1);
+        guard.execute(() -> probe2);
+        //半开状态只放两个试探请求
+        assertEquals(ClusterGuard.Rejection.CIRCUIT_OPEN, rejection(guard.execute(() -> CompletableFuture.completedFuture("x"))));
+        probe1.complete("ok");
+        probe2.complete("ok");
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getBreaker().getState());
+    }
+
+    @Test
+    void clientErrorsDoNotOpenBreaker() {
+        ClusterGuard guard = new ClusterGuard("search", 10, 0, -1, breaker(Long.MAX_VALUE, 1_000_000_000L));
+        ElasticsearchStatusException notFound = new ElasticsearchStatusException("no such index", RestStatus.NOT_FOUND);
+        for (int i = 0; i < 10; i++) {
+            CompletableFuture<Object> result = guard.execute(() -> CompletableFuture.failedFuture(notFound));
+            assertSame(notFound, assertThrows(ExecutionException.class, result::get).getCause());
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, guard.getBreaker().getState());
+    }
+
+    @Test
+    void synchronousThrowsAreNotRecordedAsSuccess() {
+        ClusterGuard guard = new ClusterGuard("search", 10, 0, -1, breaker(Long.MAX_VALUE, 1_000_000_000L));
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalStateException.class, () -> guard.execute(() -> {
+                throw new IllegalStateException("bad request");
+            }));
+        }
+        assertEquals(0, guard.getActive());
+        assertEquals(0, guard.getBreaker().getFailureRate());
+
+        guard.execute(() -> CompletableFuture.failedFuture(new ConnectException("refused")));
+        assertThrows(ElasticsearchStatusException.class, () -> guard.execute(() -> {
+            throw new ElasticsearchStatusException("unavailable", RestStatus.SERVICE_UNAVAILABLE);
+        }));
+        assertEquals(1.0, guard.getBreaker().getFailureRate());
+    }
+
+    @Test
+    void slowCallsOpenBreaker() {
+        ClusterGuard guard = new ClusterGuard("search", 10, 0, -1, breaker(0, 1_000_000_000L));
+        for (int i = 0; i < 4; i++) {
+            guard.execute(() -> CompletableFuture.completedFuture("slow"));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.getBreaker().getState());
+    }
+
+    @Test
+    void rateLimiterRejectsOrWaitsWithinMaxWait() {
+        ClusterGuard failFast = new ClusterGuard("search", 10, 0, 2, breaker(Long.MAX_VALUE, 1_000_000_000L));
+        failFast.execute(() -> CompletableFuture.completedFuture("1")).join();
+        failFast.execute(() -> CompletableFuture.completedFuture("2")).join();
+        assertEquals(ClusterGuard.Rejection.RATE_LIMITED,
+                rejection(failFast.execute(() -> CompletableFuture.completedFuture("3"))));
+        assertEquals(0, failFast.getActive());
+
+        ClusterGuard waiting = new ClusterGuard("bulk", 10, TimeUnit.SECONDS.toNanos(2), 20, breaker(Long.MAX_VALUE, 1_000_000_000L));
+        long start = System.nanoTime();
+        for (int i = 0; i < 25; i++) {
+            waiting.execute(() -> CompletableFuture.completedFuture("x")).join();
+        }
+        //桶里一开始有 20 个令牌，剩下 5 个要按每秒 20 个的速度等
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(0, waiting.getRejected(ClusterGuard.Rejection.RATE_LIMITED));
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.elk.client;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CoalescingClientTest {
+
+    private static final String MGET = "{\"docs\":["
+            + doc(1) + "," + doc(2) + "," + doc(3) + "]}";
+
+    private static String doc(int id) {
+        return "{\"_index\":\"article1\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"_version\":1,\"_seq_no\":" + id
+                + ",\"_primary_term\":1,\"found\":true,\"_source\":{\"id\":" + id + ",\"title\":\"测试" + id + "\"}}";
+    }
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(16).route("_mget", MGET).latency(200).start();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    @Test
+    void concurrentIdenticalSearchesShareOneRequest() throws Exception {
+        CoalescingClient coalescing = new CoalescingClient(client, "2ms", 100);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<SearchResponse>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return coalescing.search(new SearchRequest("article_index")
+                        .source(new SearchSourceBuilder().query(QueryBuilders.matchAllQuery())), RequestOptions.DEFAULT);
+            }));
+        }
+        start.countDown();
+        SearchResponse first = results.get(0).get();
+        for (Future<SearchResponse> result : results) {
+            assertSame(first, result.get());
+        }
+        pool.shutdown();
+
+        assertEquals(1, stub.calls("_search"));
+        assertEquals(7, coalescing.getCoalescedSearches());
+    }
+
+    @Test
+    void searchesDifferingOutsideBodyAreNotCoalesced() throws Exception {
+        CoalescingClient coalescing = new CoalescingClient(client, "2ms", 100);
+        SearchSourceBuilder source = new SearchSourceBuilder().query(QueryBuilders.matchAllQuery());
+        CompletableFuture<SearchResponse> plain = coalescing.searchAsync(new SearchRequest("article_index").source(source),
+                RequestOptions.DEFAULT);
+        CompletableFuture<SearchResponse> noRequestCache = coalescing.searchAsync(new SearchRequest("article_index")
+                .source(source).requestCache(false), RequestOptions.DEFAULT);
+        CompletableFuture<SearchResponse> withHeader = coalescing.searchAsync(new SearchRequest("article_index").source(source),
+                RequestOptions.DEFAULT.toBuilder().addHeader("X-Opaque-Id", "a").build());
+        CompletableFuture.allOf(plain, noRequestCache, withHeader).get();
+
+        assertEquals(3, stub.calls("_search"));
+        assertEquals(0, coalescing.getCoalescedSearches());
+    }
+
+    @Test
+    void getsInsideWindowBecomeOneMget() throws Exception {
+        CoalescingClient coalescing = new CoalescingClient(client, "50ms", 100);
+        CompletableFuture<GetResponse> one = coalescing.getAsync(new GetRequest("article1").id("1"));
+        CompletableFuture<GetResponse> two = coalescing.getAsync(new GetRequest("article1").id("2"));
+        CompletableFuture<GetResponse> oneAgain = coalescing.getAsync(new GetRequest("article1").id("1"));
+        CompletableFuture<GetResponse> three = coalescing.getAsync(new GetRequest("article1").id("3"));
+
+        assertEquals("1", one.get().getId());
+        assertEquals("2", two.get().getId());
+        assertEquals("3", three.get().getId());
+        assertSame(one.get(), oneAgain.get());
+        assertEquals(1, stub.calls("_mget"));
+        assertEquals(1, coalescing.getCoalescedGets());
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.elk.client;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgedSearchClientTest {
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+    private HedgedSearchClient hedged;
+    /**
+     * 前 slowCalls 个请求卡 2 秒，模拟落在正在 GC 的节点上
+     */
+    private volatile int slowCalls;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(8)
+                .route("article_index/_search", () -> {
+                    if (calls.incrementAndGet() <= slowCalls) {
+                        try {
+                            Thread.sleep(2000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return StubElasticsearch.SEARCH_RESPONSE;
+                })
+                .start();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())));
+        hedged = new HedgedSearchClient(client, 0.95, "100ms", "5ms", 1.0);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        hedged.close();
+        client.close();
+        stub.close();
+    }
+
+    @Test
+    void slowRequestIsHedgedAndFirstResponseWins() throws Exception {
+        slowCalls = 1;
+        long start = System.nanoTime();
+
+        SearchResponse response = hedged.searchAsync(request(), RequestOptions.DEFAULT).get(5, TimeUnit.SECONDS);
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertNotNull(response);
+        assertTrue(elapsedMillis < 1500, "对冲请求应该先返回,实际耗时" + elapsedMillis + "ms");
+        assertEquals(1, hedged.getHedged());
+        assertEquals(1, hedged.getHedgeWins());
+        //赢家和被取消的第一个请求各记一个样本
+        assertEquals(2, hedged.getSamples());
+    }
+
+    @Test
+    void fastRequestIsNotHedged() throws Exception {
+        //第一次请求要加载类、建连接，等待时间放宽，免得它被对冲
+        hedged.close();
+        hedged = new HedgedSearchClient(client, 0.95, "2s", "5ms", 1.0);
+        for (int i = 0; i < 3; i++) {
+            hedged.searchAsync(request(), RequestOptions.DEFAULT).get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(3, hedged.getRequests());
+        assertEquals(0, hedged.getHedged());
+        assertEquals(3, hedged.getSamples());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void failureBeforeHedgeIsReturnedWithoutRetry() {
+        //连接被拒绝，在对冲之前就失败
+        stub.close();
+
+        assertThrows(ExecutionException.class, () -> hedged.searchAsync(request(), RequestOptions.DEFAULT).get(5, TimeUnit.SECONDS));
+        assertEquals(0, hedged.getHedged());
+    }
+
+    private static SearchRequest request() {
+        return new SearchRequest("article_index").source(new SearchSourceBuilder());
+    }
+}
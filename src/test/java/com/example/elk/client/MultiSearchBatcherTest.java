@@ -0,0 +1,153 @@
+package com.example.elk.client;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultiSearchBatcherTest {
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+
+    /**
+     * 每个查询返回一条响应，took 是它在请求里的序号（从 1 开始），查 missing 索引的那条返回 404
+     */
+    private String msearchResponse() {
+        String[] lines = stub.lastBody("_msearch").split("\n");
+        StringBuilder responses = new StringBuilder("{\"took\":1,\"responses\":[");
+        for (int i = 0; i < lines.length / 2; i++) {
+            responses.append(i == 0 ? "" : ",");
+            if (lines[i * 2].contains("missing")) {
+                responses.append("{\"error\":{\"root_cause\":[],\"type\":\"index_not_found_exception\","
+                        + "\"reason\":\"no such index [missing]\"},\"status\":404}");
+            } else {
+                String item = StubElasticsearch.SEARCH_RESPONSE.replace("\"took\":1", "\"took\":" + (i + 1));
+                responses.append(item, 0, item.length() - 1).append(",\"status\":200}");
+            }
+        }
+        return responses.append("]}").toString();
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(8);
+        stub.route("_msearch", this::msearchResponse).start();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    private static SearchRequest request(String index, String title) {
+        return new SearchRequest(index).source(new SearchSourceBuilder().query(QueryBuilders.termQuery("title", title)));
+    }
+
+    @Test
+    void scopeSendsOneMsearchAndDemultiplexes() {
+        MultiSearchBatcher batcher = new MultiSearchBatcher(client, "0ms", 50, 2);
+        List<CompletableFuture<SearchResponse>> futures = new ArrayList<>();
+        try (MultiSearchBatcher.Scope scope = batcher.scope()) {
+            assertTrue(batcher.isBatching());
+            for (int i = 0; i < 3; i++) {
+                futures.add(batcher.searchAsync(request("article_index", "t" + i), RequestOptions.DEFAULT));
+            }
+            futures.add(scope.search(request("article_index", "t3")));
+            assertEquals(0, stub.calls("_msearch"));
+        }
+        assertFalse(batcher.isBatching());
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i + 1, futures.get(i).join().getTook().millis());
+        }
+        assertEquals(1, stub.calls("_msearch"));
+        assertEquals(0, stub.calls("_search"));
+        assertEquals(4, batcher.getBatchedSearches());
+        assertTrue(stub.lastBody("_msearch").contains("\"t3\""));
+    }
+
+    @Test
+    void failedItemOnlyFailsItsCaller() {
+        MultiSearchBatcher batcher = new MultiSearchBatcher(client, "0ms", 50, 0);
+        CompletableFuture<SearchResponse> ok;
+        CompletableFuture<SearchResponse> missing;
+        try (MultiSearchBatcher.Scope ignored = batcher.scope()) {
+            ok = batcher.searchAsync(request("article_index", "a"), RequestOptions.DEFAULT);
+            missing = batcher.searchAsync(request("missing", "b"), RequestOptions.DEFAULT);
+        }
+
+        assertEquals(1, ok.join().getHits().getHits().length);
+        CompletionException e = assertThrows(CompletionException.class, missing::join);
+        assertInstanceOf(ElasticsearchException.class, e.getCause());
+    }
+
+    @Test
+    void singleSearchUsesPlainSearch() {
+        stub.route("_search", StubElasticsearch.SEARCH_RESPONSE);
+        MultiSearchBatcher batcher = new MultiSearchBatcher(client, "0ms", 50, 0);
+        CompletableFuture<SearchResponse> future;
+        try (MultiSearchBatcher.Scope ignored = batcher.scope()) {
+            future = batcher.searchAsync(request("article_index", "a"), RequestOptions.DEFAULT);
+        }
+
+        assertEquals(1, future.join().getHits().getHits().length);
+        assertEquals(1, stub.calls("_search"));
+        assertEquals(0, stub.calls("_msearch"));
+    }
+
+    @Test
+    void windowBatchesSearchesFromDifferentCallers() {
+        MultiSearchBatcher batcher = new MultiSearchBatcher(client, "50ms", 50, 0);
+        assertTrue(batcher.isBatching());
+        List<CompletableFuture<SearchResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(batcher.searchAsync(request("article_index", "t" + i), RequestOptions.DEFAULT));
+        }
+
+        futures.forEach(CompletableFuture::join);
+        assertEquals(1, stub.calls("_msearch"));
+        assertEquals(1, batcher.getMsearchRequests());
+        batcher.close();
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaitingForWindow() {
+        MultiSearchBatcher batcher = new MultiSearchBatcher(client, "1m", 2, 0);
+        long start = System.nanoTime();
+        List<CompletableFuture<SearchResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(batcher.searchAsync(request("article_index", "t" + i), RequestOptions.DEFAULT));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i % 2 + 1, futures.get(i).join().getTook().millis());
+        }
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+        assertEquals(2, stub.calls("_msearch"));
+        batcher.close();
+    }
+}
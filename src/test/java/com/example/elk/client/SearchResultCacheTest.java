@@ -0,0 +1,139 @@
+package com.example.elk.client;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SearchResultCacheTest {
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(4).start();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    private static SearchRequest termQuery(String value) {
+        return new SearchRequest("article_index")
+                .source(new SearchSourceBuilder().query(QueryBuilders.termQuery("content.keyword", value)));
+    }
+
+    @Test
+    void identicalBodiesHitTheCache() throws IOException {
+        SearchResultCache cache = new SearchResultCache(client, "64mb", "1m", "0ms");
+        cache.search(termQuery("兢兢业业工作"), RequestOptions.DEFAULT);
+        cache.search(termQuery("兢兢业业工作"), RequestOptions.DEFAULT);
+        cache.search(termQuery("每日充电"), RequestOptions.DEFAULT);
+
+        assertEquals(2, stub.calls("_search"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void parametersOutsideBodyAndNonDefaultOptionsAreNotShared() throws IOException {
+        SearchResultCache cache = new SearchResultCache(client, "64mb", "1m", "0ms");
+        cache.search(termQuery("job"), RequestOptions.DEFAULT);
+        cache.search(termQuery("job").requestCache(false), RequestOptions.DEFAULT);
+        cache.search(termQuery("job").searchType(SearchType.DFS_QUERY_THEN_FETCH), RequestOptions.DEFAULT);
+        cache.search(termQuery("job"), RequestOptions.DEFAULT.toBuilder().addHeader("X-Opaque-Id", "a").build());
+        assertEquals(4, stub.calls("_search"));
+
+        cache.search(termQuery("job").requestCache(false), RequestOptions.DEFAULT);
+        assertEquals(4, stub.calls("_search"));
+    }
+
+    @Test
+    void writeToSameIndexInvalidates() throws IOException {
+        SearchResultCache cache = new SearchResultCache(client, "64mb", "1m", "0ms");
+        cache.search(termQuery("job"), RequestOptions.DEFAULT);
+        cache.afterWrite(List.<DocWriteRequest<?>>of(new IndexRequest("other_index")));
+        cache.search(termQuery("job"), RequestOptions.DEFAULT);
+        assertEquals(1, stub.calls("_search"));
+
+        cache.afterWrite(List.<DocWriteRequest<?>>of(new IndexRequest("article_index")));
+        cache.search(termQuery("job"), RequestOptions.DEFAULT);
+        assertEquals(2, stub.calls("_search"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverWeight() throws IOException {
+        //每条缓存估算在 1kb 左右，上限 2kb 只能放下两条
+        SearchResultCache cache = new SearchResultCache(client, "2kb", "1m", "0ms");
+        cache.search(termQuery("a"), RequestOptions.DEFAULT);
+        cache.search(termQuery("b"), RequestOptions.DEFAULT);
+        cache.search(termQuery("a"), RequestOptions.DEFAULT);
+        cache.search(termQuery("c"), RequestOptions.DEFAULT);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        cache.search(termQuery("a"), RequestOptions.DEFAULT);
+        assertEquals(3, stub.calls("_search"));
+        cache.search(termQuery("b"), RequestOptions.DEFAULT);
+        assertEquals(4, stub.calls("_search"));
+    }
+
+    @Test
+    void expiredEntriesAreRefetched() throws Exception {
+        SearchResultCache cache = new SearchResultCache(client, "64mb", "20ms", "0ms");
+        cache.search(termQuery("job"), RequestOptions.DEFAULT);
+        Thread.sleep(50);
+        cache.search(termQuery("job"), RequestOptions.DEFAULT);
+        assertEquals(2, stub.calls("_search"));
+    }
+
+    @Test
+    void asyncSearchGoesThroughCacheBeforeSingleFlight() throws Exception {
+        SearchResultCache cache = new SearchResultCache(client, "64mb", "1m", "0ms");
+        CoalescingClient coalescing = new CoalescingClient(client, "2ms", 100);
+        Function<SearchRequest, CompletableFuture<SearchResponse>> send = request -> {
+            try {
+                return coalescing.searchAsync(request, RequestOptions.DEFAULT);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        };
+        cache.searchAsync(termQuery("job"), send).get();
+        cache.searchAsync(termQuery("job"), send).get();
+        assertEquals(1, stub.calls("_search"));
+        assertEquals(1, cache.getHits());
+
+        //写入后不再命中，但降级仍然能拿到上一次的结果
+        cache.afterWrite(List.<DocWriteRequest<?>>of(new IndexRequest("article_index")));
+        SearchResponse stale = cache.stale(termQuery("job"));
+        assertNotNull(stale);
+        //降级结果不会被当成新结果缓存下来
+        assertSame(stale, cache.searchAsync(termQuery("job"), request -> CompletableFuture.completedFuture(stale)).get());
+        cache.searchAsync(termQuery("job"), send).get();
+        assertEquals(2, stub.calls("_search"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.elk.codec;
+
+import com.example.elk.bean.Article;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchResponseSections;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ArticleHitMapperTest {
+
+    private static SearchHit hit(String source) {
+        return new SearchHit(0, "1", null, Collections.emptyMap(), Collections.emptyMap()).sourceRef(new BytesArray(source));
+    }
+
+    @Test
+    void bindsAllFields() {
+        Article article = ArticleHitMapper.ALL.map(hit("{\"content\":\"每日充电\",\"id\":2,\"title\":\"学习\"}"));
+        assertEquals(2L, article.getId());
+        assertEquals("学习", article.getTitle());
+        assertEquals("每日充电", article.getContent());
+    }
+
+    @Test
+    void skipsFieldsNotIncluded() {
+        SearchSourceBuilder builder = new SearchSourceBuilder().fetchSource(new String[]{"id", "title"}, new String[]{});
+        Article article = ArticleHitMapper.of(builder).map(hit("{\"id\":\"3\",\"title\":\"工作\",\"content\":\"兢兢业业工作\"}"));
+        assertEquals(3L, article.getId());
+        assertEquals("工作", article.getTitle());
+        assertNull(article.getContent());
+    }
+
+    @Test
+    void ignoresUnknownAndNestedFields() {
+        Article article = ArticleHitMapper.ALL.map(hit("{\"tags\":[\"a\",{\"b\":1}],\"meta\":{\"x\":[1,2]},\"id\":4,\"title\":null}"));
+        assertEquals(4L, article.getId());
+        assertNull(article.getTitle());
+    }
+
+    @Test
+    void hitsWithoutSourceKeepOnlyNumericIds() {
+        SearchHit noSource = new SearchHit(1, "5", null, Collections.emptyMap(), Collections.emptyMap());
+        SearchHit notNumeric = new SearchHit(2, "abc", null, Collections.emptyMap(), Collections.emptyMap());
+        SearchHit[] hits = {hit("{\"id\":2,\"title\":\"学习\"}"), noSource, notNumeric};
+        SearchResponse response = new SearchResponse(new SearchResponseSections(
+                new SearchHits(hits, new TotalHits(3, TotalHits.Relation.EQUAL_TO), 1), null, null, false, null, null, 1),
+                null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+
+        List<Article> list = ArticleHitMapper.ALL.toList(response);
+        assertEquals(2, list.size());
+        assertEquals(2L, list.get(0).getId());
+        assertEquals(5L, list.get(1).getId());
+        assertNull(list.get(1).getTitle());
+
+        List<Long> ids = new ArrayList<>();
+        for (Iterator<Article> it = ArticleHitMapper.ALL.iterator(response); it.hasNext(); ) {
+            ids.add(it.next().getId());
+        }
+        assertEquals(List.of(2L, 5L), ids);
+    }
+
+    @Test
+    void getWithoutSourceFallsBackToId() {
+        GetResponse withSource = new GetResponse(new GetResult("article_index", "_doc", "6", 0, 1, 1, true,
+                new BytesArray("{\"id\":6,\"title\":\"学习\"}"), null, null));
+        GetResponse noSource = new GetResponse(new GetResult("article_index", "_doc", "7", 0, 1, 1, true, null, null, null));
+
+        assertEquals("学习", ArticleHitMapper.ALL.map(withSource).getTitle());
+        assertEquals(7L, ArticleHitMapper.ALL.map(noSource).getId());
+        assertNull(ArticleHitMapper.ALL.map(noSource).getTitle());
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.elk.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.example.elk.bean.Article;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ArticleWriterTest {
+
+    @Test
+    void sameDocumentAsFastjson() {
+        Article article = new Article(3L, "工作", "兢兢业业工作");
+        byte[] bytes = ArticleWriter.toBytes(article);
+        assertEquals(JSON.parseObject(JSON.toJSONString(article)),
+                JSON.parseObject(new String(bytes, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void skipsNullFields() {
+        JSONObject json = JSON.parseObject(new String(ArticleWriter.toBytes(new Article(4L, "job", null)), StandardCharsets.UTF_8));
+        assertFalse(json.containsKey("content"));
+        assertEquals("job", json.getString("title"));
+    }
+
+    @Test
+    void bufferReuseDoesNotLeakPreviousDocument() {
+        ArticleWriter.toBytes(new Article(1L, "一个很长很长的标题", "很长很长的内容"));
+        assertEquals("{\"id\":2}", new String(ArticleWriter.toBytes(new Article(2L, null, null)), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.elk.codec;
+
+import com.example.elk.bean.Article;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HighlightProjectionTest {
+
+    private static final HighlightProjection SNIPPETS = HighlightProjection.of(new String[]{"title", "content"},
+            new String[]{"id"}, "<em>", "</em>", 50, 2);
+
+    private static SearchHit hit(String source, HighlightField... highlights) {
+        SearchHit hit = new SearchHit(0, "7", null, Collections.emptyMap(), Collections.emptyMap());
+        if (source != null) {
+            hit.sourceRef(new BytesArray(source));
+        }
+        Map<String, HighlightField> fields = new HashMap<>();
+        for (HighlightField highlight : highlights) {
+            fields.put(highlight.getName(), highlight);
+        }
+        hit.highlightFields(fields);
+        return hit;
+    }
+
+    @Test
+    void mergesFragmentsIntoSelectedFields() {
+        Article article = SNIPPETS.map(hit("{\"id\":7,\"content\":\"不应该被读出来\"}",
+                new HighlightField("content", new Text[]{new Text("<em>搜索</em>很快"), new Text("<em>搜索</em>免费")})));
+        assertEquals(7L, article.getId());
+        assertNull(article.getTitle());
+        assertEquals("<em>搜索</em>很快 ... <em>搜索</em>免费", article.getContent());
+    }
+
+    @Test
+    void takesIdFromHitWithoutSource() {
+        Article article = SNIPPETS.map(hit(null, new HighlightField("title", new Text[]{new Text("<em>学习</em>")})));
+        assertEquals(7L, article.getId());
+        assertEquals("<em>学习</em>", article.getTitle());
+
+        SearchHit notNumeric = new SearchHit(1, "abc", null, Collections.emptyMap(), Collections.emptyMap());
+        notNumeric.highlightFields(Collections.emptyMap());
+        assertNull(SNIPPETS.map(notNumeric).getId());
+    }
+
+    @Test
+    void sharedConfigurationRendersSameRequest() {
+        String first = Strings.toString(SNIPPETS.apply(new SearchSourceBuilder().query(QueryBuilders.termQuery("title", "a"))));
+        String second = Strings.toString(SNIPPETS.apply(new SearchSourceBuilder().query(QueryBuilders.termQuery("title", "a"))));
+        assertEquals(first, second);
+        assertTrue(first.contains("\"_source\":{\"includes\":[\"id\"],\"excludes\":[]}"));
+        assertTrue(first.contains("\"number_of_fragments\":2"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.elk.codec;
+
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.elk.codec.QueryTemplate.param;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryTemplateTest {
+
+    private static final QueryTemplate TITLE_IN_ID_RANGE = QueryTemplate.compile(new SearchSourceBuilder()
+            .query(QueryBuilders.boolQuery()
+                    .must(QueryBuilders.termQuery("title", param("title")))
+                    .must(QueryBuilders.rangeQuery("id").gt(param("idFrom")).lte(param("idTo")))));
+
+    private static String render(QueryTemplate template, Map<String, ?> params) {
+        return new String(template.render(params), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void rendersSameJsonAsSearchSourceBuilder() throws Exception {
+        SearchSourceBuilder source = new SearchSourceBuilder().query(QueryBuilders.boolQuery()
+                .must(QueryBuilders.termQuery("title", "学习"))
+                .must(QueryBuilders.rangeQuery("id").gt(1).lte(4)));
+        String expected = XContentHelper.toXContent(source, XContentType.JSON, false).utf8ToString();
+
+        assertEquals(expected, render(TITLE_IN_ID_RANGE, Map.of("title", "学习", "idFrom", 1, "idTo", 4)));
+        assertEquals(List.of("title", "idFrom", "idTo"), List.copyOf(TITLE_IN_ID_RANGE.getParameters()));
+    }
+
+    @Test
+    void escapesStringsAndFillsListSlots() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("title", "a\"}b");
+        params.put("idFrom", null);
+        params.put("idTo", 4);
+        String body = render(TITLE_IN_ID_RANGE, params);
+        assertTrue(body.contains("\"value\":\"a\\\"}b\""));
+        assertTrue(body.contains("\"from\":null"));
+
+        QueryTemplate titles = QueryTemplate.compile(new SearchSourceBuilder()
+                .query(QueryBuilders.termsQuery("title", param("titles"))));
+        assertTrue(render(titles, Map.of("titles", List.of("学习", "工作"))).contains("\"title\":[\"学习\",\"工作\"]"));
+        assertTrue(render(titles, Map.of("titles", "学习")).contains("\"title\":[\"学习\"]"));
+        assertThrows(IllegalArgumentException.class, () -> TITLE_IN_ID_RANGE.render(Map.of(
+                "title", List.of("学习"), "idFrom", 1, "idTo", 4)));
+    }
+
+    @Test
+    void rejectsMissingParametersAndAggregations() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> TITLE_IN_ID_RANGE.render(Map.of("title", "学习", "idFrom", 1)));
+        assertEquals("缺少参数:idTo", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> QueryTemplate.compile(new SearchSourceBuilder()
+                .aggregation(AggregationBuilders.terms("by_title").field("title.keyword"))));
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.elk.config;
+
+import com.example.elk.metrics.InFlightRequests;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientLifecycleTest {
+
+    private static final String INFO = "{\"name\":\"node-1\",\"cluster_name\":\"my-elasticsearch\",\"cluster_uuid\":\"uuid\","
+            + "\"version\":{\"number\":\"7.12.1\",\"build_flavor\":\"default\",\"build_type\":\"tar\",\"build_hash\":\"hash\","
+            + "\"build_date\":\"2021-04-20T20:56:39.040728659Z\",\"build_snapshot\":false,\"lucene_version\":\"8.8.0\","
+            + "\"minimum_wire_compatibility_version\":\"6.8.0\",\"minimum_index_compatibility_version\":\"6.0.0-beta1\"},"
+            + "\"tagline\":\"You Know, for Search\"}";
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+    private InFlightRequests inFlight;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(8)
+                .route("GET /", INFO)
+                .route("HEAD /", "")
+                .start();
+        inFlight = new InFlightRequests();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address()))
+                .setHttpClientConfigCallback(inFlight::instrument));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    @Test
+    void warmUpChecksClusterAndOpensConnections() {
+        ClientLifecycle lifecycle = new ClientLifecycle(client, inFlight, true, 4, "2s", "1s");
+
+        lifecycle.start();
+
+        assertTrue(lifecycle.isRunning());
+        assertEquals(1, stub.calls("GET /"));
+        assertEquals(4, stub.calls("HEAD /"));
+        assertEquals(0, inFlight.get());
+    }
+
+    @Test
+    void warmUpIsSkippedWhenClusterIsDown() throws IOException {
+        stub.close();
+        ClientLifecycle lifecycle = new ClientLifecycle(client, inFlight, true, 4, "2s", "1s");
+
+        lifecycle.start();
+
+        assertTrue(lifecycle.isRunning());
+        assertEquals(0, stub.calls("HEAD /"));
+    }
+
+    @Test
+    void stopWaitsForInFlightRequests() {
+        stub.latency(300);
+        ClientLifecycle lifecycle = new ClientLifecycle(client, inFlight, false, 4, "2s", "5s");
+        lifecycle.start();
+        CompletableFuture<SearchResponse> search = new CompletableFuture<>();
+        client.searchAsync(new SearchRequest("article_index").source(new SearchSourceBuilder()), RequestOptions.DEFAULT,
+                ActionListener.wrap(search::complete, search::completeExceptionally));
+
+        lifecycle.stop();
+
+        assertFalse(lifecycle.isRunning());
+        assertEquals(0, inFlight.get());
+        assertEquals(1, stub.calls("_search"));
+    }
+}
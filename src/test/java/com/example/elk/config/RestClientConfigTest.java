@@ -0,0 +1,55 @@
+package com.example.elk.config;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RestClientConfigTest {
+
+    /**
+     * 嗅探结果里没有节点时 Sniffer 不替换节点列表，连不上的节点一直留着
+     */
+    @Test
+    void nodeFailureTriggersSniff() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_nodes/http", "{\"_nodes\":{\"total\":0,\"successful\":0,\"failed\":0},\"cluster_name\":\"c\",\"nodes\":{}}")
+                .route("GET /", "{}")
+                .start()) {
+            RestClientConfig config = new RestClientConfig();
+            ReflectionTestUtils.setField(config, "servers", new String[]{stub.address(), "http://127.0.0.1:1"});
+            ReflectionTestUtils.setField(config, "scheme", "http");
+            ReflectionTestUtils.setField(config, "maxConnTotal", 10);
+            ReflectionTestUtils.setField(config, "maxConnPerRoute", 10);
+            ReflectionTestUtils.setField(config, "keepAliveMillis", 60000L);
+            ReflectionTestUtils.setField(config, "connectTimeoutMillis", 1000);
+            ReflectionTestUtils.setField(config, "socketTimeoutMillis", 30000);
+            ReflectionTestUtils.setField(config, "sniffEnabled", true);
+            try (RestHighLevelClient client = config.restHighLevelClient();
+                 Sniffer ignored = config.sniffer(client, 3_600_000, 3_600_000)) {
+                waitForSniffs(stub, 1);
+                //第一次嗅探的响应处理完之前 Sniffer 不接受失败触发的嗅探
+                Thread.sleep(300);
+
+                //轮询两个节点，总有一次先落到连不上的节点上
+                for (int i = 0; i < 2; i++) {
+                    client.getLowLevelClient().performRequest(new Request("GET", "/"));
+                }
+                waitForSniffs(stub, 2);
+                assertEquals(2, stub.calls("_nodes/http"));
+            }
+        }
+    }
+
+    private static void waitForSniffs(StubElasticsearch stub, int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && stub.calls("_nodes/http") < expected; i++) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.elk.controller;
+
+import com.example.elk.bean.Article;
+import com.example.elk.stub.StubElasticsearch;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "server.tomcat.threads.max=4",
+        "es.cache.refresh-interval=0ms",
+        //每个用例都要看到自己发出的请求体，查询结果缓存立即过期
+        "es.cache.ttl=0ms"
+})
+class ArticleControllerTest {
+
+    private static final String HIGHLIGHT_RESPONSE = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":1,\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":["
+            + "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":1.0,"
+            + "\"_source\":{\"id\":1,\"title\":\"学习\",\"content\":\"每日充电\"},"
+            + "\"highlight\":{\"title\":[\"<em>学习</em>\"]}}]}}";
+
+    private static final String INDEX_RESPONSE = "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"5\","
+            + "\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+            + "\"_seq_no\":0,\"_primary_term\":1}";
+
+    private static final Pattern ID = Pattern.compile("\"_id\":\"(\\d+)\"");
+
+    private static final StubElasticsearch STUB;
+
+    /**
+     * 不为 null 时每个 _search 都要等到有这么多个查询同时到达 es 才返回
+     */
+    private static volatile CountDownLatch searchGate;
+    private static final AtomicInteger gateTimeouts = new AtomicInteger();
+
+    static {
+        try {
+            STUB = new StubElasticsearch(64).latency(300);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        //id 小于 100 的文档存在，按请求里的顺序返回
+        STUB.route("_search", () -> {
+                    CountDownLatch gate = searchGate;
+                    if (gate != null) {
+                        gate.countDown();
+                        try {
+                            if (!gate.await(5, TimeUnit.SECONDS)) {
+                                gateTimeouts.incrementAndGet();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return HIGHLIGHT_RESPONSE;
+                })
+                .route("_mget", () -> {
+                    StringBuilder docs = new StringBuilder("{\"docs\":[");
+                    Matcher m = ID.matcher(STUB.lastBody("_mget"));
+                    for (int i = 0; m.find(); i++) {
+                        String id = m.group(1);
+                        docs.append(i == 0 ? "" : ",").append("{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"").append(id);
+                        if (Long.parseLong(id) < 100) {
+                            docs.append("\",\"_version\":1,\"_seq_no\":1,\"_primary_term\":1,\"found\":true,\"_source\":{\"id\":")
+                                    .append(id).append(",\"title\":\"标题").append(id).append("\"}}");
+                        } else {
+                            docs.append("\",\"found\":false}");
+                        }
+                    }
+                    return docs.append("]}").toString();
+                })
+                //每个查询都返回 HIGHLIGHT_RESPONSE
+                .route("_msearch", () -> {
+                    int searches = STUB.lastBody("_msearch").split("\n").length / 2;
+                    String item = HIGHLIGHT_RESPONSE.substring(0, HIGHLIGHT_RESPONSE.length() - 1) + ",\"status\":200}";
+                    return "{\"took\":1,\"responses\":[" + String.join(",", Collections.nCopies(searches, item)) + "]}";
+                })
+                .route("PUT _doc/", INDEX_RESPONSE)
+                .start();
+    }
+
+    @DynamicPropertySource
+    static void esProperties(DynamicPropertyRegistry registry) {
+        registry.add("es.servers", STUB::address);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        STUB.close();
+    }
+
+    @Autowired
+    private TestRestTemplate rest;
+
+    @Test
+    void getById() {
+        ResponseEntity<Article> response = rest.getForEntity("/articles/7", Article.class);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(7L, response.getBody().getId());
+        assertEquals("标题7", response.getBody().getTitle());
+
+        assertEquals(HttpStatus.NOT_FOUND, rest.getForEntity("/articles/123", Article.class).getStatusCode());
+    }
+
+    @Test
+    void termSearch() {
+        Article[] articles = rest.getForObject("/articles/search/term?field=title&value=学习", Article[].class);
+        assertEquals(1, articles.length);
+        assertEquals("学习", articles[0].getTitle());
+        assertTrue(STUB.lastBody("_search").contains("\"term\":{\"title\""));
+    }
+
+    @Test
+    void boolShouldSearch() {
+        rest.getForObject("/articles/search/bool?title=学习&idFrom=1&idTo=3&mode=should", Article[].class);
+        String body = STUB.lastBody("_search");
+        assertTrue(body.contains("\"should\""));
+        assertTrue(body.contains("\"range\":{\"id\""));
+    }
+
+    @Test
+    void highlightReplacesField() {
+        Article[] articles = rest.getForObject("/articles/search/highlight?keyword=学习&preTag=<em>&postTag=</em>", Article[].class);
+        assertEquals("<em>学习</em>", articles[0].getTitle());
+        assertEquals("每日充电", articles[0].getContent());
+    }
+
+    @Test
+    void snippetsFetchOnlyIdAndTitle() {
+        Article[] articles = rest.getForObject("/articles/search/snippets?keyword=学习", Article[].class);
+        assertEquals("<em>学习</em>", articles[0].getTitle());
+        assertNull(articles[0].getContent());
+        String body = STUB.lastBody("_search");
+        assertTrue(body.contains("\"_source\":{\"includes\":[\"id\",\"title\"]"));
+        assertTrue(body.contains("\"fragment_size\":100"));
+    }
+
+    @Test
+    void templateSearchFillsParameters() {
+        Article[] articles = rest.getForObject("/articles/search/template/title-in-id-range?title=学习&idFrom=1&idTo=3&size=5",
+                Article[].class);
+        assertEquals("学习", articles[0].getTitle());
+        String body = STUB.lastBody("_search");
+        assertTrue(body.contains("\"term\":{\"title\":{\"value\":\"学习\""));
+        assertTrue(body.contains("\"from\":\"1\""));
+        assertFalse(body.contains("size"));
+
+        assertEquals(HttpStatus.BAD_REQUEST, rest.getForEntity("/articles/search/template/title-in-id-range?title=学习",
+                Map.class).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, rest.getForEntity("/articles/search/template/unknown", Map.class).getStatusCode());
+    }
+
+    @Test
+    void dashboardSendsOneMsearch() {
+        int before = STUB.calls("_msearch");
+        Map<?, ?> result = rest.getForObject("/articles/search/dashboard?title=学习&idFrom=1&idTo=3", Map.class);
+
+        assertEquals(Set.of("must", "should", "range", "highlight"), result.keySet());
+        assertEquals("<em>学习</em>", ((Map<?, ?>) ((List<?>) result.get("highlight")).get(0)).get("title"));
+        assertEquals(before + 1, STUB.calls("_msearch"));
+        String body = STUB.lastBody("_msearch");
+        assertTrue(body.contains("\"must\"") && body.contains("\"should\"") && body.contains("\"highlight\""));
+    }
+
+    @Test
+    void indexArticle() {
+        Map<?, ?> result = rest.postForObject("/articles", new Article(5L, "标题", "内容"), Map.class);
+        assertEquals("created", result.get("result"));
+        assertTrue(STUB.lastBody("PUT _doc/").contains("\"title\":\"标题\""));
+    }
+
+    /**
+     * tomcat 只有 4 个工作线程，阻塞写法下同时到达 es 的查询不会超过 4 个；
+     * 这里要求 10 个查询同时挂在 es 上才放行，tomcat 线程被占住的话闸门打不开，查询会等到超时
+     */
+    @Test
+    void slowEsDoesNotHoldTomcatThreads() {
+        CountDownLatch gate = new CountDownLatch(10);
+        gateTimeouts.set(0);
+        searchGate = gate;
+        ExecutorService callers = Executors.newFixedThreadPool(40);
+        try {
+            List<CompletableFuture<Article[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                String url = "/articles/search/term?field=title&value=v" + i;
+                futures.add(CompletableFuture.supplyAsync(() -> rest.getForObject(url, Article[].class), callers));
+            }
+            for (CompletableFuture<Article[]> future : futures) {
+                assertEquals(1L, future.join()[0].getId());
+            }
+        } finally {
+            searchGate = null;
+            callers.shutdown();
+        }
+
+        assertEquals(0, gate.getCount());
+        assertEquals(0, gateTimeouts.get());
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.elk.metrics;
+
+import com.example.elk.stub.StubElasticsearch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientMetricsTest {
+
+    private StubElasticsearch stub;
+    private SimpleMeterRegistry registry;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(4).cannedRoutes()
+                .route("_search", StubElasticsearch.SEARCH_RESPONSE.replace("\"took\":1", "\"took\":1234"))
+                .start();
+        registry = new SimpleMeterRegistry();
+        ClientMetrics metrics = new ClientMetrics(registry, new double[]{0.5, 0.99});
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address()))
+                .setHttpClientConfigCallback(metrics::instrument));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    @Test
+    void recordsLatencyBytesAndTookPerOperation() throws IOException {
+        client.search(new SearchRequest("article_index").source(new SearchSourceBuilder()), RequestOptions.DEFAULT);
+        client.search(new SearchRequest("article_index").source(new SearchSourceBuilder()), RequestOptions.DEFAULT);
+        client.bulk(new BulkRequest().add(new IndexRequest("article_index").id("1").source("{\"id\":1}", XContentType.JSON)),
+                RequestOptions.DEFAULT);
+        client.get(new GetRequest("article_index", "1"), RequestOptions.DEFAULT);
+
+        assertEquals(2, registry.get("es.client.requests").tags("operation", "search", "outcome", "success").timer().count());
+        assertEquals(1, registry.get("es.client.requests").tags("operation", "bulk", "outcome", "success").timer().count());
+        assertEquals(1, registry.get("es.client.requests").tags("operation", "get", "outcome", "success").timer().count());
+        assertEquals(4, registry.get("es.client.connection.acquire").timer().count());
+
+        assertEquals(StubElasticsearch.GET_RESPONSE.getBytes(StandardCharsets.UTF_8).length,
+                registry.get("es.client.response.bytes").tag("operation", "get").summary().totalAmount(), 0.1);
+        assertTrue(registry.get("es.client.request.bytes").tag("operation", "bulk").summary().totalAmount() > 0);
+
+        assertEquals(1234, registry.get("es.client.server.took").tag("operation", "search").timer().max(TimeUnit.MILLISECONDS), 0.1);
+        assertEquals(1, registry.get("es.client.server.took").tag("operation", "bulk").timer().count());
+        assertEquals(0, registry.get("es.client.server.took").tag("operation", "get").timer().count());
+    }
+
+    @Test
+    void recordsErrorStatusAsOutcome() {
+        assertThrows(ElasticsearchStatusException.class,
+                () -> client.delete(new DeleteRequest("article_index", "1"), RequestOptions.DEFAULT));
+
+        assertEquals(1, registry.get("es.client.requests").tags("operation", "delete", "outcome", "client_error").timer().count());
+    }
+
+    @Test
+    void classifiesOperationsByPath() {
+        assertEquals("search", ClientMetrics.operation("POST", "/article_index/_search?typed_keys=true"));
+        assertEquals("scroll", ClientMetrics.operation("POST", "/_search/scroll"));
+        assertEquals("bulk", ClientMetrics.operation("POST", "/_bulk?timeout=1m"));
+        assertEquals("index", ClientMetrics.operation("PUT", "/article_index/_doc/1"));
+        assertEquals("index", ClientMetrics.operation("POST", "/article_index/_doc"));
+        assertEquals("get", ClientMetrics.operation("GET", "/article_index/_doc/1"));
+        assertEquals("delete", ClientMetrics.operation("DELETE", "/article_index/_doc/1"));
+        assertEquals("mget", ClientMetrics.operation("POST", "/_mget"));
+        assertEquals("other", ClientMetrics.operation("PUT", "/article_index"));
+    }
+}
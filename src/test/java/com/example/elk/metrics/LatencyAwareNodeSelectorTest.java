@@ -0,0 +1,194 @@
+package com.example.elk.metrics;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyAwareNodeSelectorTest {
+
+    private StubElasticsearch fast;
+    private StubElasticsearch slow;
+    private HttpHost fastHost;
+    private HttpHost slowHost;
+    private LatencyAwareNodeSelector selector;
+    private RestHighLevelClient client;
+
+    /**
+     * 第一次请求要加载一堆类，耗时远大于稳定后的耗时，会让先拿到它的节点看起来很慢
+     */
+    @BeforeAll
+    static void warmUp() throws IOException {
+        try (StubElasticsearch stub = new StubElasticsearch(1).start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            for (int i = 0; i < 5; i++) {
+                client.search(new SearchRequest("article_index").source(new SearchSourceBuilder()), RequestOptions.DEFAULT);
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        fast = new StubElasticsearch(4).start();
+        slow = new StubElasticsearch(4).latency(200).start();
+        fastHost = HttpHost.create(fast.address());
+        slowHost = HttpHost.create(slow.address());
+        selector = new LatencyAwareNodeSelector(0.2, 1.5, 3, "50ms", "30s", "30s");
+        client = new RestHighLevelClient(RestClient.builder(fastHost, slowHost)
+                .setNodeSelector(selector)
+                .setHttpClientConfigCallback(selector::instrument));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        fast.close();
+        slow.close();
+    }
+
+    @Test
+    void slowNodeIsEjectedAndStopsReceivingRequests() throws IOException {
+        for (int i = 0; i < 20; i++) {
+            client.search(new SearchRequest("article_index").source(new SearchSourceBuilder()), RequestOptions.DEFAULT);
+        }
+
+        assertTrue(selector.isEjected(slowHost));
+        assertFalse(selector.isEjected(fastHost));
+        //两个节点各先拿到一个试探请求，慢节点被摘掉以后不再有请求
+        assertEquals(1, slow.calls("_search"));
+        assertEquals(19, fast.calls("_search"));
+        assertEquals(0, selector.inFlight(fastHost));
+        assertEquals(0, selector.inFlight(slowHost));
+        assertTrue(selector.ewmaNanos(slowHost) > selector.ewmaNanos(fastHost));
+    }
+
+    @Test
+    void failuresArePenalizedAndNotUsedAsBaseline() throws InterruptedException {
+        HttpExchangeObserver.Exchange healthy = selector.start(slowHost);
+        Thread.sleep(60);
+        healthy.completed();
+        //连接被拒绝这类失败几乎不花时间，不能让它成为最快节点，把 60ms 的健康节点摘掉
+        selector.start(fastHost).failed(false);
+
+        assertFalse(selector.isEjected(slowHost));
+        assertTrue(selector.isEjected(fastHost));
+        assertTrue(selector.ewmaNanos(fastHost) >= 30_000_000_000d);
+    }
+
+    @Test
+    void onlySearchAndGetAreSampledAndErrorStatusCountsAsFailure() throws InterruptedException {
+        HttpExchangeObserver.Exchange bulk = selector.start(slowHost);
+        bulk.requestGenerated(new BasicHttpRequest("POST", "/_bulk?timeout=1m"));
+        Thread.sleep(60);
+        bulk.responseReceived(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"));
+        bulk.completed();
+        assertEquals(0, selector.ewmaNanos(slowHost));
+        assertEquals(0, selector.inFlight(slowHost));
+
+        HttpExchangeObserver.Exchange search = selector.start(fastHost);
+        search.requestGenerated(new BasicHttpRequest("POST", "/article_index/_search?typed_keys=true"));
+        search.responseReceived(new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable"));
+        search.completed();
+        assertTrue(selector.ewmaNanos(fastHost) >= 30_000_000_000d);
+
+        assertTrue(LatencyAwareNodeSelector.isLatencySample(new BasicHttpRequest("GET", "/article_index/_doc/1")));
+        assertTrue(LatencyAwareNodeSelector.isLatencySample(new BasicHttpRequest("POST", "/_mget")));
+        assertFalse(LatencyAwareNodeSelector.isLatencySample(new BasicHttpRequest("PUT", "/article_index/_doc/1")));
+        assertFalse(LatencyAwareNodeSelector.isLatencySample(new BasicHttpRequest("POST", "/_search/scroll")));
+        assertFalse(LatencyAwareNodeSelector.isLatencySample(new BasicHttpRequest("GET", "/_tasks/n:1")));
+        assertFalse(LatencyAwareNodeSelector.isLatencySample(new BasicHttpRequest("POST", "/article_index/_forcemerge")));
+    }
+
+    @Test
+    void synchronousExecuteFailureFinishesExchange() throws IOException {
+        //已关闭的客户端在 execute 里直接抛异常，不会再有回调
+        HttpAsyncClientBuilder closed = new HttpAsyncClientBuilder() {
+            @Override
+            public CloseableHttpAsyncClient build() {
+                return new CloseableHttpAsyncClient() {
+                    @Override
+                    public boolean isRunning() {
+                        return false;
+                    }
+
+                    @Override
+                    public void start() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+
+                    @Override
+                    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer, HttpAsyncResponseConsumer<T> responseConsumer,
+                                                 HttpContext context, FutureCallback<T> callback) {
+                        throw new IllegalStateException("Request cannot be executed; I/O reactor status: STOPPED");
+                    }
+                };
+            }
+        };
+        try (CloseableHttpAsyncClient client = InstrumentedHttpAsyncClient.wrap(closed, selector).build()) {
+            assertThrows(IllegalStateException.class, () -> client.execute(
+                    HttpAsyncMethods.create(fastHost, new HttpGet("/article_index/_search")), HttpAsyncMethods.createConsumer(),
+                    HttpClientContext.create(), null));
+        }
+        assertEquals(0, selector.inFlight(fastHost));
+    }
+
+    @Test
+    void keepsNodesWithinToleranceAndNeverRejectsAll() {
+        Node a = new Node(fastHost);
+        Node b = new Node(slowHost);
+        List<Node> nodes = new ArrayList<>(Arrays.asList(a, b));
+
+        //都没有样本时都可选
+        selector.select(nodes);
+        assertEquals(2, nodes.size());
+
+        //试探请求还没回来的节点不再选
+        HttpExchangeObserver.Exchange probe = selector.start(slowHost);
+        selector.select(nodes);
+        assertEquals(Arrays.asList(a), nodes);
+        probe.failed(true);
+
+        //两个都在试探中，不过滤
+        nodes = new ArrayList<>(Arrays.asList(a, b));
+        HttpExchangeObserver.Exchange first = selector.start(fastHost);
+        HttpExchangeObserver.Exchange second = selector.start(slowHost);
+        selector.select(nodes);
+        assertEquals(2, nodes.size());
+        first.failed(true);
+        second.failed(true);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.elk.metrics;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestTracerTest {
+
+    private StubElasticsearch stub;
+    private RequestTracer tracer;
+    private RestHighLevelClient client;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(4).start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+            tracer.close();
+        }
+        stub.close();
+    }
+
+    private void connect(RequestTracer tracer) {
+        this.tracer = tracer;
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address()))
+                .setHttpClientConfigCallback(tracer::instrument));
+    }
+
+    private void search() throws IOException {
+        client.search(new SearchRequest("article_index")
+                .source(new SearchSourceBuilder().query(QueryBuilders.termQuery("title", "学习"))), RequestOptions.DEFAULT);
+    }
+
+    @Test
+    void capturesTruncatedBodiesOffTheIoThread() throws Exception {
+        BlockingQueue<RequestTracer.Trace> traces = new LinkedBlockingQueue<>();
+        connect(new RequestTracer(1, 16, 16, traces::add, () -> true));
+
+        search();
+
+        RequestTracer.Trace trace = traces.poll(5, TimeUnit.SECONDS);
+        assertNotNull(trace);
+        assertEquals("POST", trace.getMethod());
+        assertTrue(trace.getUri().startsWith("/article_index/_search"));
+        assertEquals(200, trace.getStatus());
+        assertTrue(trace.getRequestBody().startsWith("{\"query\":{\"term\""));
+        assertTrue(trace.getRequestBody().endsWith("...(共" + trace.getRequestBytes() + "字节)"));
+        assertTrue(trace.getResponseBody().startsWith("{\"took\":1,"));
+        assertEquals(1, tracer.getTraced());
+    }
+
+    @Test
+    void zeroMaxBodyKeepsOnlyByteCounts() throws Exception {
+        BlockingQueue<RequestTracer.Trace> traces = new LinkedBlockingQueue<>();
+        connect(new RequestTracer(1, 0, 16, traces::add, () -> true));
+
+        search();
+
+        RequestTracer.Trace trace = traces.poll(5, TimeUnit.SECONDS);
+        assertNotNull(trace);
+        assertEquals("...(共" + trace.getRequestBytes() + "字节)", trace.getRequestBody());
+        assertEquals("...(共" + trace.getResponseBytes() + "字节)", trace.getResponseBody());
+        assertTrue(trace.toString().startsWith("POST /article_index/_search"));
+    }
+
+    @Test
+    void lazyTruncatesToMaxChars() {
+        SearchSourceBuilder source = new SearchSourceBuilder().query(QueryBuilders.termQuery("title", "学习"));
+        String json = Strings.toString(source);
+
+        assertEquals(json, RequestTracer.lazy(source, json.length()).toString());
+        assertEquals(json.substring(0, 8) + "...(" + json.length() + "字符)", RequestTracer.lazy(source, 8).toString());
+        assertEquals("null", RequestTracer.lazy(null).toString());
+
+        //截断长度不受 es.trace.max-body 影响
+        RequestTracer configured = new RequestTracer(1, "8b", 4);
+        try {
+            assertEquals(json, RequestTracer.lazy(source).toString());
+        } finally {
+            configured.close();
+        }
+    }
+
+    @Test
+    void samplesAtConfiguredRate() throws Exception {
+        BlockingQueue<RequestTracer.Trace> traces = new LinkedBlockingQueue<>();
+        connect(new RequestTracer(0.25, 64, 1024, traces::add, () -> true));
+
+        for (int i = 0; i < 200; i++) {
+            search();
+        }
+
+        long traced = tracer.getTraced();
+        assertTrue(traced > 20 && traced < 90, "抽中" + traced);
+    }
+
+    @Test
+    void dropsWhenSinkFallsBehind() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        connect(new RequestTracer(1, 64, 1, trace -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> true));
+
+        for (int i = 0; i < 5; i++) {
+            search();
+        }
+        release.countDown();
+
+        assertTrue(tracer.getDropped() >= 3, "丢弃" + tracer.getDropped());
+    }
+
+    @Test
+    void skipsWhenSinkDisabled() throws Exception {
+        connect(new RequestTracer(1, 64, 16, trace -> {
+        }, () -> false));
+
+        search();
+
+        assertEquals(0, tracer.getTraced());
+    }
+}
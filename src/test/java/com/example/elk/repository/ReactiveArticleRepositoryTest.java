@@ -0,0 +1,139 @@
+package com.example.elk.repository;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.CircuitBreaker;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReactiveArticleRepositoryTest {
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    private ReactiveArticleRepository repository(StubElasticsearch stub, int maxConnPerRoute) {
+        this.stub = stub.start();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address()))
+                .setHttpClientConfigCallback(http -> http.setMaxConnPerRoute(maxConnPerRoute).setMaxConnTotal(maxConnPerRoute)));
+        return new ReactiveArticleRepository(client, "article_index", 3);
+    }
+
+    /**
+     * 每页 3 条，id 从 1 开始连续，共 7 条
+     */
+    private static String page(AtomicInteger next) {
+        StringBuilder hits = new StringBuilder();
+        int count = Math.min(3, 8 - next.get());
+        for (int i = 0; i < count; i++) {
+            int id = next.getAndIncrement();
+            hits.append(i == 0 ? "" : ",").append("{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+                    .append("\",\"_score\":null,\"_source\":{\"id\":").append(id).append("},\"sort\":[").append(id).append("]}");
+        }
+        return "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"max_score\":null,\"hits\":[" + hits + "]}}";
+    }
+
+    @Test
+    void streamsAllPagesWithSearchAfter() throws IOException {
+        AtomicInteger next = new AtomicInteger(1);
+        ReactiveArticleRepository repository = repository(new StubElasticsearch(4).route("_search", () -> page(next)), 10);
+
+        StepVerifier.create(repository.stream(QueryBuilders.matchAllQuery()).map(Article::getId))
+                .expectNext(1L, 2L, 3L, 4L, 5L, 6L, 7L)
+                .verifyComplete();
+
+        assertEquals(3, stub.calls("_search"));
+        assertTrue(stub.lastBody("_search").contains("\"search_after\":[6]"));
+    }
+
+    @Test
+    void fetchesOnlyWhatIsDemanded() throws IOException {
+        AtomicInteger next = new AtomicInteger(1);
+        ReactiveArticleRepository repository = repository(new StubElasticsearch(4).route("_search", () -> page(next)), 10);
+
+        StepVerifier.create(repository.stream(QueryBuilders.matchAllQuery()), 2)
+                .expectNextCount(2)
+                .thenAwait(Duration.ofMillis(300))
+                .thenCancel()
+                .verify();
+        assertEquals(1, stub.calls("_search"));
+
+        next.set(1);
+        StepVerifier.create(repository.stream(QueryBuilders.matchAllQuery()).take(4))
+                .expectNextCount(4)
+                .verifyComplete();
+        assertEquals(3, stub.calls("_search"));
+    }
+
+    /**
+     * 连接池只有 1 个连接，取消后如果请求没有被中断，第二个请求要排在 2 秒延迟后面
+     */
+    @Test
+    void cancelAbortsInFlightRequest() throws Exception {
+        ReactiveArticleRepository repository = repository(new StubElasticsearch(4).latency(2000), 1);
+
+        Disposable subscription = repository.search(new SearchSourceBuilder()).subscribe();
+        Thread.sleep(200);
+        subscription.dispose();
+
+        long start = System.nanoTime();
+        Flux<Article> second = repository.search(new SearchSourceBuilder());
+        StepVerifier.create(second).expectNextCount(1).verifyComplete();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(elapsedMillis < 3200, "耗时" + elapsedMillis + "ms");
+    }
+
+    @Test
+    void searchesHoldSearchGuardPermitUntilCancelled() throws Exception {
+        ReactiveArticleRepository repository = repository(new StubElasticsearch(4).latency(2000), 1);
+        ClusterGuard guard = new ClusterGuard("search", 1, 0, -1,
+                new CircuitBreaker(10, 4, 0.5, Long.MAX_VALUE, 0.8, TimeUnit.SECONDS.toNanos(10), 1));
+        repository.setSearchGuard(guard);
+
+        Disposable subscription = repository.search(new SearchSourceBuilder()).subscribe();
+        Thread.sleep(200);
+        assertEquals(1, guard.getActive());
+        StepVerifier.create(repository.stream(QueryBuilders.matchAllQuery()))
+                .expectError(ClusterGuard.RejectedException.class)
+                .verify();
+
+        subscription.dispose();
+        StepVerifier.create(repository.search(new SearchSourceBuilder())).expectNextCount(1).verifyComplete();
+        assertEquals(0, guard.getActive());
+    }
+
+    @Test
+    void saveAllSendsOneBulkPerBatch() throws IOException {
+        String bulk = "{\"took\":1,\"errors\":false,\"items\":[]}";
+        ReactiveArticleRepository repository = repository(new StubElasticsearch(4).route("_bulk", bulk), 10);
+
+        Flux<Article> articles = Flux.range(1, 5).map(i -> new Article((long) i, "标题" + i, null));
+        StepVerifier.create(repository.saveAll(articles, 2))
+                .expectNextCount(3)
+                .verifyComplete();
+        assertEquals(3, stub.calls("_bulk"));
+    }
+}
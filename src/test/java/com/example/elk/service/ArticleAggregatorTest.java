@@ -0,0 +1,107 @@
+package com.example.elk.service;
+
+import com.example.elk.bean.Bucket;
+import com.example.elk.client.CircuitBreaker;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.client.CoalescingClient;
+import com.example.elk.codec.Facet;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArticleAggregatorTest {
+
+    private static final String EMPTY_HITS = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"max_score\":null,\"hits\":[]},";
+
+    private static final String FACETS_RESPONSE = EMPTY_HITS + "\"aggregations\":{"
+            + "\"sterms#by_title\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,"
+            + "\"buckets\":[{\"key\":\"学习\",\"doc_count\":3},{\"key\":\"工作\",\"doc_count\":1}]},"
+            + "\"range#by_id\":{\"buckets\":[{\"key\":\"*-10.0\",\"to\":10.0,\"doc_count\":2},"
+            + "{\"key\":\"10.0-*\",\"from\":10.0,\"doc_count\":5}]}}}";
+
+    private static final String FIRST_PAGE = EMPTY_HITS + "\"aggregations\":{\"composite#buckets\":{"
+            + "\"after_key\":{\"title.keyword\":\"b\"},"
+            + "\"buckets\":[{\"key\":{\"title.keyword\":\"a\"},\"doc_count\":1},{\"key\":{\"title.keyword\":\"b\"},\"doc_count\":2}]}}}";
+
+    private static final String LAST_PAGE = EMPTY_HITS + "\"aggregations\":{\"composite#buckets\":{"
+            + "\"after_key\":{\"title.keyword\":\"c\"},"
+            + "\"buckets\":[{\"key\":{\"title.keyword\":\"c\"},\"doc_count\":3}]}}}";
+
+    private static ArticleAggregator aggregator(RestHighLevelClient client) {
+        return new ArticleAggregator(client, new CoalescingClient(client, "2ms", 100), "article_index");
+    }
+
+    @Test
+    void facetsAreComputedInOneSizeZeroRequest() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(4).route("_search", FACETS_RESPONSE).start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            Map<String, List<Bucket>> facets = aggregator(client).facets(null,
+                    Facet.terms("by_title", "title.keyword", 10), Facet.range("by_id", "id", 10)).get();
+
+            assertEquals(1, stub.calls("_search"));
+            String body = stub.lastBody("_search");
+            assertTrue(body.contains("\"size\":0"));
+            assertTrue(body.contains("\"by_title\":{\"terms\":{\"field\":\"title.keyword\",\"size\":10"));
+            assertEquals(List.of("by_title", "by_id"), new ArrayList<>(facets.keySet()));
+            assertEquals("学习", facets.get("by_title").get(0).getKey());
+            assertEquals(3, facets.get("by_title").get(0).getCount());
+            assertEquals(5, facets.get("by_id").get(1).getCount());
+        }
+    }
+
+    @Test
+    void streamTermsPagesWithAfterKey() throws Exception {
+        StubElasticsearch stub = new StubElasticsearch(4);
+        stub.route("_search", () -> stub.lastBody("_search").contains("\"after\"") ? LAST_PAGE : FIRST_PAGE).start();
+        try (stub; RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            Iterator<Bucket> buckets = aggregator(client).streamTerms(null, "title.keyword", 2);
+            assertEquals(0, stub.calls("_search"));
+
+            List<String> keys = new ArrayList<>();
+            long total = 0;
+            while (buckets.hasNext()) {
+                Bucket bucket = buckets.next();
+                keys.add(bucket.getKey());
+                total += bucket.getCount();
+            }
+            assertEquals(List.of("a", "b", "c"), keys);
+            assertEquals(6, total);
+            //第二页不满一页，不再发第三次请求
+            assertEquals(2, stub.calls("_search"));
+            assertTrue(stub.lastBody("_search").contains("\"after\":{\"title.keyword\":\"b\"}"));
+        }
+    }
+
+    @Test
+    void facetsAndPagesGoThroughSearchGuard() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(4).route("_search", FACETS_RESPONSE).start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            ArticleAggregator aggregator = aggregator(client);
+            //隔离舱一个名额都没有，请求全部被拒绝
+            aggregator.setSearchGuard(new ClusterGuard("search", 0, 0, -1,
+                    new CircuitBreaker(10, 4, 0.5, Long.MAX_VALUE, 0.8, 1_000_000_000L, 2)));
+
+            ExecutionException facets = assertThrows(ExecutionException.class,
+                    () -> aggregator.terms(null, "title.keyword", 10).get());
+            assertInstanceOf(ClusterGuard.RejectedException.class, facets.getCause());
+            Iterator<Bucket> buckets = aggregator.streamTerms(null, "title.keyword", 2);
+            assertThrows(ClusterGuard.RejectedException.class, buckets::hasNext);
+            assertEquals(0, stub.calls("_search"));
+        }
+    }
+}
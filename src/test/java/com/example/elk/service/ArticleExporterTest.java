@@ -0,0 +1,128 @@
+package com.example.elk.service;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArticleExporterTest {
+
+    private static final String FIRST_PAGE = "{\"_scroll_id\":\"s1\",\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"max_score\":null,\"hits\":["
+            + "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":null,\"_source\":{\"id\":1,\"title\":\"学习\"}},"
+            + "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"2\",\"_score\":null,\"_source\":{\"id\":2,\"title\":\"工作\"}}]}}";
+
+    private static final String LAST_PAGE = "{\"_scroll_id\":\"s1\",\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"max_score\":null,\"hits\":[]}}";
+
+    private static StubElasticsearch stub() throws IOException {
+        return new StubElasticsearch(4)
+                .route("_search", FIRST_PAGE)
+                .route("POST _search/scroll", LAST_PAGE)
+                .route("DELETE _search/scroll", "{\"succeeded\":true,\"num_freed\":1}")
+                .start();
+    }
+
+    @Test
+    void exportsEverySliceIntoOneFile(@TempDir Path dir) throws Exception {
+        try (StubElasticsearch stub = stub();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            ArticleExporter exporter = new ArticleExporter(client, "article_index", 100, 4, "1m");
+            Path target = dir.resolve("article.ndjson");
+
+            ArticleExporter.Progress progress = exporter.export(target, 3, false);
+
+            List<String> lines = Files.readAllLines(target, StandardCharsets.UTF_8);
+            //每个文档一行 action 一行 _source
+            assertEquals(12, lines.size());
+            assertEquals("{\"index\":{\"_id\":\"1\"}}", lines.get(0));
+            assertEquals("{\"id\":1,\"title\":\"学习\"}", lines.get(1));
+            assertEquals("{\"index\":{\"_id\":\"2\"}}", lines.get(2));
+            assertEquals(6, progress.getDocs());
+            assertEquals(Files.size(target), progress.getBytes());
+            assertEquals(3, progress.getCompletedSlices());
+            assertEquals(3, stub.calls("DELETE _search/scroll"));
+            assertFalse(Files.exists(dir.resolve("article.ndjson.parts")));
+        }
+    }
+
+    @Test
+    void gzipPartsConcatenateIntoOneStream(@TempDir Path dir) throws Exception {
+        try (StubElasticsearch stub = stub();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            Path target = dir.resolve("article.ndjson.gz");
+            new ArticleExporter(client, "article_index", 100, 4, "1m").export(target, 2, true);
+
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(target))) {
+                String[] lines = new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n");
+                assertEquals(8, lines.length);
+            }
+        }
+    }
+
+    @Test
+    void resumesOnlyUnfinishedSlices(@TempDir Path dir) throws Exception {
+        Path target = dir.resolve("article.ndjson");
+        Path parts = dir.resolve("article.ndjson.parts");
+        Files.createDirectories(parts);
+        Files.writeString(parts.resolve("manifest"), "2 plain");
+        Files.writeString(parts.resolve("slice-0"), "{\"id\":9}\n");
+        Files.createFile(parts.resolve("slice-0.done"));
+        try (StubElasticsearch stub = stub();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            new ArticleExporter(client, "article_index", 100, 4, "1m").export(target, 2, false);
+
+            assertEquals(1, stub.calls("_search"));
+            List<String> lines = Files.readAllLines(target, StandardCharsets.UTF_8);
+            assertEquals(5, lines.size());
+            assertEquals("{\"id\":9}", lines.get(0));
+        }
+    }
+
+    @Test
+    void skipsHitsWithoutSource(@TempDir Path dir) throws Exception {
+        String page = "{\"_scroll_id\":\"s1\",\"took\":1,\"timed_out\":false,"
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"max_score\":null,\"hits\":["
+                + "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"a\\\"b\",\"_score\":null,\"_source\":{\"id\":1}},"
+                + "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"2\",\"_score\":null}]}}";
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_search", page)
+                .route("POST _search/scroll", LAST_PAGE)
+                .route("DELETE _search/scroll", "{\"succeeded\":true,\"num_freed\":1}")
+                .start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            Path target = dir.resolve("article.ndjson");
+            ArticleExporter.Progress progress = new ArticleExporter(client, "article_index", 100, 4, "1m").export(target, 1, false);
+
+            //_id 里的引号要转义
+            assertEquals(List.of("{\"index\":{\"_id\":\"a\\\"b\"}}", "{\"id\":1}"), Files.readAllLines(target, StandardCharsets.UTF_8));
+            assertEquals(1, progress.getDocs());
+            assertEquals(1, progress.getSkipped());
+        }
+    }
+
+    @Test
+    void rejectsNonPositiveSlicesAndThreadsBeforeWritingAnything(@TempDir Path dir) {
+        assertThrows(IllegalArgumentException.class, () -> new ArticleExporter(null, "article_index", 100, 0, "1m"));
+
+        Path target = dir.resolve("article.ndjson");
+        ArticleExporter exporter = new ArticleExporter(null, "article_index", 100, 4, "1m");
+        assertThrows(IllegalArgumentException.class, () -> exporter.export(target, 0, false));
+        assertFalse(Files.exists(dir.resolve("article.ndjson.parts")));
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.elk.service;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.Strings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArticleIndexManagerTest {
+
+    private static final String ACK = "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"article_index\"}";
+    private static final String SHARDS = "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}";
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+    private ArticleIndexManager manager;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(4)
+                .route("PUT /article_index", ACK)
+                .route("PUT _index_template/", ACK)
+                //article_index 是别名，es 按实际索引返回设置
+                .route("GET _settings", "{\"article_index_v1\":{\"settings\":{\"index\":{\"refresh_interval\":\"5s\",\"number_of_replicas\":\"2\"}}}}")
+                .route("PUT /article_index/_settings", ACK)
+                .route("PUT /article_index_v1/_settings", ACK)
+                .route("_refresh", SHARDS)
+                .route("_forcemerge", SHARDS)
+                .start();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())));
+        manager = new ArticleIndexManager(client, "article_index", 3, 1, "1s", true, 1);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    @Test
+    void mappingDeclaresAllArticleFields() {
+        String mapping = Strings.toString(ArticleIndexManager.mapping());
+        assertTrue(mapping.contains("\"id\":{\"type\":\"long\"}"));
+        assertTrue(mapping.contains("\"title\":{\"type\":\"text\",\"analyzer\":\"ik_smart\""));
+        assertTrue(mapping.contains("\"content\":{\"type\":\"text\",\"analyzer\":\"ik_smart\""));
+        assertTrue(mapping.contains("\"fields\":{\"keyword\":{\"type\":\"keyword\",\"ignore_above\":256}}"));
+    }
+
+    @Test
+    void createsTemplateAndMissingIndexOnStartup() {
+        //HEAD /article_index 没有路由，返回 404，即别名和索引都不存在
+        manager.init();
+
+        assertEquals(1, stub.calls("PUT _index_template/"));
+        assertTrue(stub.lastBody("PUT _index_template/").contains("\"index_patterns\":[\"article_index*\"]"));
+        assertEquals(1, stub.calls("PUT /article_index"));
+        String body = stub.lastBody("PUT /article_index");
+        assertTrue(body.contains("\"number_of_shards\":\"3\""));
+        assertTrue(body.contains("ik_smart"));
+        assertTrue(body.contains("\"aliases\":{\"article_index\":"));
+    }
+
+    @Test
+    void bulkLoadDisablesRefreshAndReplicasThenRestores() throws IOException {
+        try (ArticleIndexManager.BulkLoad ignored = manager.beginBulkLoad("article_index")) {
+            String during = stub.lastBody("PUT /article_index/_settings");
+            assertTrue(during.contains("\"refresh_interval\":\"-1\""));
+            assertTrue(during.contains("\"number_of_replicas\":\"0\""));
+        }
+        assertEquals(1, stub.calls("_refresh"));
+        assertEquals(1, stub.calls("_forcemerge"));
+        assertEquals(1, stub.calls("PUT /article_index/_settings"));
+        String restored = stub.lastBody("PUT /article_index_v1/_settings");
+        assertTrue(restored.contains("\"refresh_interval\":\"5s\""));
+        assertTrue(restored.contains("\"number_of_replicas\":\"2\""));
+    }
+
+    @Test
+    void forceMergeIsNotCutOffBySocketTimeout() throws IOException {
+        //io reactor 大约每秒检查一次超时，合并耗时要明显长于 1 秒才能稳定触发 100ms 的 socket 超时
+        stub.route("_forcemerge", () -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return SHARDS;
+        });
+        try (RestHighLevelClient shortTimeout = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address()))
+                .setRequestConfigCallback(config -> config.setSocketTimeout(100)))) {
+            ArticleIndexManager shortTimeoutManager = new ArticleIndexManager(shortTimeout, "article_index", 3, 1, "1s", true, 1);
+            try (ArticleIndexManager.BulkLoad ignored = shortTimeoutManager.beginBulkLoad("article_index")) {
+                assertEquals(1, stub.calls("PUT /article_index/_settings"));
+            }
+        }
+        assertEquals(1, stub.calls("_forcemerge"));
+        assertEquals(1, stub.calls("PUT /article_index_v1/_settings"));
+    }
+}
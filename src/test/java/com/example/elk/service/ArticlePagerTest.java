@@ -0,0 +1,95 @@
+package com.example.elk.service;
+
+import com.example.elk.bean.ArticlePage;
+import com.example.elk.client.CircuitBreaker;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArticlePagerTest {
+
+    private static final String PAGE = "{\"took\":1,\"timed_out\":false,%s"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"max_score\":null,\"hits\":[%s]}}";
+
+    private static String hit(long id, String extraSort) {
+        return "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"" + id + "\",\"_score\":null,"
+                + "\"_source\":{\"id\":" + id + ",\"title\":\"t" + id + "\"},\"sort\":[" + id + extraSort + "]}";
+    }
+
+    @Test
+    void continuesFromLastSortValue() throws Exception {
+        AtomicInteger round = new AtomicInteger();
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_search", () -> round.getAndIncrement() == 0
+                        ? String.format(PAGE, "", hit(1, "") + "," + hit(2, ""))
+                        : String.format(PAGE, "", hit(3, "")))
+                .start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            ArticlePager pager = new ArticlePager(client, "article_index", "1m");
+
+            ArticlePage first = pager.first(QueryBuilders.matchAllQuery(), 2, false);
+            assertEquals(2, first.getArticles().size());
+            assertNotNull(first.getNextToken());
+
+            ArticlePage second = pager.next(QueryBuilders.matchAllQuery(), 2, first.getNextToken());
+            assertTrue(stub.lastBody("_search").contains("\"search_after\":[2]"));
+            assertEquals(3L, second.getArticles().get(0).getId());
+            assertNull(second.getNextToken());
+        }
+    }
+
+    @Test
+    void pinnedPagingUsesPointInTime() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_pit", "{\"id\":\"pit-1\",\"succeeded\":true,\"num_freed\":1}")
+                .route("_search", String.format(PAGE, "\"pit_id\":\"pit-2\",", hit(1, ",7")))
+                .start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            ArticlePager pager = new ArticlePager(client, "article_index", "1m");
+
+            ArticlePage first = pager.first(QueryBuilders.matchAllQuery(), 1, true);
+            assertTrue(stub.lastBody("_search").contains("\"pit\":{\"id\":\"pit-1\""));
+
+            pager.next(QueryBuilders.matchAllQuery(), 1, first.getNextToken());
+            String body = stub.lastBody("_search");
+            assertTrue(body.contains("\"pit\":{\"id\":\"pit-2\""));
+            assertTrue(body.contains("\"search_after\":[1,7]"));
+        }
+    }
+
+    @Test
+    void pagesGoThroughSearchGuard() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_search", String.format(PAGE, "", hit(1, "")))
+                .start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            ArticlePager pager = new ArticlePager(client, "article_index", "1m");
+            ClusterGuard guard = new ClusterGuard("search", 1, 0, -1,
+                    new CircuitBreaker(10, 1, 0.5, Long.MAX_VALUE, 0.8, TimeUnit.SECONDS.toNanos(10), 1));
+            pager.setSearchGuard(guard);
+
+            assertEquals(1, pager.first(QueryBuilders.matchAllQuery(), 2, false).getArticles().size());
+            guard.getBreaker().onResult(true, 0);
+            ClusterGuard.RejectedException e = assertThrows(ClusterGuard.RejectedException.class,
+                    () -> pager.first(QueryBuilders.matchAllQuery(), 2, false));
+            assertEquals(ClusterGuard.Rejection.CIRCUIT_OPEN, e.getRejection());
+            assertEquals(1, stub.calls("_search"));
+        }
+    }
+
+    @Test
+    void rejectsGarbageToken() {
+        ArticlePager pager = new ArticlePager(null, "article_index", "1m");
+        assertThrows(IllegalArgumentException.class, () -> pager.next(QueryBuilders.matchAllQuery(), 2, "not-a-token"));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.elk.service;
+
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArticleReindexerTest {
+
+    private static final String ACK = "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"article_index_v2\"}";
+    private static final String SHARDS = "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}";
+    private static final String TASK = "{\"node\":\"node-1\",\"id\":42,\"type\":\"transport\",\"action\":\"indices:data/write/reindex\","
+            + "\"start_time_in_millis\":1,\"running_time_in_nanos\":1,\"cancellable\":true,\"headers\":{}}";
+
+    private StubElasticsearch stub;
+    private RestHighLevelClient client;
+    private ArticleReindexer reindexer;
+    private final AtomicInteger polls = new AtomicInteger();
+    private volatile long targetCount = 3;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = new StubElasticsearch(4)
+                .route("GET _alias/article_index", "{\"article_index_v1\":{\"aliases\":{\"article_index\":{}}}}")
+                .route("PUT /article_index_v2", ACK)
+                .route("DELETE /article_index_v2", ACK)
+                .route("GET _settings", "{\"article_index_v2\":{\"settings\":{\"index\":{\"refresh_interval\":\"1s\",\"number_of_replicas\":\"1\"}}}}")
+                .route("PUT /article_index_v2/_settings", ACK)
+                .route("_refresh", SHARDS)
+                .route("_forcemerge", SHARDS)
+                .route("_reindex", "{\"task\":\"node-1:42\"}")
+                .route("GET _tasks/node-1:42", this::pollTask)
+                .route("_mget", "{\"docs\":["
+                        + "{\"_index\":\"article_index_v1\",\"_type\":\"_doc\",\"_id\":\"7\",\"_version\":2,\"_seq_no\":5,\"_primary_term\":1,"
+                        + "\"found\":true,\"_source\":{\"id\":7,\"title\":\"改过的标题\"}},"
+                        + "{\"_index\":\"article_index_v1\",\"_type\":\"_doc\",\"_id\":\"8\",\"found\":false}]}")
+                .route("_bulk", StubElasticsearch.BULK_RESPONSE)
+                .route("article_index_v1/_count", "{\"count\":3,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}}")
+                .route("article_index_v2/_count", () -> "{\"count\":" + targetCount
+                        + ",\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}}")
+                .route("POST /_aliases", "{\"acknowledged\":true}")
+                .start();
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())));
+        ArticleIndexManager manager = new ArticleIndexManager(client, "article_index", 1, 1, "1s", false, 1);
+        reindexer = new ArticleReindexer(client, manager, 4, 500, 1000, "10ms", false);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        client.close();
+        stub.close();
+    }
+
+    /**
+     * 第一次轮询时模拟业务写入：改了 7、删了 8，第二次轮询任务完成
+     */
+    private String pollTask() {
+        boolean completed = polls.incrementAndGet() > 1;
+        if (!completed) {
+            reindexer.afterWrite(Arrays.<DocWriteRequest<?>>asList(
+                    new IndexRequest("article_index").id("7"),
+                    new DeleteRequest("article_index", "8"),
+                    new IndexRequest("other_index").id("9")));
+        }
+        return "{\"completed\":" + completed + ",\"task\":" + TASK + "}";
+    }
+
+    @Test
+    void nextVersionFollowsIndexName() {
+        assertEquals(1, ArticleReindexer.nextVersion("article_index"));
+        assertEquals(2, ArticleReindexer.nextVersion("article_index_v1"));
+        assertEquals(13, ArticleReindexer.nextVersion("article_index_v12"));
+    }
+
+    @Test
+    void copiesCatchesUpAndSwapsAlias() throws IOException {
+        assertEquals("article_index_v2", reindexer.reindex());
+
+        assertTrue(stub.lastBody("PUT /article_index_v2").contains("ik_smart"));
+        String reindex = stub.lastBody("_reindex");
+        assertTrue(reindex.contains("\"index\":[\"article_index_v1\"]"));
+        assertTrue(reindex.contains("\"index\":\"article_index_v2\""));
+        assertEquals(2, polls.get());
+
+        //迁移期间写过的 7 重新拷一次，删掉的 8 在新索引里也删掉，别的索引的写入不管
+        assertTrue(stub.lastBody("_mget").contains("\"_id\":\"7\""));
+        assertFalse(stub.lastBody("_mget").contains("\"_id\":\"9\""));
+        String bulk = stub.lastBody("_bulk");
+        assertTrue(bulk.contains("{\"index\":{\"_index\":\"article_index_v2\",\"_id\":\"7\"}}"));
+        assertTrue(bulk.contains("改过的标题"));
+        assertTrue(bulk.contains("{\"delete\":{\"_index\":\"article_index_v2\",\"_id\":\"8\"}}"));
+
+        String aliases = stub.lastBody("POST /_aliases");
+        assertTrue(aliases.contains("\"remove\":{\"indices\":[\"article_index_v1\"],\"aliases\":[\"article_index\"]"));
+        assertTrue(aliases.contains("\"add\":{\"indices\":[\"article_index_v2\"],\"aliases\":[\"article_index\"]"));
+        assertTrue(stub.lastBody("PUT /article_index_v2/_settings").contains("\"number_of_replicas\":\"1\""));
+        assertEquals(0, stub.calls("DELETE /article_index_v2"));
+        assertFalse(reindexer.isRunning());
+    }
+
+    @Test
+    void countMismatchKeepsAliasAndDropsNewIndex() {
+        targetCount = 2;
+
+        assertThrows(IllegalStateException.class, () -> reindexer.reindex());
+
+        assertEquals(0, stub.calls("POST /_aliases"));
+        assertEquals(1, stub.calls("DELETE /article_index_v2"));
+        assertFalse(reindexer.isRunning());
+    }
+
+    @Test
+    void failedTaskKeepsAliasAndDropsNewIndex() {
+        stub.route("GET _tasks/node-1:42", "{\"completed\":true,\"task\":" + TASK + ",\"response\":{\"total\":3,"
+                + "\"failures\":[{\"index\":\"article_index_v2\",\"id\":\"5\",\"status\":400,"
+                + "\"cause\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse field [id]\"}}]}}");
+
+        IOException e = assertThrows(IOException.class, () -> reindexer.reindex());
+        assertTrue(e.getMessage().contains("failed to parse field [id]"), e.getMessage());
+
+        stub.route("GET _tasks/node-1:42", "{\"completed\":true,\"task\":" + TASK
+                + ",\"error\":{\"type\":\"index_not_found_exception\",\"reason\":\"no such index [article_index_v1]\"}}");
+        e = assertThrows(IOException.class, () -> reindexer.reindex());
+        assertTrue(e.getMessage().contains("no such index [article_index_v1]"), e.getMessage());
+
+        assertEquals(0, stub.calls("POST /_aliases"));
+        assertEquals(2, stub.calls("DELETE /article_index_v2"));
+        assertFalse(reindexer.isRunning());
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.elk.service;
+
+import com.example.elk.bean.Article;
+import com.example.elk.client.CircuitBreaker;
+import com.example.elk.client.ClusterGuard;
+import com.example.elk.spool.BulkSpool;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.ConnectException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkIndexerTest {
+
+    private static final String PARTIAL_REJECTED = "{\"took\":3,\"errors\":true,\"items\":["
+            + "{\"index\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"2\",\"status\":429,"
+            + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution\"}}},"
+            + "{\"index\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"3\",\"_version\":1,\"result\":\"created\","
+            + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}}]}";
+
+    private static final String ONE_CREATED = "{\"took\":1,\"errors\":false,\"items\":["
+            + "{\"index\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"2\",\"_version\":1,\"result\":\"created\","
+            + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":1,\"_primary_term\":1,\"status\":201}}]}";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void retriesOnlyRejectedItems() throws Exception {
+        AtomicInteger round = new AtomicInteger();
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_bulk", () -> round.getAndIncrement() == 0 ? PARTIAL_REJECTED : ONE_CREATED)
+                .start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            BulkIndexer indexer = new BulkIndexer(client, "article_index", 2, 5, 60000, 1, 10, 3);
+            indexer.index(new Article(2L, "学习", "每日充电"));
+            indexer.index(new Article(3L, "工作", "兢兢业业工作"));
+            indexer.close();
+
+            assertEquals(2, stub.calls("_bulk"));
+            assertEquals(2, indexer.getSucceeded());
+            assertEquals(0, indexer.getFailed());
+        }
+    }
+
+    @Test
+    void delegatesToSpoolWhenEnabled() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(4).route("_bulk", ONE_CREATED).start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            BulkSpool spool = new BulkSpool(client, "article_index", dir.toString(), "1mb", "16mb", 100, "5mb",
+                    "20ms", "1s", "10ms", "50ms");
+            //bulkActions 很大、刷新间隔很长，没有 spool 的话这一条不会发出去
+            BulkIndexer indexer = new BulkIndexer(client, "article_index", 1000, 5, 60000, 1, 10, 3);
+            indexer.setSpool(spool);
+            indexer.index(new Article(2L, "学习", "每日充电"));
+
+            assertEquals(1, spool.getAppended());
+            assertEquals(0, indexer.getSubmitted());
+            assertTrue(spool.awaitDrained(5, TimeUnit.SECONDS));
+            assertTrue(stub.lastBody("_bulk").contains("每日充电"));
+            spool.close();
+            indexer.close();
+        }
+    }
+
+    @Test
+    void bulkRejectedByGuardIsResentInsteadOfDropped() throws Exception {
+        try (StubElasticsearch stub = new StubElasticsearch(4).route("_bulk", ONE_CREATED).start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            //熔断器先打开 300ms
+            ClusterGuard guard = new ClusterGuard("bulk", 4, 0, -1,
+                    new CircuitBreaker(10, 1, 0.5, Long.MAX_VALUE, 0.8, TimeUnit.MILLISECONDS.toNanos(300), 1));
+            guard.execute(() -> CompletableFuture.failedFuture(new ConnectException("refused")));
+            BulkIndexer indexer = new BulkIndexer(client, "article_index", 1, 5, 60000, 1, 10, 3);
+            indexer.setGuard(guard);
+
+            indexer.index(new Article(2L, "学习", "每日充电"));
+            indexer.close();
+
+            assertTrue(indexer.getGuardRetries() > 0);
+            assertEquals(1, stub.calls("_bulk"));
+            assertEquals(1, indexer.getSucceeded());
+            assertEquals(0, indexer.getFailed());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.elk.spool;
+
+import com.example.elk.bean.Article;
+import com.example.elk.stub.StubElasticsearch;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkSpoolTest {
+
+    private static final String CREATED_THEN_REJECTED = "{\"took\":3,\"errors\":true,\"items\":["
+            + "{\"index\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"2\",\"_version\":1,\"result\":\"created\","
+            + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}},"
+            + "{\"index\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"3\",\"status\":429,"
+            + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected execution\"}}}]}";
+
+    private static final String CREATED_THEN_DELETED = "{\"took\":2,\"errors\":false,\"items\":["
+            + "{\"index\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"3\",\"_version\":1,\"result\":\"created\","
+            + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":1,\"_primary_term\":1,\"status\":201}},"
+            + "{\"delete\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"4\",\"_version\":1,\"result\":\"not_found\","
+            + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":2,\"_primary_term\":1,\"status\":404}}]}";
+
+    @TempDir
+    Path dir;
+
+    private BulkSpool spool(RestHighLevelClient client) throws IOException {
+        return new BulkSpool(client, "article_index", dir.toString(), "1mb", "16mb", 100, "5mb",
+                "20ms", "1s", "10ms", "50ms");
+    }
+
+    @Test
+    void writesSurviveOutageAndRestart() throws Exception {
+        AtomicBoolean down = new AtomicBoolean(true);
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_bulk", () -> down.get() ? null : StubElasticsearch.BULK_RESPONSE)
+                .start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            BulkSpool spool = spool(client);
+            spool.index(new Article(2L, "学习", "每日充电"));
+            spool.index(new Article(3L, "工作", "兢兢业业工作"));
+            assertEquals(2, spool.getAppended());
+            assertTrue(spool.getBacklog() > 0);
+            Thread.sleep(100);
+            assertTrue(spool.getRetries() > 0);
+            spool.close();
+
+            //重启后从 checkpoint 继续
+            down.set(false);
+            BulkSpool restarted = spool(client);
+            assertTrue(restarted.awaitDrained(5, TimeUnit.SECONDS));
+            assertTrue(stub.lastBody("_bulk").contains("兢兢业业工作"));
+            restarted.close();
+        }
+    }
+
+    @Test
+    void resendsFromFirstRejectedItem() throws Exception {
+        AtomicInteger round = new AtomicInteger(-1);
+        try (StubElasticsearch stub = new StubElasticsearch(4)
+                .route("_bulk", () -> round.get() < 0 ? null
+                        : round.getAndIncrement() == 0 ? CREATED_THEN_REJECTED : CREATED_THEN_DELETED)
+                .start();
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(HttpHost.create(stub.address())))) {
+            //先在集群不可用时写进去，保证三条在同一个 bulk 里
+            BulkSpool down = spool(client);
+            down.index(new Article(2L, "学习", "每日充电"));
+            down.index(new Article(3L, "工作", "兢兢业业工作"));
+            down.delete(4L);
+            down.close();
+
+            round.set(0);
+            BulkSpool spool = spool(client);
+            assertTrue(spool.awaitDrained(5, TimeUnit.SECONDS));
+            String resent = stub.lastBody("_bulk");
+            assertTrue(resent.contains("兢兢业业工作"));
+            assertTrue(resent.contains("\"delete\""));
+            assertFalse(resent.contains("每日充电"));
+            assertEquals(2, round.get());
+            assertEquals(1, spool.getRetries());
+            spool.close();
+        }
+    }
+}
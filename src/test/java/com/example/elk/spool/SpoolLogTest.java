@@ -0,0 +1,104 @@
+package com.example.elk.spool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SpoolLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(List<SpoolLog.Record> records) {
+        return records.stream().map(r -> new String(r.getData(), StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    void recordsRollOverSegmentsAndReadBackInOrder() throws IOException {
+        try (SpoolLog log = new SpoolLog(dir, 64, 1 << 20)) {
+            for (int i = 0; i < 10; i++) {
+                log.append(bytes("记录" + i));
+            }
+            //每条 8 + 7 字节，一段放 4 条
+            assertEquals(3, log.getSegmentCount());
+
+            List<SpoolLog.Record> first = log.read(0, 3, Long.MAX_VALUE);
+            assertEquals(List.of("记录0", "记录1", "记录2"), strings(first));
+            List<SpoolLog.Record> rest = log.read(first.get(2).getNext(), 100, Long.MAX_VALUE);
+            assertEquals(7, rest.size());
+            assertEquals("记录9", strings(rest).get(6));
+        }
+    }
+
+    @Test
+    void commitDeletesConsumedSegmentsAndSurvivesReopen() throws IOException {
+        try (SpoolLog log = new SpoolLog(dir, 64, 1 << 20)) {
+            for (int i = 0; i < 10; i++) {
+                log.append(bytes("记录" + i));
+            }
+            List<SpoolLog.Record> records = log.read(0, 6, Long.MAX_VALUE);
+            log.commit(records.get(5).getNext());
+            assertEquals(2, segmentFiles());
+        }
+        try (SpoolLog log = new SpoolLog(dir, 64, 1 << 20)) {
+            assertEquals(List.of("记录6", "记录7", "记录8", "记录9"), strings(log.read(log.getCheckpoint(), 100, Long.MAX_VALUE)));
+            log.append(bytes("记录10"));
+            assertEquals(5, log.read(log.getCheckpoint(), 100, Long.MAX_VALUE).size());
+        }
+    }
+
+    @Test
+    void tornRecordIsDroppedOnReopen() throws IOException {
+        long torn;
+        try (SpoolLog log = new SpoolLog(dir, 1024, 1 << 20)) {
+            log.append(bytes("完整的记录"));
+            torn = log.append(bytes("写了一半的记录"));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(dir.resolve(String.format("%020d.log", 0)).toFile(), "rw")) {
+            file.seek(torn + 10);
+            file.write(new byte[]{1, 2, 3});
+        }
+        try (SpoolLog log = new SpoolLog(dir, 1024, 1 << 20)) {
+            assertEquals(torn, log.getWriteOffset());
+            log.append(bytes("短"));
+            assertEquals(List.of("完整的记录", "短"), strings(log.read(0, 100, Long.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    void appendFailsWhenBacklogExceedsLimit() throws IOException {
+        try (SpoolLog log = new SpoolLog(dir, 1024, 40)) {
+            log.append(bytes("0123456789"));
+            log.append(bytes("0123456789"));
+            assertThrows(IllegalStateException.class, () -> log.append(bytes("0123456789")));
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[2000]));
+            //长度 0 会被 read 当成段尾，后面的记录就读不到了
+            assertThrows(IllegalArgumentException.class, () -> log.append(new byte[0]));
+
+            log.commit(log.read(0, 1, Long.MAX_VALUE).get(0).getNext());
+            log.append(bytes("0123456789"));
+            assertEquals(2, log.read(log.getCheckpoint(), 100, Long.MAX_VALUE).size());
+        }
+    }
+}
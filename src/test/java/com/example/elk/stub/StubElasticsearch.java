@@ -0,0 +1,217 @@
+package com.example.elk.stub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 压测用的假 es，按路径后缀返回固定的响应体，可以设置固定延迟模拟集群耗时
+ * <p>
+ * 和 es 一样接受 gzip 压缩的请求体，请求带了 Accept-Encoding: gzip 时响应体也用 gzip 压缩
+ */
+public class StubElasticsearch implements AutoCloseable {
+
+    public static final String SEARCH_RESPONSE = "{\"took\":1,\"timed_out\":false,"
+            + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+            + "\"hits\":{\"total\":{\"value\":1,\"relation\":\"eq\"},\"max_score\":1.0,\"hits\":["
+            + "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"1\",\"_score\":1.0,"
+            + "\"_source\":{\"id\":1,\"title\":\"学习\",\"content\":\"每日充电\"}}]}}";
+
+    public static final String BULK_RESPONSE = "{\"took\":3,\"errors\":false,\"items\":["
+            + "{\"index\":{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,\"result\":\"created\","
+            + "\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":201}}]}";
+
+    public static final String INDEX_RESPONSE = "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"1\","
+            + "\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+            + "\"_seq_no\":0,\"_primary_term\":1}";
+
+    public static final String GET_RESPONSE = "{\"_index\":\"article_index\",\"_type\":\"_doc\",\"_id\":\"1\","
+            + "\"_version\":1,\"_seq_no\":0,\"_primary_term\":1,\"found\":true,"
+            + "\"_source\":{\"id\":1,\"title\":\"学习\",\"content\":\"每日充电\"}}";
+
+    public static final String MGET_RESPONSE = "{\"docs\":[" + GET_RESPONSE + "]}";
+
+    static {
+        //响应头和响应体分两次写，不关 Nagle 的话会和客户端的延迟 ack 叠出每次 40ms 的等待
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Supplier<String>> routes = new LinkedHashMap<>();
+    private final Map<String, AtomicInteger> calls = new LinkedHashMap<>();
+    private final Map<String, String> lastBodies = new ConcurrentHashMap<>();
+    private volatile long latencyMillis;
+    private final AtomicInteger gzipRequests = new AtomicInteger();
+    private final AtomicInteger gzipResponses = new AtomicInteger();
+
+    public StubElasticsearch(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        route("_search", SEARCH_RESPONSE);
+    }
+
+    /**
+     * 注册 _bulk、单条写入、单条 get、_mget 的固定响应，_search 默认就有
+     */
+    public StubElasticsearch cannedRoutes() {
+        return route("_bulk", BULK_RESPONSE)
+                .route("PUT _doc/", INDEX_RESPONSE)
+                .route("GET _doc/", GET_RESPONSE)
+                .route("_mget", MGET_RESPONSE);
+    }
+
+    public StubElasticsearch route(String pathSuffix, String body) {
+        return route(pathSuffix, () -> body);
+    }
+
+    public StubElasticsearch route(String pathSuffix, Supplier<String> body) {
+        routes.put(pathSuffix, body);
+        calls.put(pathSuffix, new AtomicInteger());
+        return this;
+    }
+
+    /**
+     * 某个路由被调用的次数
+     */
+    public int calls(String pathSuffix) {
+        return calls.get(pathSuffix).get();
+    }
+
+    public StubElasticsearch latency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    public StubElasticsearch start() {
+        server.start();
+        return this;
+    }
+
+    public String address() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * 某个路由最近一次收到的请求体
+     */
+    public String lastBody(String pathSuffix) {
+        return lastBodies.get(pathSuffix);
+    }
+
+    /**
+     * 收到的请求体被 gzip 压缩过的请求数
+     */
+    public int gzipRequests() {
+        return gzipRequests.get();
+    }
+
+    /**
+     * 用 gzip 压缩过响应体的请求数
+     */
+    public int gzipResponses() {
+        return gzipResponses.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = in.readAllBytes();
+        }
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            gzipRequests.incrementAndGet();
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(request))) {
+                request = in.readAllBytes();
+            }
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] body = null;
+        String route = match(exchange.getRequestMethod(), exchange.getRequestURI().getPath());
+        if (route != null) {
+            calls.get(route).incrementAndGet();
+            lastBodies.put(route, new String(request, StandardCharsets.UTF_8));
+            body = routes.get(route).get().getBytes(StandardCharsets.UTF_8);
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            gzipResponses.incrementAndGet();
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(gzipped)) {
+                out.write(body);
+            }
+            body = gzipped.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * 路由写成 "_search" 或者带方法的 "DELETE _search/scroll"，取路径能匹配上的最长路由，带方法的优先
+     */
+    private String match(String method, String path) {
+        String best = null;
+        int bestScore = -1;
+        for (String route : routes.keySet()) {
+            int space = route.indexOf(' ');
+            String suffix = space < 0 ? route : route.substring(space + 1);
+            if (space >= 0 && !route.substring(0, space).equalsIgnoreCase(method)) {
+                continue;
+            }
+            if (path.contains(suffix)) {
+                int score = suffix.length() * 2 + (space >= 0 ? 1 : 0);
+                if (score > bestScore) {
+                    best = route;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}